@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.slinkworks.query;
+
+/**
+ * Builds the trees used by the benchmarks.
+ */
+final class BenchmarkTrees {
+
+  private BenchmarkTrees() {
+  }
+
+  /**
+   * Builds a balanced tree where every group holds termsPerGroup terms and fanOut sub groups until
+   * the requested depth is reached. Labels are LEVEL_0, LEVEL_1, ... by depth.
+   *
+   * @param depth         number of levels below the root
+   * @param fanOut        sub groups per group
+   * @param termsPerGroup terms per group
+   * @return root of the tree
+   */
+  static TermGroup balanced(int depth, int fanOut, int termsPerGroup) {
+    TermGroup root = new TermGroup().withLabel("LEVEL_0");
+    fill(root, 0, depth, fanOut, termsPerGroup, new int[1]);
+    return root;
+  }
+
+  private static void fill(TermGroup group, int level, int depth, int fanOut, int termsPerGroup,
+      int[] counter) {
+    for (int i = 0; i < termsPerGroup; i++) {
+      group.addTerm(new Term("field" + (i % 4), "value" + counter[0]++));
+    }
+    if (level < depth) {
+      for (int i = 0; i < fanOut; i++) {
+        TermGroup child = group.addGroup().withLabel("LEVEL_" + (level + 1));
+        child.setOccur(i % 3 == 0 ? Occur.MUST : Occur.SHOULD);
+        fill(child, level + 1, depth, fanOut, termsPerGroup, counter);
+      }
+    }
+  }
+
+  /**
+   * Builds the kind of tree a query generator leaves behind: every facet is a SHOULD group around
+   * another SHOULD group, there are groups around single terms, empty groups and terms that are
+   * added twice.
+   *
+   * @param facets        number of facets
+   * @param termsPerFacet terms in each facet
+   * @return root of the tree
+   */
+  static TermGroup wasteful(int facets, int termsPerFacet) {
+    TermGroup root = new TermGroup();
+    for (int f = 0; f < facets; f++) {
+      TermGroup facet = root.addGroup().with(Occur.MUST).addGroup();
+      TermGroup values = facet.addGroup();
+      for (int i = 0; i < termsPerFacet; i++) {
+        values.addTerm(new Term("facet" + f, "value" + i));
+        if (0 == i % 4) {
+          values.addTerm(new Term("facet" + f, "value" + i));
+        }
+      }
+      facet.addGroup();
+      root.addGroup().with(Occur.MUST_NOT).addTerm(new Term("excluded" + f, "true"));
+    }
+    return root;
+  }
+
+  /**
+   * @param group root of a tree
+   * @return number of groups and terms in the tree
+   */
+  static int size(TermGroup group) {
+    int size = 1 + group.getTerms().size();
+    for (TermGroup child : group.getGroups()) {
+      size += size(child);
+    }
+    return size;
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.slinkworks.query;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * What putting a tree of 259 groups and 2072 terms in canonical order adds to rendering it, and
+ * what it adds when the tree is in order already. Each works on a fresh copy so that nothing is
+ * cached.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CanonicalOrderBenchmark {
+
+  private TermGroup tree;
+  private CanonicalOrder canonicalOrder;
+  private TermGroup sorted;
+
+  @Setup
+  public void setup() {
+    tree = BenchmarkTrees.balanced(3, 6, 8).freeze();
+    canonicalOrder = new CanonicalOrder();
+    sorted = new TermGroup(tree);
+    canonicalOrder.canonicalize(sorted);
+    sorted.freeze();
+  }
+
+  @Benchmark
+  public String render() {
+    return new TermGroup(tree).toString();
+  }
+
+  @Benchmark
+  public String canonicalizeAndRender() {
+    TermGroup group = new TermGroup(tree);
+    canonicalOrder.canonicalize(group);
+    return group.toString();
+  }
+
+  @Benchmark
+  public String canonicalizeInOrderAndRender() {
+    TermGroup group = new TermGroup(sorted);
+    canonicalOrder.canonicalize(group);
+    return group.toString();
+  }
+}
@@ -0,0 +1,58 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.slinkworks.query;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Diffing a tree of about 10k nodes against a variant with one term changed. The base tree's
+ * fingerprints are cached, the variant's are worked out along the changed path.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DiffBenchmark {
+
+  private TermGroup base;
+  private TermGroup variant;
+  private Term term;
+  private int counter = 0;
+
+  @Setup
+  public void setup() {
+    base = BenchmarkTrees.balanced(4, 6, 5);
+    variant = new TermGroup(base);
+    term = variant.getGroups().get(3).getGroups().get(1).getGroups().get(4).getTerms().get(2);
+    base.fingerprint();
+    variant.fingerprint();
+  }
+
+  @Benchmark
+  public List<TermGroupDiff.Change> diff() {
+    term.setValue("value" + (counter++ & 7));
+    return TermGroupDiff.diff(base, variant);
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.slinkworks.query;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * isEmpty on a tree of about 10k nodes. walkIsEmpty is the recursive walk isEmpty used to do and
+ * is kept here for comparison.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EmptinessBenchmark {
+
+  private TermGroup tree;
+  private TermGroup blankTree;
+
+  @Setup
+  public void setup() {
+    // 1 + 6 + 36 + 216 + 1296 = 1555 groups, each holding 5 terms: 9330 nodes.
+    tree = BenchmarkTrees.balanced(4, 6, 5);
+
+    // Every term is blank except one in the last group, the worst case for a walk.
+    blankTree = new TermGroup();
+    TermGroup last = blankTree;
+    for (int i = 0; i < 1555; i++) {
+      TermGroup group = ((i % 6) == 0 ? last : last.getParentGroup()).addGroup();
+      for (int j = 0; j < 5; j++) {
+        group.addTerm(new Term("", ""));
+      }
+      last = group;
+    }
+    last.addTerm(new Term("field", "value"));
+  }
+
+  @Benchmark
+  public boolean isEmpty() {
+    return blankTree.isEmpty();
+  }
+
+  @Benchmark
+  public boolean walkIsEmpty() {
+    return walkIsEmpty(blankTree);
+  }
+
+  @Benchmark
+  public String render() {
+    return tree.toString();
+  }
+
+  private static boolean walkIsEmpty(TermGroup group) {
+    for (Term term : group.getTerms()) {
+      if (!term.isBlank()) {
+        return false;
+      }
+    }
+    for (TermGroup subGroup : group.getGroups()) {
+      if (!walkIsEmpty(subGroup)) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
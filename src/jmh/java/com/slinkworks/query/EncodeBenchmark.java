@@ -0,0 +1,80 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.slinkworks.query;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Turning a tree of about 10k nodes into the bytes of a request body, with a QueryEncoder and by
+ * way of a String. The separator changes on every call so that nothing can be reused.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EncodeBenchmark {
+
+  private final QueryEncoder utf8 = new QueryEncoder(false);
+  private final QueryEncoder form = new QueryEncoder(true);
+  private TermGroup tree;
+  private boolean flip;
+
+  @Setup
+  public void setup() {
+    tree = BenchmarkTrees.balanced(4, 6, 5);
+  }
+
+  private String separator() {
+    flip = !flip;
+    return flip ? " " : "  ";
+  }
+
+  @Benchmark
+  public int encodeUtf8() throws IOException {
+    utf8.reset();
+    tree.prettyPrint(utf8, false, "", "", separator());
+    return utf8.size();
+  }
+
+  @Benchmark
+  public int stringUtf8() {
+    return tree.prettyPrint(false, "", "", separator()).getBytes(StandardCharsets.UTF_8).length;
+  }
+
+  @Benchmark
+  public int encodeForm() throws IOException {
+    form.reset();
+    tree.prettyPrint(form, false, "", "", separator());
+    return form.size();
+  }
+
+  @Benchmark
+  public int stringForm() {
+    return URLEncoder.encode(tree.prettyPrint(false, "", "", separator()), StandardCharsets.UTF_8)
+        .getBytes(StandardCharsets.US_ASCII).length;
+  }
+}
@@ -0,0 +1,65 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.slinkworks.query;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Escaping user input with Term.escape and with the usual regular expression, on values that need
+ * nothing escaped and on values that do.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class EscapeBenchmark {
+
+  private static final Pattern SPECIAL = Pattern.compile("[\\\\+\\-!():^\\[\\]\"{}~*?|&/]");
+
+  private final String[] plain = {"dinosaurs", "pink panther", "the lost world jurassic park",
+      "1984", "treasure island", "indiana jones and the temple of doom", "alien", "heat"};
+  private final String[] special = {"what? (1999)", "a:b-c", "\"quoted\"", "c++ & java",
+      "[draft] report", "50/50", "wild*card~", "x\\y"};
+  private int next;
+
+  @Benchmark
+  public String escapePlain() {
+    return Term.escape(plain[next++ & 7]);
+  }
+
+  @Benchmark
+  public String escapeSpecial() {
+    return Term.escape(special[next++ & 7]);
+  }
+
+  @Benchmark
+  public String regexPlain() {
+    return SPECIAL.matcher(plain[next++ & 7]).replaceAll("\\\\$0");
+  }
+
+  @Benchmark
+  public String regexSpecial() {
+    return SPECIAL.matcher(special[next++ & 7]).replaceAll("\\\\$0");
+  }
+}
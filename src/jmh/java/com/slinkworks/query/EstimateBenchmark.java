@@ -0,0 +1,75 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.slinkworks.query;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * estimateRenderedLength on a tree of about 10k nodes after nothing changed, after a change to one
+ * term deep in the tree, and on a fork whose counts are not known, next to rendering the fork.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EstimateBenchmark {
+
+  private TermGroup tree;
+  private TermGroup frozen;
+  private Term leaf;
+  private boolean flip;
+
+  @Setup
+  public void setup() {
+    tree = BenchmarkTrees.balanced(4, 6, 5);
+    TermGroup group = tree;
+    while (!group.getGroups().isEmpty()) {
+      group = group.getGroups().get(0);
+    }
+    leaf = group.getTerms().get(0);
+    frozen = BenchmarkTrees.balanced(4, 6, 5).freeze();
+  }
+
+  @Benchmark
+  public long unchanged() {
+    return tree.estimateRenderedLength();
+  }
+
+  @Benchmark
+  public long leafChanged() {
+    flip = !flip;
+    leaf.setOccur(flip ? Occur.MUST : Occur.SHOULD);
+    return tree.estimateRenderedLength();
+  }
+
+  @Benchmark
+  public long nothingKnown() {
+    return new TermGroup(frozen).estimateRenderedLength();
+  }
+
+  @Benchmark
+  public long render() {
+    return new TermGroup(frozen).toString().length();
+  }
+}
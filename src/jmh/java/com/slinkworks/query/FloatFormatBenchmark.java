@@ -0,0 +1,65 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.slinkworks.query;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.lang3.StringUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Appending a boost to a render buffer. legacyFormat is how formatFloat used to work and is kept
+ * here for comparison.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FloatFormatBenchmark {
+
+  private final StringBuilder sb = new StringBuilder();
+  private float[] values;
+  private int next;
+
+  @Setup
+  public void setup() {
+    values = new float[] {0.5f, 1.3f, 2f, 0.0001f, 12.75f, 100f, 0.333333f, 7.125f};
+  }
+
+  @Benchmark
+  public int appendFloat() throws IOException {
+    sb.setLength(0);
+    TermGroup.appendFloat(sb, values[next++ & 7]);
+    return sb.length();
+  }
+
+  @Benchmark
+  public int legacyFormat() {
+    sb.setLength(0);
+    sb.append(StringUtils.stripEnd(String.format((Locale) null, "%1.4f", values[next++ & 7]),
+        ".0"));
+    return sb.length();
+  }
+}
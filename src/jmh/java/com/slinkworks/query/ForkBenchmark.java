@@ -0,0 +1,62 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.slinkworks.query;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Rendering a per request variant of a shared template of about 10k nodes that boosts one group,
+ * with the copy constructor and with fork, from 8 threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(8)
+public class ForkBenchmark {
+
+  private TermGroup template;
+
+  @Setup
+  public void setup() {
+    template = BenchmarkTrees.balanced(4, 6, 5);
+    template.getGroups().get(0).setLabel("EDIT");
+    template.freeze();
+  }
+
+  @Benchmark
+  public String copy() {
+    TermGroup variant = new TermGroup(template);
+    variant.findByLabel("EDIT").get(0).setBoost(2f);
+    return variant.toString();
+  }
+
+  @Benchmark
+  public String fork() {
+    TermGroup variant = template.fork();
+    variant.findByLabel("EDIT").get(0).setBoost(2f);
+    return variant.toString();
+  }
+}
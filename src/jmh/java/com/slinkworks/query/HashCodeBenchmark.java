@@ -0,0 +1,60 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.slinkworks.query;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Looking up a tree of about 10k nodes in a map keyed by trees, after changing one term in it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class HashCodeBenchmark {
+
+  private TermGroup tree;
+  private Term term;
+  private final Map<TermGroup, String> cache = new HashMap<>();
+  private int counter = 0;
+
+  @Setup
+  public void setup() {
+    tree = BenchmarkTrees.balanced(4, 6, 5);
+    term = tree.getGroups().get(0).getGroups().get(0).getGroups().get(0).getTerms().get(0);
+    for (int i = 0; i < 16; i++) {
+      TermGroup key = new TermGroup(tree);
+      key.getGroups().get(i % 6).setBoost(i + 2f);
+      cache.put(key, key.toString());
+    }
+  }
+
+  @Benchmark
+  public String lookup() {
+    term.setValue("value" + (counter++ & 7));
+    return cache.get(tree);
+  }
+}
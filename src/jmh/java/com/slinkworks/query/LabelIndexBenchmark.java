@@ -0,0 +1,63 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.slinkworks.query;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * findByLabel on trees of 258 to 9330 nodes. The cost should not grow with the tree. walk is the
+ * recursive search findByLabel used to do and is kept here for comparison.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LabelIndexBenchmark {
+
+  @Param({"2", "3", "4"})
+  private int depth;
+
+  private TermGroup tree;
+
+  @Setup
+  public void setup() {
+    tree = BenchmarkTrees.balanced(depth, 6, 5);
+  }
+
+  @Benchmark
+  public List<TermGroup> findByLabel() {
+    return tree.findByLabel("LEVEL_1");
+  }
+
+  @Benchmark
+  public List<TermGroup> walk() {
+    List<TermGroup> found = new ArrayList<>();
+    tree.findByLabel("LEVEL_1", found);
+    return found;
+  }
+}
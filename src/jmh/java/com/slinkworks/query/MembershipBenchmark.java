@@ -0,0 +1,73 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.slinkworks.query;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Building an allow-list group of ids with addTerm and taking half of them out again with
+ * removeTerm.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MembershipBenchmark {
+
+  @Param({"1000", "50000"})
+  private int count;
+
+  private String[] ids;
+
+  @Setup
+  public void setup() {
+    ids = new String[count];
+    for (int i = 0; i < count; i++) {
+      ids[i] = Integer.toString(i);
+    }
+  }
+
+  @Benchmark
+  public TermGroup addTerms() {
+    TermGroup group = new TermGroup();
+    for (String id : ids) {
+      group.addTerm(new Term("id", id));
+    }
+    return group;
+  }
+
+  @Benchmark
+  public TermGroup addAndRemoveTerms() {
+    TermGroup group = addTerms();
+    List<Term> terms = new ArrayList<>(group.getTerms());
+    for (int i = 0; i < count; i += 2) {
+      group.removeTerm(terms.get(i));
+    }
+    return group;
+  }
+}
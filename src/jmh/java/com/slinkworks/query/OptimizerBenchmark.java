@@ -0,0 +1,67 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.slinkworks.query;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Rendering a wasteful tree of 200 facets as it is, optimizing it first, and rendering the tree
+ * once it has been optimized. Each renders a fresh copy so that nothing is cached.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class OptimizerBenchmark {
+
+  private TermGroup wasteful;
+  private TermGroup optimized;
+  private QueryOptimizer optimizer;
+
+  @Setup
+  public void setup() {
+    optimizer = new QueryOptimizer();
+    wasteful = BenchmarkTrees.wasteful(200, 20).freeze();
+    optimized = wasteful.fork();
+    optimizer.optimize(optimized);
+    optimized.freeze();
+  }
+
+  @Benchmark
+  public String render() {
+    return new TermGroup(wasteful).toString();
+  }
+
+  @Benchmark
+  public String optimizeAndRender() {
+    TermGroup group = new TermGroup(wasteful);
+    optimizer.optimize(group);
+    return group.toString();
+  }
+
+  @Benchmark
+  public String renderOptimized() {
+    return new TermGroup(optimized).toString();
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.slinkworks.query;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Parsing the query rendered from a tree of about 10k nodes: 138 KB of ASCII from toString and
+ * 270 KB with labels and indentation, into a tree and, from a Reader, into a handler that only
+ * counts the terms. Divide the size by the time per operation for MB/s.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ParserBenchmark {
+
+  private String query;
+  private String pretty;
+
+  @Setup
+  public void setup() {
+    TermGroup tree = BenchmarkTrees.balanced(4, 6, 5);
+    tree.getTerms().get(0).setBoost(1.5f);
+    tree.getGroups().get(1).getTerms().get(0).setProximity(2);
+    query = tree.toString();
+    pretty = tree.prettyPrint(true, "", "  ", "\n");
+  }
+
+  @Benchmark
+  public TermGroup parse() {
+    return TermGroupParser.parse(query);
+  }
+
+  @Benchmark
+  public TermGroup parsePretty() {
+    return TermGroupParser.parse(pretty);
+  }
+
+  @Benchmark
+  public int stream() throws IOException {
+    int[] count = new int[1];
+    TermGroupParser.parse(new StringReader(query), new TermGroupHandler() {
+      @Override
+      public void term(String field, String value, Occur occur, Proximity proximity, Boost boost,
+          ConstantScore constantScore) {
+        count[0]++;
+      }
+    });
+    return count[0];
+  }
+}
@@ -0,0 +1,60 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.slinkworks.query;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Making a per request variant of a base tree of about 10k nodes that boosts one group, with the
+ * copy constructor and with PersistentTermGroup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PersistentTreeBenchmark {
+
+  private TermGroup base;
+  private PersistentTermGroup persistentBase;
+
+  @Setup
+  public void setup() {
+    base = BenchmarkTrees.balanced(4, 6, 5);
+    base.getGroups().get(0).setLabel("EDIT");
+    persistentBase = PersistentTermGroup.of(base);
+  }
+
+  @Benchmark
+  public TermGroup copy() {
+    TermGroup variant = new TermGroup(base);
+    variant.findByLabel("EDIT").get(0).setBoost(2f);
+    return variant;
+  }
+
+  @Benchmark
+  public PersistentTermGroup persistent() {
+    return persistentBase.update("EDIT", group -> group.withBoost(2f));
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.slinkworks.query;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Publishing an id filter of 100k terms in 16K chunks, and turning it into bytes by way of a
+ * String. The filter is frozen and forked for every call so that no rendering is reused.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PublisherBenchmark {
+
+  private TermGroup ids;
+
+  @Setup
+  public void setup() {
+    ids = new TermFilterGroup();
+    for (int i = 0; i < 100_000; i++) {
+      ids.addTerm(new Term("id", "doc-" + i));
+    }
+    ids.freeze();
+  }
+
+  @Benchmark
+  public long publish() {
+    long[] bytes = {0};
+    new QueryPublisher(ids.fork(), 16 * 1024).subscribe(new Flow.Subscriber<>() {
+      private Flow.Subscription subscription;
+
+      @Override
+      public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        subscription.request(1);
+      }
+
+      @Override
+      public void onNext(ByteBuffer item) {
+        bytes[0] += item.remaining();
+        subscription.request(1);
+      }
+
+      @Override
+      public void onError(Throwable throwable) {
+      }
+
+      @Override
+      public void onComplete() {
+      }
+    });
+    return bytes[0];
+  }
+
+  @Benchmark
+  public long string() {
+    return ids.fork().toString().getBytes(StandardCharsets.UTF_8).length;
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.slinkworks.query;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+
+/**
+ * toString on a tree of about 10k nodes after nothing changed, after a change to one term deep in
+ * the tree, and with arguments that change on every call so that nothing can be reused.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RenderCacheBenchmark {
+
+  private TermGroup tree;
+  private Term leaf;
+  private boolean flip;
+
+  @Setup
+  public void setup() {
+    tree = BenchmarkTrees.balanced(4, 6, 5);
+    TermGroup group = tree;
+    while (!group.getGroups().isEmpty()) {
+      group = group.getGroups().get(0);
+    }
+    leaf = group.getTerms().get(0);
+  }
+
+  @Benchmark
+  public String unchanged() {
+    return tree.toString();
+  }
+
+  @Benchmark
+  public String leafChanged() {
+    flip = !flip;
+    leaf.setOccur(flip ? Occur.MUST : Occur.SHOULD);
+    return tree.toString();
+  }
+
+  @Benchmark
+  public String nothingReused() {
+    flip = !flip;
+    return tree.prettyPrint(false, "", "", flip ? " " : "  ");
+  }
+}
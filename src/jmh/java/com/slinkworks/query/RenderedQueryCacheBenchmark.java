@@ -0,0 +1,77 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.slinkworks.query;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Rendering a request's tree of about 1500 nodes that is the same as an earlier request's,
+ * directly and through a RenderedQueryCache. The tree is either built from scratch, or forked
+ * from a frozen template with one group boosted, when only the fingerprints of the boosted group
+ * and the root have to be worked out.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RenderedQueryCacheBenchmark {
+
+  private final RenderedQueryCache cache = new RenderedQueryCache(1000, 10_000_000L);
+  private TermGroup template;
+
+  @Setup
+  public void setup() {
+    template = BenchmarkTrees.balanced(3, 6, 5);
+    template.getGroups().get(0).setLabel("EDIT");
+    template.freeze();
+    cache.toString(BenchmarkTrees.balanced(3, 6, 5));
+    cache.toString(fork());
+  }
+
+  private TermGroup fork() {
+    TermGroup fork = template.fork();
+    fork.findByLabel("EDIT").get(0).setBoost(2f);
+    return fork;
+  }
+
+  @Benchmark
+  public String render() {
+    return BenchmarkTrees.balanced(3, 6, 5).toString();
+  }
+
+  @Benchmark
+  public String cached() {
+    return cache.toString(BenchmarkTrees.balanced(3, 6, 5));
+  }
+
+  @Benchmark
+  public String renderFork() {
+    return fork().toString();
+  }
+
+  @Benchmark
+  public String cachedFork() {
+    return cache.toString(fork());
+  }
+}
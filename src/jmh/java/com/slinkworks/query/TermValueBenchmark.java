@@ -0,0 +1,72 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.slinkworks.query;
+
+import java.util.StringTokenizer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Making Terms from a mix of values. legacyClassify is how setValue used to decide what a value
+ * was and is kept here for comparison.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TermValueBenchmark {
+
+  private final String[] values = {"dinosaurs", "pink panther", "\"treasure island\"",
+      "[1950 TO 1960]", "(1900 1963 1964)", "jurassic park the lost world", "12345", "dino*"};
+  private final Term source = new Term("title", "pink panther").withBoost(1.5f);
+  private int next;
+
+  @Benchmark
+  public Term construct() {
+    return new Term("title", values[next++ & 7]);
+  }
+
+  @Benchmark
+  public Term copy() {
+    return new Term(source);
+  }
+
+  @Benchmark
+  public int classify() {
+    return Term.classify(values[next++ & 7]);
+  }
+
+  @Benchmark
+  public int legacyClassify() {
+    String value = values[next++ & 7];
+    boolean isRangeQuery = value.startsWith("[") || value.startsWith("{");
+    boolean isGroupingClauseQuery = value.startsWith("(");
+    StringTokenizer tokenizer = new StringTokenizer(value, " ");
+    if ((tokenizer.countTokens() > 1)
+        && (!value.startsWith("\""))
+        && (!isRangeQuery)
+        && (!isGroupingClauseQuery)) {
+      return Term.PHRASE;
+    }
+    return isRangeQuery ? Term.RANGE : (isGroupingClauseQuery ? Term.GROUPING : Term.SINGLE);
+  }
+}
@@ -33,6 +33,10 @@
 
 package com.slinkworks.query;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
  * Boost represents the boost value used in a Standard Solr Query. For example:
  * <pre>
@@ -42,8 +46,19 @@ package com.slinkworks.query;
  */
 public class Boost {
 
+  // Instances handed out by valueOf for values with up to 4 decimal places, see there.
+  private static final int CACHE_LIMIT = 1024;
+  private static final ConcurrentHashMap<Float, Boost> CACHE = new ConcurrentHashMap<>();
+
   private float value;
 
+  // The text toString returns, only set on the immutable instances made by valueOf.
+  private final String rendered;
+
+  // The terms and groups holding this boost, told when setValue changes it. Never set on the
+  // immutable instances.
+  private ValueOwners owners = null;
+
   /**
    * Copy Constructor
    *
@@ -51,6 +66,7 @@ public class Boost {
    */
   public Boost(Boost other) {
     this.value = other.value;
+    this.rendered = null;
   }
 
   /**
@@ -60,6 +76,69 @@ public class Boost {
    */
   public Boost(float boost) {
     this.value = boost;
+    this.rendered = null;
+  }
+
+  private Boost(float value, String rendered) {
+    this.value = value;
+    this.rendered = rendered;
+  }
+
+  /**
+   * An immutable boost that can be shared by any number of terms and groups. Values with up to
+   * 4 decimal places, such as 1.5 or 0.25, come from a cache so asking for the same value again
+   * returns the same instance. The text is rendered once when the instance is made.
+   *
+   * @param value A valid boost for a Lucene query. Value is not validated.
+   * @return boost that can not be changed
+   */
+  public static Boost valueOf(float value) {
+    Boost cached = CACHE.get(value);
+    if (null != cached) {
+      return cached;
+    }
+
+    Boost created = new Boost(value, "^" + TermGroup.formatFloat(value));
+    if (value == (float) (Math.rint(value * 10000d) / 10000d)) {
+      if (CACHE.size() >= CACHE_LIMIT) {
+        // Start over rather than stop caching, so the values in use now get cached again.
+        CACHE.clear();
+      }
+      cached = CACHE.putIfAbsent(value, created);
+    }
+    return (null == cached) ? created : cached;
+  }
+
+  /**
+   * @return this if it can not be changed, otherwise an immutable boost with the same value
+   */
+  Boost immutable() {
+    return (null != rendered) ? this : valueOf(value);
+  }
+
+  /**
+   * Called by a Term or TermGroup when it starts holding this boost.
+   *
+   * @param holder the term or group
+   */
+  void attach(Object holder) {
+    if (null == rendered) {
+      if (null == owners) {
+        owners = new ValueOwners();
+      }
+      owners.attach(holder);
+    }
+  }
+
+  /**
+   * Called by a Term or TermGroup when it stops holding this boost.
+   *
+   * @param holder the term or group
+   */
+  void detach(Object holder) {
+    if (null != owners) {
+      owners.detach(holder);
+    }
   }
 
   /**
@@ -70,10 +149,22 @@ public class Boost {
   }
 
   /**
+   * Changes this value in place. The terms and groups holding this boost render the new value
+   * from then on. The instances from valueOf, which frozen trees hold, are shared and can not be
+   * changed.
+   *
    * @param value A valid boost value for a Lucene query. Value is not validated.
+   * @throws UnsupportedOperationException if this instance came from valueOf
    */
   public void setValue(float value) {
+    if (null != rendered) {
+      throw new UnsupportedOperationException(
+          "A Boost from valueOf is shared and can not be changed");
+    }
     this.value = value;
+    if (null != owners) {
+      owners.changed();
+    }
   }
 
   /**
@@ -83,7 +174,32 @@ public class Boost {
    */
   @Override
   public String toString() {
-    return "^" + TermGroup.formatFloat(value);
+    if (null != rendered) {
+      return rendered;
+    }
+    StringBuilder sb = new StringBuilder();
+    try {
+      appendTo(sb);
+    } catch (IOException e) {
+      // StringBuilder does not throw IOException
+      throw new UncheckedIOException(e);
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Appends the same text that toString returns to the given buffer.
+   *
+   * @param out buffer to append to
+   * @throws IOException if the buffer throws
+   */
+  public void appendTo(Appendable out) throws IOException {
+    if (null != rendered) {
+      out.append(rendered);
+      return;
+    }
+    out.append("^");
+    TermGroup.appendFloat(out, value);
   }
 
   /**
@@ -0,0 +1,264 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/*------------------------------------------------------------------
+    slinkworks.com
+
+               .---.    (__)
+             .'__|__`.  |  |
+            ||-~~~~~-||  ||
+             |  \ /  |   ||
+             \  | |  /   ||
+      .--------`   '-------.
+     // \       / \  | |  /  \
+    ((_/|       | |  /./  |___\
+         \______\ /_/_/__/
+          THIS IS THE WAY
+            CODERS GUILD
+-------------------------------------------------------------------*/
+
+package com.slinkworks.query;
+
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * CanonicalOrder sorts the terms and the sub groups of each group into an order that depends only
+ * on what they render, so that trees built up in a different order render the same string. Solr
+ * keys its queryResultCache and filterCache on the query, and would otherwise cache
+ * <code>a b</code> and <code>b a</code> as two entries.
+ *
+ * <pre>
+ *     ( year:1999 title:b title:a +( c b ) +( a ) )
+ * </pre>
+ * <p>
+ * is put in the order
+ *
+ * <pre>
+ *     ( title:a title:b year:1999 +( a ) +( b c ) )
+ * </pre>
+ * <p>
+ * Terms are ordered by field, then occur, then value, so a field factored group gets the longest
+ * runs to factor. Sub groups are ordered by what they render, once their own clauses have been
+ * put in order, then by what they render with their labels, and then by fingerprint, so the
+ * order is the same in every JVM. A group is left as it is when one of the clauses it
+ * renders is an operator, such as a term with the value AND, since that applies to the clauses
+ * next to it.
+ * <p>
+ * The order of the clauses does not change what a boolean query matches, nor its score beyond
+ * rounding. It can be applied on its own with canonicalize, or registered with a QueryOptimizer
+ * to come after the standard rules.
+ */
+public class CanonicalOrder implements QueryRule {
+
+  /**
+   * The name the rule is registered and reported under.
+   */
+  public static final String NAME = "CANONICAL_ORDER";
+
+  /**
+   * Null and blank terms, which render nothing, go last, by fingerprint.
+   */
+  static final Comparator<Term> TERM_ORDER = CanonicalOrder::compare;
+
+  @Override
+  public String name() {
+    return NAME;
+  }
+
+  @Override
+  public boolean apply(TermGroup group, QueryOptimizer.Report report) {
+    if (isOrderSensitive(level(group))) {
+      return false;
+    }
+    boolean changed = false;
+    if (!isSorted(group.contentTerms(), TERM_ORDER)) {
+      group.getTerms().sort(TERM_ORDER);
+      report.add(this, "sorted the terms");
+      changed = true;
+    }
+    List<TermGroup> groups = group.contentGroups();
+    if (groups.size() > 1) {
+      Map<TermGroup, GroupKey> keys = new IdentityHashMap<>(groups.size());
+      for (TermGroup subgroup : groups) {
+        keys.put(subgroup, new GroupKey(subgroup));
+      }
+      Comparator<TermGroup> order = Comparator.comparing(keys::get);
+      if (!isSorted(groups, order)) {
+        group.getGroups().sort(order);
+        report.add(this, "sorted the groups");
+        changed = true;
+      }
+    }
+    return changed;
+  }
+
+  /**
+   * Puts the group and everything below it in order, deepest first.
+   *
+   * @param group changed in place, must not be frozen
+   * @return what was sorted
+   */
+  public QueryOptimizer.Report canonicalize(TermGroup group) {
+    Objects.requireNonNull(group, "group");
+    if (group.isFrozen()) {
+      throw new UnsupportedOperationException(
+          "A frozen TermGroup can not be put in order, canonicalize a fork of it");
+    }
+    QueryOptimizer.Report report = new QueryOptimizer.Report();
+    canonicalize(group, report);
+    return report;
+  }
+
+  private void canonicalize(TermGroup group, QueryOptimizer.Report report) {
+    List<TermGroup> subgroups = group.getGroups();
+    for (int i = 0; i < subgroups.size(); i++) {
+      canonicalize(subgroups.get(i), report);
+    }
+    apply(group, report);
+  }
+
+  private static int compare(Term a, Term b) {
+    boolean renderable = (null != a) && a.isRenderable();
+    if (renderable != ((null != b) && b.isRenderable())) {
+      return renderable ? -1 : 1;
+    }
+    if (!renderable) {
+      // Blank terms still make a group unequal to one with other blank terms
+      return compare(fingerprint(a), fingerprint(b));
+    }
+    int c = field(a).compareTo(field(b));
+    if (0 == c) {
+      c = a.getOccur().compareTo(b.getOccur());
+    }
+    if (0 == c) {
+      c = a.getValue().compareTo(b.getValue());
+    }
+    // Then the proximity, boost and constant score
+    return (0 == c) ? a.toString().compareTo(b.toString()) : c;
+  }
+
+  private static Fingerprint fingerprint(Term term) {
+    if (null == term) {
+      return null;
+    }
+    Fingerprint.Hasher hasher = new Fingerprint.Hasher();
+    term.fingerprint(hasher);
+    return hasher.finish();
+  }
+
+  /**
+   * Nulls first, then by the bits of the fingerprint.
+   */
+  private static int compare(Fingerprint a, Fingerprint b) {
+    if ((null == a) || (null == b)) {
+      return (null == a) ? ((null == b) ? 0 : -1) : 1;
+    }
+    int c = Long.compareUnsigned(a.getHigh(), b.getHigh());
+    return (0 == c) ? Long.compareUnsigned(a.getLow(), b.getLow()) : c;
+  }
+
+  /**
+   * What a sub group is put in order by, worked out once for each sort. Groups that render the
+   * same can still differ, in a label or in what renders nothing, which the labelled rendering and
+   * the fingerprint tell apart.
+   */
+  private static final class GroupKey implements Comparable<GroupKey> {
+
+    private final String rendered;
+    private final String labelled;
+    private final Fingerprint fingerprint;
+
+    GroupKey(TermGroup group) {
+      this.rendered = (null == group) ? "" : group.toString();
+      this.labelled = (null == group) ? ""
+          : group.prettyPrint(true, "", "", TermGroup.DEFAULT_SEPARATOR_STRING);
+      this.fingerprint = (null == group) ? null : group.fingerprint();
+    }
+
+    @Override
+    public int compareTo(GroupKey other) {
+      int c = rendered.compareTo(other.rendered);
+      if (0 == c) {
+        c = labelled.compareTo(other.labelled);
+      }
+      return (0 == c) ? compare(fingerprint, other.fingerprint) : c;
+    }
+  }
+
+  private static String field(Term term) {
+    return StringUtils.isBlank(term.getField()) ? "" : term.getField();
+  }
+
+  private static <E> boolean isSorted(List<E> list, Comparator<? super E> order) {
+    for (int i = 1, size = list.size(); i < size; i++) {
+      if (order.compare(list.get(i - 1), list.get(i)) > 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return the group whose parentheses hold the clauses of this group, the group itself unless
+   * it has none
+   */
+  private static TermGroup level(TermGroup group) {
+    while (!group.getHasGroupingParenthesis() && (null != group.getParentGroup())) {
+      group = group.getParentGroup();
+    }
+    return group;
+  }
+
+  /**
+   * @return true if a clause rendered at the level of the group is an operator, looking into the
+   * sub groups without parentheses that render there too
+   */
+  static boolean isOrderSensitive(TermGroup group) {
+    for (Term term : group.contentTerms()) {
+      if ((null != term) && term.isRenderable() && isOperator(term)) {
+        return true;
+      }
+    }
+    for (TermGroup subgroup : group.contentGroups()) {
+      if ((null != subgroup) && !subgroup.getHasGroupingParenthesis()
+          && isOrderSensitive(subgroup)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return true if the term is, or has in it, an operator of the query parser
+   */
+  private static boolean isOperator(Term term) {
+    int shape = term.shape();
+    if (Term.SINGLE != (shape & Term.KIND)) {
+      return false;
+    }
+    String value = term.getValue();
+    return "AND".equals(value) || "OR".equals(value) || "NOT".equals(value)
+        || ((0 != (shape & Term.SPECIAL))
+        && (StringUtils.containsOnly(value, "+-") || (value.indexOf('!') >= 0)
+        || value.contains("&&") || value.contains("||")));
+  }
+}
@@ -0,0 +1,405 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/*------------------------------------------------------------------
+    slinkworks.com
+
+               .---.    (__)
+             .'__|__`.  |  |
+            ||-~~~~~-||  ||
+             |  \ /  |   ||
+             \  | |  /   ||
+      .--------`   '-------.
+     // \       / \  | |  /  \
+    ((_/|       | |  /./  |___\
+         \______\ /_/_/__/
+          THIS IS THE WAY
+            CODERS GUILD
+-------------------------------------------------------------------*/
+
+package com.slinkworks.query;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.function.Predicate;
+
+/**
+ * ClauseList holds the Terms or the sub groups of a TermGroup. It behaves like an ArrayList, but
+ * every element that goes in or comes out, by any route including the list returned from getTerms
+ * or getGroups, is reported to the owning group so that it can keep its bookkeeping up to date.
+ * <p>
+ * Elements are also indexed by identity so that containsElement and removeElement, which addTerm,
+ * addGroup, removeTerm and removeGroup rely on, do not scan the list. removeElement leaves a
+ * tombstone behind instead of shifting the rest of the list down. The tombstones are swept out
+ * the next time the list is read by position, or when they outnumber the elements.
+ *
+ * @param <E> Term or TermGroup
+ */
+abstract class ClauseList<E> extends AbstractList<E> implements RandomAccess {
+
+  private static final Object[] EMPTY = new Object[0];
+
+  // Marks the slot of an element taken out by removeElement.
+  private static final Object TOMBSTONE = new Object();
+
+  // Marks an element that is in the list more than once in the index.
+  private static final Integer SEVERAL = -1;
+
+  // Lists shorter than this are scanned rather than indexed.
+  private static final int INDEX_THRESHOLD = 16;
+
+  private Object[] elements = EMPTY;
+  private int size = 0;
+
+  // Slots in use, including tombstones. Equal to size when there are no tombstones.
+  private int end = 0;
+
+  // The lowest slot holding a tombstone, when end is not equal to size.
+  private int firstTombstone = 0;
+
+  // Element to its slot, or SEVERAL. Null until the list reaches INDEX_THRESHOLD.
+  private IdentityHashMap<Object, Integer> slots = null;
+
+  /**
+   * Called after an element has been put into the list.
+   *
+   * @param element the element, may be null
+   */
+  protected abstract void added(E element);
+
+  /**
+   * Called after an element has been taken out of the list.
+   *
+   * @param element the element, may be null
+   */
+  protected abstract void removed(E element);
+
+  /**
+   * Called after sort has put the elements in a different order. Nothing went in or out.
+   */
+  protected abstract void reordered();
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public E get(int index) {
+    Objects.checkIndex(index, size);
+    compact();
+    return (E) elements[index];
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public E set(int index, E element) {
+    Objects.checkIndex(index, size);
+    compact();
+    E old = (E) elements[index];
+    elements[index] = element;
+    if (null != slots) {
+      unindex(old);
+      index(element, index);
+    }
+    removed(old);
+    added(element);
+    return old;
+  }
+
+  @Override
+  public boolean add(E element) {
+    add(size, element);
+    return true;
+  }
+
+  @Override
+  public void add(int index, E element) {
+    Objects.checkIndex(index, size + 1);
+    if (index < size) {
+      compact();
+    }
+    if (end == elements.length) {
+      elements = Arrays.copyOf(elements, Math.max(8, end + (end >> 1)));
+    }
+
+    // Appending, the common case, goes after the tombstones and leaves them where they are.
+    int slot = (index == size) ? end : index;
+    System.arraycopy(elements, slot, elements, slot + 1, end - slot);
+    elements[slot] = element;
+    size++;
+    end++;
+    modCount++;
+
+    if (null != slots) {
+      index(element, slot);
+      reslot(slot + 1);
+    } else if (end >= INDEX_THRESHOLD) {
+      reindex();
+    }
+    added(element);
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public E remove(int index) {
+    Objects.checkIndex(index, size);
+    compact();
+    E old = (E) elements[index];
+    System.arraycopy(elements, index + 1, elements, index, size - index - 1);
+    elements[--size] = null;
+    end = size;
+    modCount++;
+    if (null != slots) {
+      if (end < INDEX_THRESHOLD) {
+        slots = null;
+      } else {
+        unindex(old);
+        reslot(index);
+      }
+    }
+    removed(old);
+    return old;
+  }
+
+  /**
+   * @param element to look for by identity
+   * @return true if the element is in the list
+   */
+  boolean containsElement(Object element) {
+    if (null != slots) {
+      return slots.containsKey(element);
+    }
+    for (int i = 0; i < end; i++) {
+      if (elements[i] == element) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Removes every occurrence of the element, found by identity.
+   *
+   * @param element to remove
+   * @return true if anything was removed
+   */
+  @SuppressWarnings("unchecked")
+  boolean removeElement(Object element) {
+    if (null == slots) {
+      return removeIf(e -> e == element);
+    }
+    Integer slot = slots.get(element);
+    if (null == slot) {
+      return false;
+    }
+    if (SEVERAL.equals(slot)) {
+      return removeIf(e -> e == element);
+    }
+
+    if ((end == size) || (slot < firstTombstone)) {
+      firstTombstone = slot;
+    }
+    elements[slot] = TOMBSTONE;
+    slots.remove(element);
+    size--;
+    modCount++;
+    if ((end - size) > size) {
+      compact();
+    }
+    removed((E) element);
+    return true;
+  }
+
+  /**
+   * Removes in a single pass instead of shifting the array once per removed element.
+   *
+   * @param filter which elements to remove
+   * @return true if anything was removed
+   */
+  @Override
+  @SuppressWarnings("unchecked")
+  public boolean removeIf(Predicate<? super E> filter) {
+    Objects.requireNonNull(filter);
+    int kept = 0;
+    int oldEnd = end;
+    Object[] removedElements = null;
+    int removedCount = 0;
+    for (int i = 0; i < oldEnd; i++) {
+      Object slot = elements[i];
+      if (slot == TOMBSTONE) {
+        continue;
+      }
+      E element = (E) slot;
+      if (filter.test(element)) {
+        if (null == removedElements) {
+          removedElements = new Object[oldEnd - i];
+        }
+        removedElements[removedCount++] = element;
+      } else {
+        elements[kept++] = element;
+      }
+    }
+
+    if (0 == removedCount) {
+      return false;
+    }
+
+    Arrays.fill(elements, kept, oldEnd, null);
+    size = kept;
+    end = kept;
+    modCount++;
+    reindex();
+    for (int i = 0; i < removedCount; i++) {
+      removed((E) removedElements[i]);
+    }
+    return true;
+  }
+
+  /**
+   * Sorts the slots in place. Every element stays in the list, so rather than reporting each one
+   * as taken out and put back, as sorting through set would, the change of order is reported once.
+   *
+   * @param c the order, null for the natural order
+   */
+  @Override
+  public void sort(Comparator<? super E> c) {
+    compact();
+    @SuppressWarnings("unchecked")
+    E[] array = (E[]) elements;
+    Arrays.sort(array, 0, size, c);
+    modCount++;
+    if (null != slots) {
+      reindex();
+    }
+    reordered();
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public void clear() {
+    Object[] old = elements;
+    int oldEnd = end;
+    elements = EMPTY;
+    size = 0;
+    end = 0;
+    slots = null;
+    modCount++;
+    for (int i = 0; i < oldEnd; i++) {
+      if (old[i] != TOMBSTONE) {
+        removed((E) old[i]);
+      }
+    }
+  }
+
+  /**
+   * Sweeps out the tombstones and shrinks the array to the size of the list. Reading the list
+   * does not write to it afterwards, until it is changed again.
+   */
+  void trimToSize() {
+    compact();
+    if (elements.length != size) {
+      elements = (0 == size) ? EMPTY : Arrays.copyOf(elements, size);
+    }
+  }
+
+  /**
+   * Sweeps out the tombstones so that positions line up with slots again. Only the elements after
+   * the first tombstone move, and only their slots are updated in the index.
+   */
+  private void compact() {
+    if (end == size) {
+      return;
+    }
+    int kept = firstTombstone;
+    for (int i = firstTombstone; i < end; i++) {
+      if (elements[i] != TOMBSTONE) {
+        elements[kept++] = elements[i];
+      }
+    }
+    Arrays.fill(elements, kept, end, null);
+    end = kept;
+    if (end < INDEX_THRESHOLD) {
+      slots = null;
+    } else if (null != slots) {
+      reslot(firstTombstone);
+    }
+  }
+
+  /**
+   * Updates the index for the elements from the given slot on, after they have been moved. An
+   * element marked SEVERAL keeps the mark, which is still right, or at worst makes removeElement
+   * take the slower path for it.
+   *
+   * @param from the first slot that moved
+   */
+  private void reslot(int from) {
+    for (int i = from; i < end; i++) {
+      Object element = elements[i];
+      if ((element != TOMBSTONE) && !SEVERAL.equals(slots.get(element))) {
+        slots.put(element, i);
+      }
+    }
+  }
+
+  /**
+   * Rebuilds the index from the slots, reusing the map when there is one, or drops it when the
+   * list is short.
+   */
+  private void reindex() {
+    if (end < INDEX_THRESHOLD) {
+      slots = null;
+      return;
+    }
+    if (null == slots) {
+      slots = new IdentityHashMap<>(end);
+    } else {
+      slots.clear();
+    }
+    for (int i = 0; i < end; i++) {
+      if (elements[i] != TOMBSTONE) {
+        index(elements[i], i);
+      }
+    }
+  }
+
+  private void index(Object element, int slot) {
+    if (null != slots.putIfAbsent(element, slot)) {
+      slots.put(element, SEVERAL);
+    }
+  }
+
+  private void unindex(Object element) {
+    Integer slot = slots.get(element);
+    if (SEVERAL.equals(slot)) {
+      // Still in the list at least once, work out where by looking.
+      slots.remove(element);
+      for (int i = 0; i < end; i++) {
+        if (elements[i] == element) {
+          index(element, i);
+        }
+      }
+    } else {
+      slots.remove(element);
+    }
+  }
+}
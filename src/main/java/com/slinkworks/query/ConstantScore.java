@@ -33,6 +33,10 @@
 
 package com.slinkworks.query;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
  * ConstantScore represents the constant score value used in a Standard Solr Query For example:
  * <pre>
@@ -42,8 +46,19 @@ package com.slinkworks.query;
  */
 public class ConstantScore {
 
+  // Instances handed out by valueOf for values with up to 4 decimal places, see there.
+  private static final int CACHE_LIMIT = 1024;
+  private static final ConcurrentHashMap<Float, ConstantScore> CACHE = new ConcurrentHashMap<>();
+
   private float value;
 
+  // The text toString returns, only set on the immutable instances made by valueOf.
+  private final String rendered;
+
+  // The terms and groups holding this constant score, told when setValue changes it. Never set on
+  // the immutable instances.
+  private ValueOwners owners = null;
+
   /**
    * Copy Constructor
    *
@@ -51,6 +66,7 @@ public class ConstantScore {
    */
   public ConstantScore(ConstantScore other) {
     this.value = other.value;
+    this.rendered = null;
   }
 
   /**
@@ -60,6 +76,70 @@ public class ConstantScore {
    */
   public ConstantScore(float constantScore) {
     this.value = constantScore;
+    this.rendered = null;
+  }
+
+  private ConstantScore(float value, String rendered) {
+    this.value = value;
+    this.rendered = rendered;
+  }
+
+  /**
+   * An immutable constant score that can be shared by any number of terms and groups. Values with
+   * up to 4 decimal places, such as 1.5 or 0.25, come from a cache so asking for the same value
+   * again returns the same instance. The text is rendered once when the instance is made.
+   *
+   * @param value A valid constant score for a Lucene query. Value is not validated.
+   * @return constant score that can not be changed
+   */
+  public static ConstantScore valueOf(float value) {
+    ConstantScore cached = CACHE.get(value);
+    if (null != cached) {
+      return cached;
+    }
+
+    ConstantScore created = new ConstantScore(value, "^=" + TermGroup.formatFloat(value));
+    if (value == (float) (Math.rint(value * 10000d) / 10000d)) {
+      if (CACHE.size() >= CACHE_LIMIT) {
+        // Start over rather than stop caching, so the values in use now get cached again.
+        CACHE.clear();
+      }
+      cached = CACHE.putIfAbsent(value, created);
+    }
+    return (null == cached) ? created : cached;
+  }
+
+  /**
+   * @return this if it can not be changed, otherwise an immutable constant score with the same
+   * value
+   */
+  ConstantScore immutable() {
+    return (null != rendered) ? this : valueOf(value);
+  }
+
+  /**
+   * Called by a Term or TermGroup when it starts holding this constant score.
+   *
+   * @param holder the term or group
+   */
+  void attach(Object holder) {
+    if (null == rendered) {
+      if (null == owners) {
+        owners = new ValueOwners();
+      }
+      owners.attach(holder);
+    }
+  }
+
+  /**
+   * Called by a Term or TermGroup when it stops holding this constant score.
+   *
+   * @param holder the term or group
+   */
+  void detach(Object holder) {
+    if (null != owners) {
+      owners.detach(holder);
+    }
   }
 
   /**
@@ -70,10 +150,22 @@ public class ConstantScore {
   }
 
   /**
+   * Changes this value in place. The terms and groups holding this constant score render the new
+   * value from then on. The instances from valueOf, which frozen trees hold, are shared and can not
+   * be changed.
+   *
    * @param value A valid constant score for a Lucene query. Value is not validated.
+   * @throws UnsupportedOperationException if this instance came from valueOf
    */
   public void setValue(float value) {
+    if (null != rendered) {
+      throw new UnsupportedOperationException(
+          "A ConstantScore from valueOf is shared and can not be changed");
+    }
     this.value = value;
+    if (null != owners) {
+      owners.changed();
+    }
   }
 
   /**
@@ -83,7 +175,32 @@ public class ConstantScore {
    */
   @Override
   public String toString() {
-    return "^=" + TermGroup.formatFloat(value);
+    if (null != rendered) {
+      return rendered;
+    }
+    StringBuilder sb = new StringBuilder();
+    try {
+      appendTo(sb);
+    } catch (IOException e) {
+      // StringBuilder does not throw IOException
+      throw new UncheckedIOException(e);
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Appends the same text that toString returns to the given buffer.
+   *
+   * @param out buffer to append to
+   * @throws IOException if the buffer throws
+   */
+  public void appendTo(Appendable out) throws IOException {
+    if (null != rendered) {
+      out.append(rendered);
+      return;
+    }
+    out.append("^=");
+    TermGroup.appendFloat(out, value);
   }
 
   /**
@@ -0,0 +1,191 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/*------------------------------------------------------------------
+    slinkworks.com
+
+               .---.    (__)
+             .'__|__`.  |  |
+            ||-~~~~~-||  ||
+             |  \ /  |   ||
+             \  | |  /   ||
+      .--------`   '-------.
+     // \       / \  | |  /  \
+    ((_/|       | |  /./  |___\
+         \______\ /_/_/__/
+          THIS IS THE WAY
+            CODERS GUILD
+-------------------------------------------------------------------*/
+
+package com.slinkworks.query;
+
+/**
+ * Fingerprint is a 128 bit hash of how a TermGroup renders. Two trees with the same fingerprint
+ * can be taken to render the same text: the chance of two different trees sharing one is far too
+ * small to matter, unlike with hashCode. It is stable, the same tree gives the same fingerprint in
+ * every JVM, so it can also be used as a key outside of the process.
+ *
+ * @see TermGroup#fingerprint()
+ */
+public final class Fingerprint {
+
+  private final long high;
+  private final long low;
+
+  Fingerprint(long high, long low) {
+    this.high = high;
+    this.low = low;
+  }
+
+  /**
+   * @return the upper 64 bits
+   */
+  public long getHigh() {
+    return high;
+  }
+
+  /**
+   * @return the lower 64 bits
+   */
+  public long getLow() {
+    return low;
+  }
+
+  /**
+   * @param includeLabels      true to print labels as comments
+   * @param currentIndentation current level of indentation
+   * @param indentation        string to use as indentation
+   * @param separator          string to use as a separator
+   * @return the fingerprint of rendering the tree with these prettyPrint arguments
+   */
+  public Fingerprint withRenderOptions(boolean includeLabels, String currentIndentation,
+      String indentation, String separator) {
+    return new Hasher()
+        .putLong(high)
+        .putLong(low)
+        .putBoolean(includeLabels)
+        .putString(currentIndentation)
+        .putString(indentation)
+        .putString(separator)
+        .finish();
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (obj == this) {
+      return true;
+    }
+    if (!(obj instanceof Fingerprint other)) {
+      return false;
+    }
+    return (high == other.high) && (low == other.low);
+  }
+
+  @Override
+  public int hashCode() {
+    return Long.hashCode(high ^ low);
+  }
+
+  /**
+   * @return the 32 hex digits of the fingerprint
+   */
+  @Override
+  public String toString() {
+    return String.format("%016x%016x", high, low);
+  }
+
+  /**
+   * Builds a fingerprint from a stream of values. Each value is mixed into two 64 bit lanes with
+   * different constants. The lanes do not depend on each other until finish, which combines them
+   * in the manner of MurmurHash3, so the processor can work on both at once.
+   */
+  static final class Hasher {
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+    private static final long C3 = 0x9e3779b97f4a7c15L;
+    private static final long C4 = 0xc2b2ae3d27d4eb4fL;
+
+    // Written in place of a null string or object, a length can not be negative.
+    private static final long NULL = -1L;
+
+    private long h1 = C3;
+    private long h2 = C4;
+    private long count = 0;
+
+    Hasher putLong(long value) {
+      h1 = Long.rotateLeft(h1 + value * C1, 31) * C2;
+      h2 = Long.rotateLeft(h2 ^ (value * C3), 29) * C4;
+      count++;
+      return this;
+    }
+
+    Hasher putBoolean(boolean value) {
+      return putLong(value ? 1 : 0);
+    }
+
+    Hasher putFloat(float value) {
+      return putLong(Float.floatToIntBits(value));
+    }
+
+    /**
+     * Writes the length first so that "ab", "c" and "a", "bc" differ.
+     */
+    Hasher putString(String value) {
+      if (null == value) {
+        return putLong(NULL);
+      }
+      int length = value.length();
+      putLong(length);
+      int i = 0;
+      for (; i + 4 <= length; i += 4) {
+        putLong(((long) value.charAt(i) << 48) | ((long) value.charAt(i + 1) << 32)
+            | ((long) value.charAt(i + 2) << 16) | value.charAt(i + 3));
+      }
+      long rest = 0;
+      for (; i < length; i++) {
+        rest = (rest << 16) | value.charAt(i);
+      }
+      return putLong(rest);
+    }
+
+    Hasher putFingerprint(Fingerprint fingerprint) {
+      return putLong(fingerprint.high).putLong(fingerprint.low);
+    }
+
+    Fingerprint finish() {
+      long a = h1 ^ count;
+      long b = h2 ^ count;
+      a += b;
+      b += a;
+      a = mix(a);
+      b = mix(b);
+      a += b;
+      b += a;
+      return new Fingerprint(a, b);
+    }
+
+    private static long mix(long k) {
+      k ^= k >>> 33;
+      k *= 0xff51afd7ed558ccdL;
+      k ^= k >>> 33;
+      k *= 0xc4ceb9fe1a85ec53L;
+      k ^= k >>> 33;
+      return k;
+    }
+  }
+}
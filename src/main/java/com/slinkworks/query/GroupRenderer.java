@@ -0,0 +1,168 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/*------------------------------------------------------------------
+    slinkworks.com
+
+               .---.    (__)
+             .'__|__`.  |  |
+            ||-~~~~~-||  ||
+             |  \ /  |   ||
+             \  | |  /   ||
+      .--------`   '-------.
+     // \       / \  | |  /  \
+    ((_/|       | |  /./  |___\
+         \______\ /_/_/__/
+          THIS IS THE WAY
+            CODERS GUILD
+-------------------------------------------------------------------*/
+
+package com.slinkworks.query;
+
+import java.io.IOException;
+import java.util.List;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Lays out a group the way toString and prettyPrint write it, for TermGroup, PersistentTermGroup
+ * and QueryPublisher, which each hold a group differently. A group that renders starts with its
+ * label comment and its opening parenthesis, then has its terms, a run of terms on the same field
+ * as one clause when it is field factored, then its sub groups, and ends with its closing
+ * parenthesis and its boost or constant score. Each piece after the first is preceded by the
+ * separator, the first by the leading string the parent passed down.
+ */
+final class GroupRenderer {
+
+  /**
+   * Writes a sub group, the way its own renderer does.
+   *
+   * @param <G> the kind of group
+   */
+  @FunctionalInterface
+  interface SubGroupWriter<G> {
+
+    /**
+     * @param group              the sub group
+     * @param leading            to write in front of the sub group if it writes anything
+     * @param currentIndentation the indentation inside of the parent
+     * @return true if the sub group wrote anything
+     * @throws IOException if the buffer throws
+     */
+    boolean write(G group, String leading, String currentIndentation) throws IOException;
+  }
+
+  private GroupRenderer() {
+  }
+
+  /**
+   * Writes the label comment and the opening parenthesis of a group that is not empty.
+   *
+   * @param label     the label, null when labels are not included
+   * @param openGroup the opening parenthesis, null when the group has none
+   * @return true if anything was written
+   */
+  static boolean appendStart(Appendable out, String leading, String currentIndentation,
+      String label, Occur occur, String openGroup) throws IOException {
+    boolean written = false;
+    if (StringUtils.isNotBlank(label)) {
+      out.append(leading)
+          .append(currentIndentation)
+          .append(TermGroup.OPEN_COMMENT_STRING)
+          .append(label)
+          .append(TermGroup.CLOSE_COMMENT_STRING)
+          .append(TermGroup.NEW_LINE_SEPARATOR_STRING);
+      written = true;
+    }
+    if (null != openGroup) {
+      out.append(written ? "" : leading).append(currentIndentation);
+      if (null != occur) {
+        out.append(occur.toString());
+      }
+      out.append(openGroup);
+      written = true;
+    }
+    return written;
+  }
+
+  /**
+   * Writes the terms and then the sub groups of a group.
+   *
+   * @param written true if the start of the group was written, so the first clause needs the
+   *                separator rather than the leading string
+   * @return true if anything was written, including the start
+   */
+  static <G> boolean appendClauses(Appendable out, boolean written, String leading,
+      String currentIndentation, String separator, List<Term> terms, boolean fieldFactored,
+      List<G> groups, SubGroupWriter<? super G> writer) throws IOException {
+    int size = terms.size();
+    for (int i = nextRun(terms, 0, fieldFactored); i < size; ) {
+      int end = runEnd(terms, i, fieldFactored);
+      appendRun(out, written ? separator : leading, currentIndentation, terms, i, end);
+      written = true;
+      i = nextRun(terms, end, fieldFactored);
+    }
+    for (G group : groups) {
+      if (writer.write(group, written ? separator : leading, currentIndentation)) {
+        written = true;
+      }
+    }
+    return written;
+  }
+
+  /**
+   * @return the index of the first term from start on that renders, at the start of its run, or
+   * the number of terms when none does
+   */
+  static int nextRun(List<Term> terms, int start, boolean fieldFactored) {
+    int size = terms.size();
+    while ((start < size) && !terms.get(start).isRenderable()) {
+      start = runEnd(terms, start, fieldFactored);
+    }
+    return start;
+  }
+
+  /**
+   * @return the index after the run of terms that starts at start
+   */
+  static int runEnd(List<Term> terms, int start, boolean fieldFactored) {
+    return fieldFactored ? Term.factoredEnd(terms, start) : start + 1;
+  }
+
+  /**
+   * Writes a run of terms as one clause.
+   */
+  static void appendRun(Appendable out, String prefix, String currentIndentation,
+      List<Term> terms, int start, int end) throws IOException {
+    out.append(prefix).append(currentIndentation);
+    Term.appendFactored(out, terms, start, end);
+  }
+
+  /**
+   * Writes the closing parenthesis of a group that has them, and its constant score or boost.
+   */
+  static void appendEnd(Appendable out, String separator, String currentIndentation,
+      String closeGroup, ConstantScore constantScore, Boost boost) throws IOException {
+    out.append(separator)
+        .append(currentIndentation)
+        .append(closeGroup);
+    if (null != constantScore) {
+      constantScore.appendTo(out);
+    } else if (null != boost) {
+      boost.appendTo(out);
+    }
+  }
+}
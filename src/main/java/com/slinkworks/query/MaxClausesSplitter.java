@@ -0,0 +1,352 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/*------------------------------------------------------------------
+    slinkworks.com
+
+               .---.    (__)
+             .'__|__`.  |  |
+            ||-~~~~~-||  ||
+             |  \ /  |   ||
+             \  | |  /   ||
+      .--------`   '-------.
+     // \       / \  | |  /  \
+    ((_/|       | |  /./  |___\
+         \______\ /_/_/__/
+          THIS IS THE WAY
+            CODERS GUILD
+-------------------------------------------------------------------*/
+
+package com.slinkworks.query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * MaxClausesSplitter keeps every boolean query in a tree of TermGroups within Solr's
+ * maxBooleanClauses, 1024 unless configured otherwise. Solr fails a query that has more clauses
+ * than that in any one boolean query, which is what a group with parentheses, and the query as a
+ * whole, renders to.
+ * <p>
+ * When a group has too many clauses, the clauses of the occur with the most are folded into as
+ * few groups as it takes, each holding about as many as the others, and nested again while there
+ * are too many groups. SHOULD clauses go into SHOULD groups and MUST clauses into MUST groups.
+ * MUST_NOT clauses go into MUST_NOT groups, in which they become SHOULD, since -a -b matches the
+ * same as -( a b ). With a limit of 4
+ *
+ * <pre>
+ *     ( a b c d e f -x -y )
+ * </pre>
+ * <p>
+ * is split into
+ *
+ * <pre>
+ *     ( -x -y ( a b c ) ( d e f ) )
+ * </pre>
+ * <p>
+ * and then the MUST_NOT clauses as well if that is not enough. A field factored run is counted as
+ * its terms, which is as many as it can hold. Groups without parentheses are spliced into a group
+ * that is split, unless they have a label, in which case they are given parentheses and kept as
+ * one clause. A group is left as it is when one of its clauses is an operator, such as a term
+ * with the value AND, since that applies to the clauses next to it.
+ * <p>
+ * What the query matches is kept for the standard query parser with the default operator OR and
+ * no minimum should match. The groups are split in place, deepest first. Run the QueryOptimizer
+ * before rather than registering this rule with it, as its NESTED_SHOULD rule flattens the SHOULD
+ * groups again. Lucene also limits the clauses of the whole query, which splitting does not
+ * lower.
+ */
+public class MaxClausesSplitter implements QueryRule {
+
+  /**
+   * The name the rule is registered and reported under.
+   */
+  public static final String NAME = "MAX_CLAUSES";
+
+  /**
+   * The default maxBooleanClauses of Solr.
+   */
+  public static final int DEFAULT_MAX_CLAUSES = 1024;
+
+  private final int maxClauses;
+
+  /**
+   * Splits groups with more than DEFAULT_MAX_CLAUSES clauses.
+   */
+  public MaxClausesSplitter() {
+    this(DEFAULT_MAX_CLAUSES);
+  }
+
+  /**
+   * @param maxClauses the most clauses a group may have, at least 3 since that is one for each
+   *                   occur
+   */
+  public MaxClausesSplitter(int maxClauses) {
+    if (maxClauses < 3) {
+      throw new IllegalArgumentException("maxClauses must be at least 3, not " + maxClauses);
+    }
+    this.maxClauses = maxClauses;
+  }
+
+  /**
+   * @return the most clauses a group may have
+   */
+  public int getMaxClauses() {
+    return maxClauses;
+  }
+
+  @Override
+  public String name() {
+    return NAME;
+  }
+
+  @Override
+  public boolean apply(TermGroup group, QueryOptimizer.Report report) {
+    // The clauses of a group without parentheses are counted in its parent
+    if ((!group.getHasGroupingParenthesis() && (null != group.getParentGroup()))
+        || (clauseCount(group) <= maxClauses) || CanonicalOrder.isOrderSensitive(group)) {
+      return false;
+    }
+    // A labelled group given parentheses is a boolean query of its own now, which may be too big
+    for (TermGroup enclosed : spliceGroupsWithoutParentheses(group)) {
+      split(enclosed, report);
+    }
+
+    Map<Occur, List<Object>> byOccur = new EnumMap<>(Occur.class);
+    for (Term term : group.contentTerms()) {
+      if ((null != term) && term.isRenderable()) {
+        byOccur.computeIfAbsent(occur(term), occur -> new ArrayList<>()).add(term);
+      }
+    }
+    for (TermGroup subgroup : group.contentGroups()) {
+      if ((null != subgroup) && !subgroup.isEmpty()) {
+        byOccur.computeIfAbsent(occur(subgroup), occur -> new ArrayList<>()).add(subgroup);
+      }
+    }
+    List<Occur> largestFirst = new ArrayList<>(byOccur.keySet());
+    largestFirst.sort((a, b) -> Integer.compare(byOccur.get(b).size(), byOccur.get(a).size()));
+
+    int total = clauseCount(group);
+    for (Occur occur : largestFirst) {
+      if (total <= maxClauses) {
+        break;
+      }
+      List<Object> clauses = byOccur.get(occur);
+      int others = total - clauses.size();
+      List<Object> folded = fold(clauses, Math.max(1, maxClauses - others), occur, group);
+
+      Set<Object> moved = Collections.newSetFromMap(new IdentityHashMap<>());
+      moved.addAll(clauses);
+      group.getTerms().removeIf(moved::contains);
+      group.getGroups().removeIf(moved::contains);
+      for (Object clause : folded) {
+        group.addGroup((TermGroup) clause);
+      }
+      total = others + folded.size();
+      report.add(this, "folded " + clauses.size() + " " + occur.name() + " clauses into "
+          + folded.size() + ((1 == folded.size()) ? " group" : " groups"));
+    }
+    return true;
+  }
+
+  /**
+   * Splits every group in the tree that has too many clauses, deepest first.
+   *
+   * @param group changed in place, must not be frozen
+   * @return what was split
+   */
+  public QueryOptimizer.Report split(TermGroup group) {
+    Objects.requireNonNull(group, "group");
+    if (group.isFrozen()) {
+      throw new UnsupportedOperationException(
+          "A frozen TermGroup can not be split, split a fork of it");
+    }
+    QueryOptimizer.Report report = new QueryOptimizer.Report();
+    split(group, report);
+    return report;
+  }
+
+  private void split(TermGroup group, QueryOptimizer.Report report) {
+    List<TermGroup> subgroups = group.getGroups();
+    for (int i = 0; i < subgroups.size(); i++) {
+      split(subgroups.get(i), report);
+    }
+    apply(group, report);
+  }
+
+  /**
+   * @return the number of clauses in the boolean query the group renders, counting the clauses
+   * of its sub groups without parentheses and each term of a field factored run
+   */
+  static int clauseCount(TermGroup group) {
+    int count = 0;
+    for (Term term : group.contentTerms()) {
+      if ((null != term) && term.isRenderable()) {
+        count++;
+      }
+    }
+    for (TermGroup subgroup : group.contentGroups()) {
+      if ((null != subgroup) && !subgroup.isEmpty()) {
+        count += subgroup.getHasGroupingParenthesis() ? 1 : clauseCount(subgroup);
+      }
+    }
+    return count;
+  }
+
+  /**
+   * @return the labelled groups that were given parentheses instead of being spliced
+   */
+  private static List<TermGroup> spliceGroupsWithoutParentheses(TermGroup group) {
+    List<TermGroup> enclosed = new ArrayList<>();
+    boolean spliced = true;
+    while (spliced) {
+      spliced = false;
+      for (TermGroup subgroup : new ArrayList<>(group.getGroups())) {
+        if ((null == subgroup) || subgroup.getHasGroupingParenthesis()) {
+          continue;
+        }
+        if (StringUtils.isBlank(subgroup.getLabel())) {
+          group.removeGroup(subgroup, true);
+          spliced = true;
+        } else if (!subgroup.isEmpty()) {
+          enclose(subgroup);
+          enclosed.add(subgroup);
+        }
+      }
+    }
+    return enclosed;
+  }
+
+  /**
+   * Gives a labelled group without parentheses parentheses of its own rather than splicing it, so
+   * that it stays in the tree as one clause and findByLabel still finds it. The group is made
+   * MUST if it has a MUST clause, which its other clauses can then not change. Otherwise its
+   * MUST_NOT clauses are moved up to the parent, where they applied already, unless they are all
+   * it has, in which case it becomes a MUST_NOT group of SHOULD clauses.
+   */
+  private static void enclose(TermGroup group) {
+    spliceGroupsWithoutParentheses(group);
+    Set<Occur> occurs = EnumSet.noneOf(Occur.class);
+    for (Term term : group.contentTerms()) {
+      if ((null != term) && term.isRenderable()) {
+        occurs.add(occur(term));
+      }
+    }
+    for (TermGroup subgroup : group.contentGroups()) {
+      if ((null != subgroup) && !subgroup.isEmpty()) {
+        occurs.add(occur(subgroup));
+      }
+    }
+
+    Occur occur = Occur.SHOULD;
+    if (occurs.contains(Occur.MUST)) {
+      occur = Occur.MUST;
+    } else if (occurs.equals(EnumSet.of(Occur.MUST_NOT))) {
+      occur = Occur.MUST_NOT;
+      List<Term> terms = group.getTerms();
+      for (int i = 0; i < terms.size(); i++) {
+        Term term = terms.get(i);
+        if ((null != term) && (Occur.MUST_NOT == term.getOccur())) {
+          terms.set(i, new Term(term).with(Occur.SHOULD));
+        }
+      }
+      for (TermGroup subgroup : group.getGroups()) {
+        if ((null != subgroup) && (Occur.MUST_NOT == subgroup.getOccur())) {
+          subgroup.setOccur(Occur.SHOULD);
+        }
+      }
+    } else if (occurs.contains(Occur.MUST_NOT)) {
+      TermGroup parent = group.getParentGroup();
+      for (Term term : new ArrayList<>(group.getTerms())) {
+        if ((null != term) && (Occur.MUST_NOT == term.getOccur())) {
+          group.removeTerm(term);
+          parent.addTerm(term);
+        }
+      }
+      for (TermGroup subgroup : new ArrayList<>(group.getGroups())) {
+        if ((null != subgroup) && (Occur.MUST_NOT == subgroup.getOccur())) {
+          parent.addGroup(subgroup);
+        }
+      }
+    }
+
+    // A boost was not rendered without parentheses and would change the scores with them
+    group.setHasGroupingParenthesis(true);
+    group.setBoost((Boost) null);
+    group.setConstantScore((ConstantScore) null);
+    group.setOccur(occur);
+  }
+
+  /**
+   * Folds the clauses, which all have the given occur, into at most slots groups, nested so that
+   * none has more than maxClauses.
+   *
+   * @return the clauses themselves if there are no more than slots of them, otherwise the groups
+   */
+  private List<Object> fold(List<Object> clauses, int slots, Occur occur, TermGroup level) {
+    int size = clauses.size();
+    if (size <= slots) {
+      return clauses;
+    }
+    // How many clauses each group has to hold, nested as deep as it takes
+    long capacity = maxClauses;
+    while (capacity * slots < size) {
+      capacity *= maxClauses;
+    }
+    int parts = (int) ((size + capacity - 1) / capacity);
+    Occur inner = (Occur.MUST_NOT == occur) ? Occur.SHOULD : occur;
+    List<Object> folded = new ArrayList<>(parts);
+    for (int p = 0; p < parts; p++) {
+      int from = (int) ((long) size * p / parts);
+      int to = (int) ((long) size * (p + 1) / parts);
+      TermGroup part = new TermGroup().with(occur).withFieldFactored(level.isFieldFactored());
+      for (Object clause : fold(clauses.subList(from, to), maxClauses, inner, level)) {
+        add(part, clause, inner);
+      }
+      folded.add(part);
+    }
+    return folded;
+  }
+
+  private static void add(TermGroup group, Object clause, Occur occur) {
+    if (clause instanceof Term term) {
+      group.getTerms().add((occur(term) == occur) ? term : new Term(term).with(occur));
+    } else {
+      TermGroup subgroup = (TermGroup) clause;
+      if (occur(subgroup) != occur) {
+        subgroup.setOccur(occur);
+      }
+      group.addGroup(subgroup);
+    }
+  }
+
+  private static Occur occur(Term term) {
+    return (null == term.getOccur()) ? Occur.SHOULD : term.getOccur();
+  }
+
+  private static Occur occur(TermGroup group) {
+    return (null == group.getOccur()) ? Occur.SHOULD : group.getOccur();
+  }
+}
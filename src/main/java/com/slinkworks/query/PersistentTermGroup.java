@@ -0,0 +1,643 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/*------------------------------------------------------------------
+    slinkworks.com
+
+               .---.    (__)
+             .'__|__`.  |  |
+            ||-~~~~~-||  ||
+             |  \ /  |   ||
+             \  | |  /   ||
+      .--------`   '-------.
+     // \       / \  | |  /  \
+    ((_/|       | |  /./  |___\
+         \______\ /_/_/__/
+          THIS IS THE WAY
+            CODERS GUILD
+-------------------------------------------------------------------*/
+
+
+package com.slinkworks.query;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.UnaryOperator;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * PersistentTermGroup is an immutable TermGroup. Every change returns a new group, and the groups
+ * and terms that did not change are shared between the old and the new tree rather than copied.
+ * Changing one group deep in a large tree copies only that group and the groups above it.
+ *
+ * <p>Keep a large base query as a PersistentTermGroup and make the variant for each request
+ * from it:
+ *
+ * <pre>
+ *         PersistentTermGroup base = PersistentTermGroup.of(baseGroup);
+ *
+ *         PersistentTermGroup variant = base
+ *             .update("NAMES", group -&gt; group.withBoost(2.0f))
+ *             .update("YEARS", group -&gt; group.withTerm(new Term("BirthYear", "1856")));
+ *
+ *         String query = variant.toString();
+ * </pre>
+ *
+ * <p>The terms held by a PersistentTermGroup are frozen, see Term.isFrozen. Use toTermGroup to
+ * get a TermGroup that can be changed.
+ */
+public final class PersistentTermGroup {
+
+  private static final Term[] NO_TERMS = new Term[0];
+  private static final PersistentTermGroup[] NO_GROUPS = new PersistentTermGroup[0];
+
+  // Never changed. Stands in for the class of plain groups, see prototype.
+  private static final TermGroup PLAIN = new TermGroup();
+
+  // An empty group of the class this group was made from, so that toTermGroup makes a group of
+  // the same class and the rendering uses the same openGroup and closeGroup.
+  private final TermGroup prototype;
+  private final String label;
+  private final Occur occur;
+  private final boolean hasGroupingParenthesis;
+  private final boolean fieldFactored;
+  private final Boost boost;
+  private final ConstantScore constantScore;
+  private final Term[] terms;
+  private final PersistentTermGroup[] groups;
+
+  private final boolean empty;
+
+  // One bit, picked by hash, for every label in this tree. update and findByLabel skip the trees
+  // that can not hold the label they are looking for.
+  private final long labelBits;
+
+  // Filled in on first use. Both are safe to compute twice.
+  private String text = null;
+  private int hash = 0;
+
+  private PersistentTermGroup(TermGroup prototype, String label, Occur occur,
+      boolean hasGroupingParenthesis, boolean fieldFactored, Boost boost,
+      ConstantScore constantScore, Term[] terms, PersistentTermGroup[] groups) {
+    this.prototype = prototype;
+    this.label = label;
+    this.occur = occur;
+    this.hasGroupingParenthesis = hasGroupingParenthesis;
+    this.fieldFactored = fieldFactored;
+    this.boost = boost;
+    this.constantScore = constantScore;
+    this.terms = terms;
+    this.groups = groups;
+
+    boolean isEmpty = true;
+    for (Term term : terms) {
+      if (!term.isBlank()) {
+        isEmpty = false;
+        break;
+      }
+    }
+    long bits = labelBit(label);
+    for (PersistentTermGroup group : groups) {
+      isEmpty = isEmpty && group.empty;
+      bits |= group.labelBits;
+    }
+    this.empty = isEmpty;
+    this.labelBits = bits;
+  }
+
+  /**
+   * @return an empty group
+   */
+  public static PersistentTermGroup empty() {
+    return of(PLAIN);
+  }
+
+  /**
+   * Copies a TermGroup and everything below it. The parent group is not copied.
+   *
+   * @param group to copy
+   * @return the copy, null if group is null
+   */
+  public static PersistentTermGroup of(TermGroup group) {
+    if (null == group) {
+      return null;
+    }
+
+    // Read through the content lists, so that a fork is neither materialized nor copied twice. The
+    // frozen terms it shares with its template are shared here too.
+    List<Term> groupTerms = group.contentTerms();
+    Term[] copiedTerms = groupTerms.isEmpty() ? NO_TERMS : new Term[groupTerms.size()];
+    int termCount = 0;
+    for (Term term : groupTerms) {
+      if (null != term) {
+        copiedTerms[termCount++] = term.frozen();
+      }
+    }
+
+    List<TermGroup> subGroups = group.contentGroups();
+    PersistentTermGroup[] copiedGroups =
+        subGroups.isEmpty() ? NO_GROUPS : new PersistentTermGroup[subGroups.size()];
+    int groupCount = 0;
+    for (TermGroup subGroup : subGroups) {
+      if (null != subGroup) {
+        copiedGroups[groupCount++] = of(subGroup);
+      }
+    }
+
+    TermGroup prototype = (group.getClass() == TermGroup.class) ? PLAIN : group.replicate(PLAIN);
+    return new PersistentTermGroup(prototype, group.getLabel(), group.getOccur(),
+        group.getHasGroupingParenthesis(), group.isFieldFactored(),
+        (null == group.getBoost()) ? null : group.getBoost().immutable(),
+        (null == group.getConstantScore()) ? null : group.getConstantScore().immutable(),
+        Arrays.copyOf(copiedTerms, termCount), Arrays.copyOf(copiedGroups, groupCount));
+  }
+
+  /**
+   * Makes a TermGroup, of the class this group was made from, that can be changed.
+   *
+   * @return a new tree
+   */
+  public TermGroup toTermGroup() {
+    TermGroup group = prototype.replicate(PLAIN);
+    group.setLabel(label);
+    group.setHasGroupingParenthesis(hasGroupingParenthesis);
+    group.setFieldFactored(fieldFactored);
+    group.setOccur(occur);
+    if (null != boost) {
+      group.setBoost(boost.getValue());
+    }
+    if (null != constantScore) {
+      group.setConstantScore(constantScore.getValue());
+    }
+    for (Term term : terms) {
+      group.getTerms().add(new Term(term));
+    }
+    for (PersistentTermGroup subGroup : groups) {
+      group.getGroups().add(subGroup.toTermGroup());
+    }
+    return group;
+  }
+
+  /**
+   * @return group label
+   */
+  public String getLabel() {
+    return label;
+  }
+
+  /**
+   * @param label to look for
+   * @return true if this group has the label
+   */
+  public boolean hasLabel(String label) {
+    return StringUtils.equals(this.label, label);
+  }
+
+  /**
+   * @return Occur
+   */
+  public Occur getOccur() {
+    return occur;
+  }
+
+  /**
+   * @return true or false
+   */
+  public boolean getHasGroupingParenthesis() {
+    return hasGroupingParenthesis;
+  }
+
+  /**
+   * @return true if runs of terms on the same field are rendered as one field:( ) clause
+   */
+  public boolean isFieldFactored() {
+    return fieldFactored;
+  }
+
+  /**
+   * @return Boost, may be null
+   */
+  public Boost getBoost() {
+    return boost;
+  }
+
+  /**
+   * @return ConstantScore, may be null
+   */
+  public ConstantScore getConstantScore() {
+    return constantScore;
+  }
+
+  /**
+   * @return the frozen terms of this group. The list can not be changed.
+   */
+  public List<Term> getTerms() {
+    return Collections.unmodifiableList(Arrays.asList(terms));
+  }
+
+  /**
+   * @return the sub groups. The list can not be changed.
+   */
+  public List<PersistentTermGroup> getGroups() {
+    return Collections.unmodifiableList(Arrays.asList(groups));
+  }
+
+  /**
+   * @return true if nothing in this tree renders
+   */
+  public boolean isEmpty() {
+    return empty;
+  }
+
+  /**
+   * @param label A label that helps identify the group.
+   * @return a group with the label
+   */
+  public PersistentTermGroup withLabel(String label) {
+    if (Objects.equals(this.label, label)) {
+      return this;
+    }
+    return new PersistentTermGroup(prototype, label, occur, hasGroupingParenthesis, fieldFactored,
+        boost, constantScore, terms, groups);
+  }
+
+  /**
+   * Like TermGroup.setOccur the occur is only changed on a group that has grouping parenthesis,
+   * unless it is SHOULD.
+   *
+   * @param occur SHOULD, MUST, MUST_NOT
+   * @return a group with the occur
+   */
+  public PersistentTermGroup withOccur(Occur occur) {
+    if ((this.occur == occur) || ((occur != Occur.SHOULD) && (!hasGroupingParenthesis))) {
+      return this;
+    }
+    return new PersistentTermGroup(prototype, label, occur, hasGroupingParenthesis, fieldFactored,
+        boost, constantScore, terms, groups);
+  }
+
+  /**
+   * @param hasGroupingParenthesis false to leave off the parenthesis, the occur becomes SHOULD
+   * @return a group with or without the parenthesis
+   */
+  public PersistentTermGroup withGroupingParenthesis(boolean hasGroupingParenthesis) {
+    if (this.hasGroupingParenthesis == hasGroupingParenthesis) {
+      return this;
+    }
+    return new PersistentTermGroup(prototype, label,
+        hasGroupingParenthesis ? occur : Occur.SHOULD, hasGroupingParenthesis, fieldFactored,
+        boost, constantScore, terms, groups);
+  }
+
+  /**
+   * @param fieldFactored true to render runs of terms on the same field as one clause, see
+   *                      TermGroup.setFieldFactored
+   * @return a group with or without field factoring
+   */
+  public PersistentTermGroup withFieldFactored(boolean fieldFactored) {
+    if (this.fieldFactored == fieldFactored) {
+      return this;
+    }
+    return new PersistentTermGroup(prototype, label, occur, hasGroupingParenthesis, fieldFactored,
+        boost, constantScore, terms, groups);
+  }
+
+  /**
+   * @param boost should be a valid Lucene boost value
+   * @return a group with the boost and without a constant score
+   */
+  public PersistentTermGroup withBoost(float boost) {
+    return with(Boost.valueOf(boost));
+  }
+
+  /**
+   * @param boost may be null, should be a valid Lucene boost value
+   * @return a group with the boost and without a constant score
+   */
+  public PersistentTermGroup with(Boost boost) {
+    Boost immutableBoost = (null == boost) ? null : boost.immutable();
+    return new PersistentTermGroup(prototype, label, occur, hasGroupingParenthesis, fieldFactored,
+        immutableBoost, (null == immutableBoost) ? constantScore : null, terms, groups);
+  }
+
+  /**
+   * @param constantScore should be a valid Lucene constant score
+   * @return a group with the constant score and without a boost
+   */
+  public PersistentTermGroup withConstantScore(float constantScore) {
+    return with(ConstantScore.valueOf(constantScore));
+  }
+
+  /**
+   * @param constantScore may be null, should be a valid Lucene constant score
+   * @return a group with the constant score and without a boost
+   */
+  public PersistentTermGroup with(ConstantScore constantScore) {
+    ConstantScore immutableScore = (null == constantScore) ? null : constantScore.immutable();
+    return new PersistentTermGroup(prototype, label, occur, hasGroupingParenthesis, fieldFactored,
+        (null == immutableScore) ? boost : null, immutableScore, terms, groups);
+  }
+
+  /**
+   * @param term to add. A frozen copy is added, later changes to term are not seen.
+   * @return a group with the term added after the others
+   */
+  public PersistentTermGroup withTerm(Term term) {
+    if (null == term) {
+      return this;
+    }
+    Term[] newTerms = Arrays.copyOf(terms, terms.length + 1);
+    newTerms[terms.length] = term.frozen();
+    return new PersistentTermGroup(prototype, label, occur, hasGroupingParenthesis, fieldFactored,
+        boost, constantScore, newTerms, groups);
+  }
+
+  /**
+   * @param term one of the terms of this group, found by identity
+   * @return a group without the term
+   */
+  public PersistentTermGroup withoutTerm(Term term) {
+    Term[] newTerms = without(terms, term, NO_TERMS);
+    if (newTerms == terms) {
+      return this;
+    }
+    return new PersistentTermGroup(prototype, label, occur, hasGroupingParenthesis, fieldFactored,
+        boost, constantScore, newTerms, groups);
+  }
+
+  /**
+   * @param group to add as the last sub group
+   * @return a group with the sub group added
+   */
+  public PersistentTermGroup withGroup(PersistentTermGroup group) {
+    if (null == group) {
+      return this;
+    }
+    PersistentTermGroup[] newGroups = Arrays.copyOf(groups, groups.length + 1);
+    newGroups[groups.length] = group;
+    return new PersistentTermGroup(prototype, label, occur, hasGroupingParenthesis, fieldFactored,
+        boost, constantScore, terms, newGroups);
+  }
+
+  /**
+   * @param group one of the sub groups of this group, found by identity
+   * @return a group without the sub group
+   */
+  public PersistentTermGroup withoutGroup(PersistentTermGroup group) {
+    PersistentTermGroup[] newGroups = without(groups, group, NO_GROUPS);
+    if (newGroups == groups) {
+      return this;
+    }
+    return new PersistentTermGroup(prototype, label, occur, hasGroupingParenthesis, fieldFactored,
+        boost, constantScore, terms, newGroups);
+  }
+
+  /**
+   * @param wrapperGroup the group that will hold this group
+   * @return wrapperGroup with this group added as its last sub group
+   */
+  public PersistentTermGroup wrapWith(PersistentTermGroup wrapperGroup) {
+    return wrapperGroup.withGroup(this);
+  }
+
+  /**
+   * Applies the edit to every group in this tree that has the label and returns the new tree.
+   * Only the edited groups and the groups above them are copied, everything else is shared with
+   * this tree. Groups below an edited group are edited before it.
+   *
+   * @param label to look for
+   * @param edit  returns the replacement for a group. Returning null removes the group, or
+   *              makes update return null when this group is the one removed.
+   * @return the new tree, or this if no group has the label
+   */
+  public PersistentTermGroup update(String label, UnaryOperator<PersistentTermGroup> edit) {
+    if (0 == (labelBits & labelBit(label))) {
+      return this;
+    }
+
+    PersistentTermGroup[] newGroups = groups;
+    int kept = 0;
+    for (int i = 0; i < groups.length; i++) {
+      PersistentTermGroup group = groups[i];
+      PersistentTermGroup updated = group.update(label, edit);
+      if ((updated != group) && (newGroups == groups)) {
+        newGroups = Arrays.copyOf(groups, groups.length);
+      }
+      if (null != updated) {
+        newGroups[kept++] = updated;
+      }
+    }
+
+    PersistentTermGroup result = this;
+    if (newGroups != groups) {
+      result = new PersistentTermGroup(prototype, this.label, occur, hasGroupingParenthesis,
+          fieldFactored, boost, constantScore, terms, Arrays.copyOf(newGroups, kept));
+    }
+    if (hasLabel(label)) {
+      result = edit.apply(result);
+    }
+    return result;
+  }
+
+  /**
+   * @param label to look for
+   * @return list of all groups in this tree that have that label
+   */
+  public List<PersistentTermGroup> findByLabel(String label) {
+    List<PersistentTermGroup> foundGroups = new ArrayList<>();
+    findByLabel(label, labelBit(label), foundGroups);
+    return foundGroups;
+  }
+
+  private void findByLabel(String label, long bit, List<PersistentTermGroup> foundGroups) {
+    if (0 == (labelBits & bit)) {
+      return;
+    }
+    if (hasLabel(label)) {
+      foundGroups.add(this);
+    }
+    for (PersistentTermGroup group : groups) {
+      group.findByLabel(label, bit, foundGroups);
+    }
+  }
+
+  /**
+   * @return the same text as toString of the TermGroup this group was made from
+   */
+  @Override
+  public String toString() {
+    String result = text;
+    if (null == result) {
+      result = prettyPrint(false, "", "", TermGroup.DEFAULT_SEPARATOR_STRING);
+      text = result;
+    }
+    return result;
+  }
+
+  /**
+   * @return formatted string
+   */
+  public String prettyPrint() {
+    return prettyPrint(false, "", TermGroup.PRETTY_PRINT_DEFAULT,
+        TermGroup.NEW_LINE_SEPARATOR_STRING);
+  }
+
+  /**
+   * @param includeLabels      true to print labels as comments
+   * @param currentIndentation current level of indentation
+   * @param indentation        string to use as indentation. Usually a string of spaces or tabs
+   * @param separator          string to use as a separator
+   * @return formatted string
+   */
+  public String prettyPrint(final boolean includeLabels, String currentIndentation,
+      final String indentation, final String separator) {
+    StringBuilder sb = new StringBuilder();
+    try {
+      prettyPrint(sb, includeLabels, currentIndentation, indentation, separator);
+    } catch (IOException e) {
+      // StringBuilder does not throw IOException
+      throw new UncheckedIOException(e);
+    }
+    return sb.toString();
+  }
+
+  /**
+   * @param out                buffer to append to
+   * @param includeLabels      true to print labels as comments
+   * @param currentIndentation current level of indentation
+   * @param indentation        string to use as indentation. Usually a string of spaces or tabs
+   * @param separator          string to use as a separator
+   * @throws IOException if the buffer throws
+   */
+  public void prettyPrint(Appendable out, final boolean includeLabels, String currentIndentation,
+      final String indentation, final String separator) throws IOException {
+    render(out, "", includeLabels, currentIndentation, indentation, separator);
+  }
+
+  /**
+   * @param out buffer to append to
+   * @throws IOException if the buffer throws
+   */
+  public void appendTo(Appendable out) throws IOException {
+    if (null != text) {
+      out.append(text);
+    } else {
+      prettyPrint(out, false, "", "", TermGroup.DEFAULT_SEPARATOR_STRING);
+    }
+  }
+
+  /**
+   * Writes the group through GroupRenderer, the same way TermGroup.render does.
+   */
+  private boolean render(Appendable out, String leading, final boolean includeLabels,
+      String currentIndentation, final String indentation, final String separator)
+      throws IOException {
+
+    boolean written = false;
+
+    if (!empty) {
+      String inner = hasGroupingParenthesis ? currentIndentation + indentation : currentIndentation;
+      written = GroupRenderer.appendStart(out, leading, currentIndentation,
+          includeLabels ? this.label : null, occur,
+          hasGroupingParenthesis ? prototype.openGroup() : null);
+
+      written = GroupRenderer.appendClauses(out, written, leading, inner, separator,
+          Arrays.asList(terms), fieldFactored, Arrays.asList(groups),
+          (subGroup, subLeading, subIndentation) -> subGroup.render(out, subLeading,
+              includeLabels, subIndentation, indentation, separator));
+
+      if (hasGroupingParenthesis) {
+        GroupRenderer.appendEnd(out, separator, currentIndentation, prototype.closeGroup(),
+            constantScore, boost);
+      }
+    }
+
+    return written;
+  }
+
+  private static long labelBit(String label) {
+    return 1L << (Objects.hashCode(label) & 63);
+  }
+
+  private static <E> E[] without(E[] elements, Object element, E[] none) {
+    int count = 0;
+    for (E e : elements) {
+      if (e == element) {
+        count++;
+      }
+    }
+    if (0 == count) {
+      return elements;
+    }
+    if (count == elements.length) {
+      return none;
+    }
+    E[] result = Arrays.copyOf(elements, elements.length - count);
+    int kept = 0;
+    for (E e : elements) {
+      if (e != element) {
+        result[kept++] = e;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @param obj to compare
+   * @return true if the trees hold the same groups and terms
+   */
+  @Override
+  public boolean equals(Object obj) {
+    if (obj == this) {
+      return true;
+    }
+
+    if (!(obj instanceof PersistentTermGroup other)) {
+      return false;
+    }
+
+    return ((hashCode() == other.hashCode())
+        && (prototype.getClass() == other.prototype.getClass())
+        && (Objects.equals(label, other.label))
+        && (Objects.equals(occur, other.occur))
+        && (hasGroupingParenthesis == other.hasGroupingParenthesis)
+        && (fieldFactored == other.fieldFactored)
+        && (Objects.equals(boost, other.boost))
+        && (Objects.equals(constantScore, other.constantScore))
+        && (Arrays.equals(terms, other.terms))
+        && (Arrays.equals(groups, other.groups)));
+  }
+
+  /**
+   * @return hash code
+   */
+  @Override
+  public int hashCode() {
+    int result = hash;
+    if (0 == result) {
+      result = Objects.hash(Arrays.hashCode(terms), label, Arrays.hashCode(groups), occur,
+          constantScore, boost, hasGroupingParenthesis, fieldFactored);
+      hash = result;
+    }
+    return result;
+  }
+}
@@ -43,8 +43,24 @@ package com.slinkworks.query;
  */
 public class Proximity {
 
+  // Instances handed out by valueOf for the common values 0 to 10.
+  private static final Proximity[] CACHE = new Proximity[11];
+
+  static {
+    for (int i = 0; i < CACHE.length; i++) {
+      CACHE[i] = new Proximity(i, "~" + i);
+    }
+  }
+
   private int value;
 
+  // The text toString returns, only set on the immutable instances made by valueOf.
+  private final String rendered;
+
+  // The terms holding this proximity, told when setValue changes it. Never set on the immutable
+  // instances.
+  private ValueOwners owners = null;
+
   /**
    * Constructor
    *
@@ -52,6 +68,7 @@ public class Proximity {
    */
   public Proximity(int value) {
     this.value = value;
+    this.rendered = null;
   }
 
   /**
@@ -61,6 +78,59 @@ public class Proximity {
    */
   public Proximity(Proximity source) {
     this.value = source.value;
+    this.rendered = null;
+  }
+
+  private Proximity(int value, String rendered) {
+    this.value = value;
+    this.rendered = rendered;
+  }
+
+  /**
+   * An immutable proximity that can be shared by any number of terms. The values 0 to 10 come
+   * from a cache so asking for the same value again returns the same instance. The text is
+   * rendered once when the instance is made.
+   *
+   * @param value A valid value for fuzziness or proximity. The value is not validated.
+   * @return proximity that can not be changed
+   */
+  public static Proximity valueOf(int value) {
+    if ((value >= 0) && (value < CACHE.length)) {
+      return CACHE[value];
+    }
+    return new Proximity(value, "~" + value);
+  }
+
+  /**
+   * @return this if it can not be changed, otherwise an immutable proximity with the same value
+   */
+  Proximity immutable() {
+    return (null != rendered) ? this : valueOf(value);
+  }
+
+  /**
+   * Called by a Term when it starts holding this proximity.
+   *
+   * @param holder the term
+   */
+  void attach(Object holder) {
+    if (null == rendered) {
+      if (null == owners) {
+        owners = new ValueOwners();
+      }
+      owners.attach(holder);
+    }
+  }
+
+  /**
+   * Called by a Term when it stops holding this proximity.
+   *
+   * @param holder the term
+   */
+  void detach(Object holder) {
+    if (null != owners) {
+      owners.detach(holder);
+    }
   }
 
   /**
@@ -71,10 +141,21 @@ public class Proximity {
   }
 
   /**
+   * Changes this value in place. The terms holding this proximity render the new value from then
+   * on. The instances from valueOf, which frozen trees hold, are shared and can not be changed.
+   *
    * @param value A valid value for fuzziness or proximity. The value is not validated.
+   * @throws UnsupportedOperationException if this instance came from valueOf
    */
   public void setValue(Integer value) {
+    if (null != rendered) {
+      throw new UnsupportedOperationException(
+          "A Proximity from valueOf is shared and can not be changed");
+    }
     this.value = value;
+    if (null != owners) {
+      owners.changed();
+    }
   }
 
   /**
@@ -84,6 +165,9 @@ public class Proximity {
    */
   @Override
   public String toString() {
+    if (null != rendered) {
+      return rendered;
+    }
     return "~" + value;
   }
 
@@ -0,0 +1,434 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/*------------------------------------------------------------------
+    slinkworks.com
+
+               .---.    (__)
+             .'__|__`.  |  |
+            ||-~~~~~-||  ||
+             |  \ /  |   ||
+             \  | |  /   ||
+      .--------`   '-------.
+     // \       / \  | |  /  \
+    ((_/|       | |  /./  |___\
+         \______\ /_/_/__/
+          THIS IS THE WAY
+            CODERS GUILD
+-------------------------------------------------------------------*/
+
+package com.slinkworks.query;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * QueryEncoder renders TermGroups and Terms straight to UTF-8 bytes, without making a String
+ * first. It can also encode the bytes as application/x-www-form-urlencoded, ready to be the body
+ * of a POST to Solr.
+ * <p>
+ * Without an OutputStream the bytes are kept in a buffer that grows as needed and can be reused
+ * after reset. With one they are written to it whenever the buffer fills up, and by flush.
+ *
+ * <pre>
+ *         QueryEncoder encoder = new QueryEncoder(true);
+ *         encoder.parameter("q", group).parameter("fq", filters);
+ *
+ *         ByteBuffer body = encoder.toByteBuffer();
+ * </pre>
+ * <p>
+ * A QueryEncoder is not thread safe.
+ */
+public class QueryEncoder implements Appendable, Flushable {
+
+  private static final int DEFAULT_CAPACITY = 8192;
+
+  // The most bytes encode can write for one char, %XX for each of the four bytes of a surrogate
+  // pair.
+  private static final int MAX_BYTES_PER_CHAR = 12;
+
+  // The ASCII chars written as they are, all of them for plain UTF-8 and the ones URLEncoder leaves
+  // alone for form url encoding.
+  private static final boolean[] ASCII = new boolean[128];
+  private static final boolean[] UNRESERVED = new boolean[128];
+
+  private static final byte[] HEX = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+
+  static {
+    Arrays.fill(ASCII, true);
+    for (char c = 'a'; c <= 'z'; c++) {
+      UNRESERVED[c] = true;
+      UNRESERVED[Character.toUpperCase(c)] = true;
+    }
+    for (char c = '0'; c <= '9'; c++) {
+      UNRESERVED[c] = true;
+    }
+    for (char c : ".-*_".toCharArray()) {
+      UNRESERVED[c] = true;
+    }
+  }
+
+  private final OutputStream out;
+  private final boolean formUrlEncoded;
+  private final boolean[] verbatim;
+
+  private byte[] bytes;
+  private int count = 0;
+
+  // The first half of a surrogate pair, waiting for the second half. 0 when there is none. There
+  // is always room in the buffer for any one char while it waits, see endText.
+  private char highSurrogate = 0;
+
+  // Whether parameter has written anything yet, so it knows when to write the &.
+  private boolean hasParameters = false;
+
+  /**
+   * Encodes to a buffer that grows as needed.
+   *
+   * @param formUrlEncoded true to encode the UTF-8 bytes as application/x-www-form-urlencoded
+   */
+  public QueryEncoder(boolean formUrlEncoded) {
+    this(null, formUrlEncoded);
+  }
+
+  /**
+   * Encodes to the stream, through a buffer of 8K.
+   *
+   * @param out            where the bytes go, or null to keep them in a buffer that grows
+   * @param formUrlEncoded true to encode the UTF-8 bytes as application/x-www-form-urlencoded
+   */
+  public QueryEncoder(OutputStream out, boolean formUrlEncoded) {
+    this(out, formUrlEncoded, DEFAULT_CAPACITY);
+  }
+
+  /**
+   * @param out            where the bytes go, or null to keep them in a buffer that grows
+   * @param formUrlEncoded true to encode the UTF-8 bytes as application/x-www-form-urlencoded
+   * @param capacity       size of the buffer, the stream is written to before it fills
+   */
+  QueryEncoder(OutputStream out, boolean formUrlEncoded, int capacity) {
+    this.out = out;
+    this.formUrlEncoded = formUrlEncoded;
+    this.verbatim = formUrlEncoded ? UNRESERVED : ASCII;
+    this.bytes = new byte[Math.max(capacity, MAX_BYTES_PER_CHAR)];
+  }
+
+  /**
+   * Encodes the same text that toString returns.
+   *
+   * @param group to encode
+   * @return this
+   * @throws IOException if the stream throws
+   */
+  public QueryEncoder encode(TermGroup group) throws IOException {
+    group.appendTo(this);
+    endText();
+    return this;
+  }
+
+  /**
+   * Encodes the same text that toString returns.
+   *
+   * @param term to encode
+   * @return this
+   * @throws IOException if the stream throws
+   */
+  public QueryEncoder encode(Term term) throws IOException {
+    term.appendTo(this);
+    endText();
+    return this;
+  }
+
+  /**
+   * Writes name=query, with an &amp; before it if it is not the first parameter. Only makes sense
+   * when the encoder is form url encoded.
+   *
+   * @param name  of the request parameter, q or fq for example
+   * @param group the query
+   * @return this
+   * @throws IOException if the stream throws
+   */
+  public QueryEncoder parameter(String name, TermGroup group) throws IOException {
+    startParameter(name);
+    return encode(group);
+  }
+
+  /**
+   * Writes name=, with an &amp; before it if it is not the first parameter.
+   *
+   * @param name of the request parameter
+   * @throws IOException if the stream throws
+   */
+  void startParameter(String name) throws IOException {
+    ensureRoom();
+    if (hasParameters) {
+      bytes[count++] = '&';
+    }
+    hasParameters = true;
+    append(name);
+    endText();
+    ensureRoom();
+    bytes[count++] = '=';
+  }
+
+  @Override
+  public QueryEncoder append(CharSequence csq) throws IOException {
+    if (csq instanceof String string) {
+      return append(string, 0, string.length());
+    }
+    return append(csq, 0, (null == csq) ? 4 : csq.length());
+  }
+
+  @Override
+  public QueryEncoder append(CharSequence csq, int start, int end) throws IOException {
+    if (csq instanceof String string) {
+      return append(string, start, end);
+    }
+    if (null == csq) {
+      csq = "null";
+    }
+    return append(csq.toString(), start, end);
+  }
+
+  /**
+   * Nearly everything that is rendered is a String, reading it through CharSequence is slower.
+   */
+  private QueryEncoder append(String csq, int start, int end) throws IOException {
+    Objects.checkFromToIndex(start, end, csq.length());
+    int i = start;
+    while (i < end) {
+      if (0 != highSurrogate) {
+        // The other half of a pair split between two appends, or between two chars
+        encode(csq.charAt(i++));
+        continue;
+      }
+      ensureRoom();
+      // No char takes more than MAX_BYTES_PER_CHAR, so this many fit without looking again.
+      int stop = Math.min(end, i + (bytes.length - count) / MAX_BYTES_PER_CHAR);
+      byte[] b = bytes;
+      int n = count;
+      boolean[] v = verbatim;
+      while (i < stop) {
+        char c = csq.charAt(i++);
+        if (c >= 0x80) {
+          count = n;
+          encode(c);
+          b = bytes;
+          n = count;
+          if (0 != highSurrogate) {
+            break;
+          }
+        } else if (v[c]) {
+          b[n++] = (byte) c;
+        } else if (' ' == c) {
+          // Only form url encoding leaves any ASCII out of verbatim
+          b[n++] = '+';
+        } else {
+          b[n++] = '%';
+          b[n++] = HEX[c >> 4];
+          b[n++] = HEX[c & 0xf];
+        }
+      }
+      count = n;
+    }
+    return this;
+  }
+
+  @Override
+  public QueryEncoder append(char c) throws IOException {
+    encode(c);
+    return this;
+  }
+
+  /**
+   * @return the number of bytes in the buffer
+   */
+  public int size() {
+    return count;
+  }
+
+  /**
+   * @return a view of the bytes in the buffer, good until the encoder is next written to or reset
+   */
+  public ByteBuffer toByteBuffer() {
+    endText();
+    return ByteBuffer.wrap(bytes, 0, count).slice();
+  }
+
+  /**
+   * @return a copy of the bytes in the buffer
+   */
+  public byte[] toByteArray() {
+    endText();
+    return Arrays.copyOf(bytes, count);
+  }
+
+  /**
+   * Empties the buffer, keeping its capacity, so that the encoder can be used again.
+   */
+  public void reset() {
+    count = 0;
+    highSurrogate = 0;
+    hasParameters = false;
+  }
+
+  /**
+   * Writes the buffer to the stream and flushes it. Does nothing without a stream.
+   *
+   * @throws IOException if the stream throws
+   */
+  @Override
+  public void flush() throws IOException {
+    endText();
+    if (null != out) {
+      drain();
+      out.flush();
+    }
+  }
+
+  /**
+   * @param csq text, may be null
+   * @return the number of bytes a plain UTF-8 encoder writes for the text, 0 for null
+   */
+  static long utf8Length(CharSequence csq) {
+    if (null == csq) {
+      return 0;
+    }
+    int length = csq.length();
+    long bytes = length;
+    for (int i = 0; i < length; i++) {
+      char c = csq.charAt(i);
+      if (c >= 0x80) {
+        if (c < 0x800) {
+          bytes += 1;
+        } else if (Character.isHighSurrogate(c) && (i + 1 < length)
+            && Character.isLowSurrogate(csq.charAt(i + 1))) {
+          // Four bytes for the two chars
+          bytes += 2;
+          i++;
+        } else if (!Character.isSurrogate(c)) {
+          bytes += 2;
+        }
+      }
+    }
+    return bytes;
+  }
+
+  /**
+   * Writes a high surrogate still waiting for its other half as ?, as String.getBytes does for one
+   * at the end of a string. Called wherever a piece of text ends.
+   */
+  private void endText() {
+    if (0 != highSurrogate) {
+      highSurrogate = 0;
+      // encode made room for a whole char before it kept the surrogate back
+      putAscii('?');
+    }
+  }
+
+  private void encode(char c) throws IOException {
+    ensureRoom();
+
+    if (0 != highSurrogate) {
+      char high = highSurrogate;
+      highSurrogate = 0;
+      if (Character.isLowSurrogate(c)) {
+        int codePoint = Character.toCodePoint(high, c);
+        put((byte) (0xf0 | (codePoint >> 18)));
+        put((byte) (0x80 | ((codePoint >> 12) & 0x3f)));
+        put((byte) (0x80 | ((codePoint >> 6) & 0x3f)));
+        put((byte) (0x80 | (codePoint & 0x3f)));
+        return;
+      }
+      // A high surrogate on its own, which String.getBytes turns into ?
+      putAscii('?');
+      ensureRoom();
+    }
+
+    if (c < 0x80) {
+      putAscii(c);
+    } else if (c < 0x800) {
+      put((byte) (0xc0 | (c >> 6)));
+      put((byte) (0x80 | (c & 0x3f)));
+    } else if (Character.isHighSurrogate(c)) {
+      highSurrogate = c;
+    } else if (Character.isLowSurrogate(c)) {
+      putAscii('?');
+    } else {
+      put((byte) (0xe0 | (c >> 12)));
+      put((byte) (0x80 | ((c >> 6) & 0x3f)));
+      put((byte) (0x80 | (c & 0x3f)));
+    }
+  }
+
+  /**
+   * Puts an ASCII char, escaped if the encoder is form url encoded and it has to be. The caller
+   * has made room for it.
+   */
+  private void putAscii(char c) {
+    if ((!formUrlEncoded) || UNRESERVED[c]) {
+      bytes[count++] = (byte) c;
+    } else if (' ' == c) {
+      bytes[count++] = '+';
+    } else {
+      escape(c);
+    }
+  }
+
+  /**
+   * Puts one byte of an encoded char, escaped if it is not ASCII and the encoder is form url
+   * encoded. The caller has made room for it.
+   */
+  private void put(byte b) {
+    if (formUrlEncoded && (b < 0)) {
+      escape(b);
+    } else {
+      bytes[count++] = b;
+    }
+  }
+
+  private void escape(int b) {
+    bytes[count++] = '%';
+    bytes[count++] = HEX[(b >> 4) & 0xf];
+    bytes[count++] = HEX[b & 0xf];
+  }
+
+  /**
+   * Makes sure that there is room for any one char, by emptying the buffer into the stream, or by
+   * growing it when there is no stream.
+   */
+  private void ensureRoom() throws IOException {
+    if (count <= bytes.length - MAX_BYTES_PER_CHAR) {
+      return;
+    }
+    if (null != out) {
+      drain();
+    } else {
+      bytes = Arrays.copyOf(bytes, bytes.length << 1);
+    }
+  }
+
+  private void drain() throws IOException {
+    out.write(bytes, 0, count);
+    count = 0;
+  }
+}
@@ -0,0 +1,468 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/*------------------------------------------------------------------
+    slinkworks.com
+
+               .---.    (__)
+             .'__|__`.  |  |
+            ||-~~~~~-||  ||
+             |  \ /  |   ||
+             \  | |  /   ||
+      .--------`   '-------.
+     // \       / \  | |  /  \
+    ((_/|       | |  /./  |___\
+         \______\ /_/_/__/
+          THIS IS THE WAY
+            CODERS GUILD
+-------------------------------------------------------------------*/
+
+package com.slinkworks.query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Predicate;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * QueryOptimizer takes the structural waste out of a tree of TermGroups: empty groups, duplicate
+ * terms, groups around a single clause, SHOULD groups nested in one another and parentheses that
+ * do nothing. A smaller tree renders faster and is parsed faster by Solr.
+ *
+ * <pre>
+ *     ( title:a ( title:a ( title:b ) ) +( year:1999 ) )
+ * </pre>
+ * <p>
+ * is optimized to
+ *
+ * <pre>
+ *     title:a title:b +year:1999
+ * </pre>
+ * <p>
+ * The rules are kept in a registry, in the order they are applied. The standard rules are
+ * registered by the constructor, and rules can be added, replaced or taken out by name. Every
+ * rule is applied to every group, deepest first, over and over until a pass over the tree changes
+ * nothing. The report says what each rule changed.
+ * <p>
+ * The group is changed in place. It must not be frozen, optimize a fork of a frozen group. The
+ * group is taken to be the whole query when it has no parent. The rules keep what the query
+ * matches for the standard query parser with the default operator OR, but not the order of the
+ * clauses, and duplicate clauses no longer add to the score twice. Groups with a label are kept so
+ * that findByLabel still finds them.
+ */
+public class QueryOptimizer {
+
+  /**
+   * Passes over the tree after which the optimizer stops even if a rule is still changing it.
+   */
+  public static final int MAX_PASSES = 100;
+
+  /**
+   * The rules registered by the constructor, in the order they are applied.
+   */
+  public enum StandardRule implements QueryRule {
+
+    /**
+     * Removes terms that render nothing and sub groups that are empty.
+     */
+    EMPTY_CLAUSES {
+      @Override
+      public boolean apply(TermGroup group, Report report) {
+        boolean changed = group.getTerms().removeIf(term -> {
+          if ((null == term) || !term.isRenderable()) {
+            report.add(this, "removed a blank term");
+            return true;
+          }
+          return false;
+        });
+        changed |= group.getGroups().removeIf(subgroup -> {
+          if (subgroup.isEmpty() && StringUtils.isBlank(subgroup.getLabel())) {
+            report.add(this, "removed an empty group");
+            return true;
+          }
+          return false;
+        });
+        return changed;
+      }
+    },
+
+    /**
+     * Removes a term that is equal to one before it in the same group.
+     */
+    DUPLICATE_TERMS {
+      @Override
+      public boolean apply(TermGroup group, Report report) {
+        if (group.contentTerms().size() < 2) {
+          return false;
+        }
+        Set<Term> seen = new HashSet<>();
+        return group.getTerms().removeIf(term -> {
+          if ((null != term) && term.isRenderable() && !seen.add(term)) {
+            report.add(this, "removed duplicate " + term);
+            return true;
+          }
+          return false;
+        });
+      }
+    },
+
+    /**
+     * Splices a sub group without parentheses into its parent, where its clauses render anyway,
+     * and takes the parentheses off a plain SHOULD group that is the whole query.
+     */
+    POINTLESS_PARENTHESES {
+      @Override
+      public boolean apply(TermGroup group, Report report) {
+        boolean changed = false;
+        for (TermGroup subgroup : select(group, subgroup -> !subgroup.getHasGroupingParenthesis()
+            && StringUtils.isBlank(subgroup.getLabel()))) {
+          group.removeGroup(subgroup, true);
+          report.add(this, "spliced a group without parentheses into its parent");
+          changed = true;
+        }
+        // ( -a ) on its own matches nothing, -a matches everything else.
+        if ((null == group.getParentGroup()) && isPlain(group)
+            && (Occur.SHOULD == group.getOccur()) && hasPositiveClause(group)) {
+          group.setHasGroupingParenthesis(false);
+          report.add(this, "took the parentheses off the query");
+          changed = true;
+        }
+        return changed;
+      }
+    },
+
+    /**
+     * Splices a plain SHOULD group that holds only SHOULD clauses into its parent. ( a ( b c ) )
+     * matches the same as ( a b c ).
+     */
+    NESTED_SHOULD {
+      @Override
+      public boolean apply(TermGroup group, Report report) {
+        boolean changed = false;
+        for (TermGroup subgroup : select(group, subgroup -> isPlain(subgroup)
+            && (Occur.SHOULD == subgroup.getOccur()) && !subgroup.isEmpty()
+            && onlyShouldClauses(subgroup))) {
+          group.removeGroup(subgroup, true);
+          report.add(this, "flattened a SHOULD group into its parent");
+          changed = true;
+        }
+        return changed;
+      }
+    },
+
+    /**
+     * Replaces a plain group around a single term or group with that clause, taking the occur of
+     * the group. A single MUST_NOT clause is left in its group, since on its own it matches
+     * nothing.
+     */
+    SINGLE_CLAUSE {
+      @Override
+      public boolean apply(TermGroup group, Report report) {
+        boolean changed = false;
+        for (TermGroup subgroup : select(group, subgroup -> null != onlyClause(subgroup))) {
+          Object clause = onlyClause(subgroup);
+          if (clause instanceof Term term) {
+            subgroup.removeTerm(term);
+            if (term.getOccur() != subgroup.getOccur()) {
+              term = new Term(term).with(subgroup.getOccur());
+            }
+            group.removeGroup(subgroup);
+            group.addTerm(term);
+            report.add(this, "replaced a group with " + term);
+          } else {
+            TermGroup child = (TermGroup) clause;
+            subgroup.removeGroup(child);
+            child.setOccur(subgroup.getOccur());
+            group.getGroups().set(indexOf(group, subgroup), child);
+            report.add(this, "replaced a group with the group inside it");
+          }
+          changed = true;
+        }
+        return changed;
+      }
+    };
+
+    /**
+     * @return the sub groups of group that pass the test, in a list that does not change as group
+     * does
+     */
+    private static List<TermGroup> select(TermGroup group, Predicate<TermGroup> test) {
+      List<TermGroup> selected = Collections.emptyList();
+      for (TermGroup subgroup : group.getGroups()) {
+        if (test.test(subgroup)) {
+          if (selected.isEmpty()) {
+            selected = new ArrayList<>(2);
+          }
+          selected.add(subgroup);
+        }
+      }
+      return selected;
+    }
+
+    private static int indexOf(TermGroup group, TermGroup subgroup) {
+      List<TermGroup> groups = group.getGroups();
+      for (int i = 0; i < groups.size(); i++) {
+        if (groups.get(i) == subgroup) {
+          return i;
+        }
+      }
+      return -1;
+    }
+
+    /**
+     * @return true if the group is a TermGroup with parentheses and nothing else to it
+     */
+    private static boolean isPlain(TermGroup group) {
+      return (TermGroup.class == group.getClass()) && group.getHasGroupingParenthesis()
+          && (null == group.getBoost()) && (null == group.getConstantScore())
+          && StringUtils.isBlank(group.getLabel());
+    }
+
+    /**
+     * @return the term or group that is all there is in a plain group, unless it is MUST_NOT or a
+     * group without parentheses, otherwise null
+     */
+    private static Object onlyClause(TermGroup group) {
+      if (!isPlain(group)) {
+        return null;
+      }
+      List<Term> terms = group.contentTerms();
+      List<TermGroup> groups = group.contentGroups();
+      if ((1 == terms.size()) && groups.isEmpty()) {
+        Term term = terms.get(0);
+        return ((null != term) && term.isRenderable() && (Occur.MUST_NOT != term.getOccur()))
+            ? term : null;
+      }
+      if (terms.isEmpty() && (1 == groups.size())) {
+        TermGroup child = groups.get(0);
+        return (!child.isEmpty() && child.getHasGroupingParenthesis()
+            && (Occur.MUST_NOT != child.getOccur())) ? child : null;
+      }
+      return null;
+    }
+
+    private static boolean onlyShouldClauses(TermGroup group) {
+      for (Term term : group.contentTerms()) {
+        if ((null != term) && term.isRenderable() && (Occur.SHOULD != term.getOccur())) {
+          return false;
+        }
+      }
+      for (TermGroup subgroup : group.contentGroups()) {
+        if (!subgroup.isEmpty() && (!subgroup.getHasGroupingParenthesis()
+            || (Occur.SHOULD != subgroup.getOccur()))) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * @return true if the group has a clause that is not MUST_NOT
+     */
+    private static boolean hasPositiveClause(TermGroup group) {
+      for (Term term : group.contentTerms()) {
+        if ((null != term) && term.isRenderable() && (Occur.MUST_NOT != term.getOccur())) {
+          return true;
+        }
+      }
+      for (TermGroup subgroup : group.contentGroups()) {
+        if (!subgroup.isEmpty() && (subgroup.getHasGroupingParenthesis()
+            ? (Occur.MUST_NOT != subgroup.getOccur()) : hasPositiveClause(subgroup))) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  private final Map<String, QueryRule> rules = new LinkedHashMap<>();
+
+  /**
+   * Registers the standard rules.
+   */
+  public QueryOptimizer() {
+    for (StandardRule rule : StandardRule.values()) {
+      register(rule);
+    }
+  }
+
+  /**
+   * Adds a rule after the ones already registered, or puts it in the place of the rule registered
+   * under the same name.
+   *
+   * @param rule to register
+   * @return this
+   */
+  public QueryOptimizer register(QueryRule rule) {
+    Objects.requireNonNull(rule, "rule");
+    rules.put(Objects.requireNonNull(rule.name(), "name"), rule);
+    return this;
+  }
+
+  /**
+   * @param name of the rule to take out of the registry
+   * @return this
+   */
+  public QueryOptimizer unregister(String name) {
+    rules.remove(name);
+    return this;
+  }
+
+  /**
+   * @return the registered rules, in the order they are applied
+   */
+  public List<QueryRule> getRules() {
+    return Collections.unmodifiableList(new ArrayList<>(rules.values()));
+  }
+
+  /**
+   * Applies the rules to the group and everything below it until they change nothing more, or
+   * for at most MAX_PASSES passes.
+   *
+   * @param group the query, changed in place
+   * @return what was changed
+   */
+  public Report optimize(TermGroup group) {
+    Objects.requireNonNull(group, "group");
+    if (group.isFrozen()) {
+      throw new UnsupportedOperationException(
+          "A frozen TermGroup can not be optimized, optimize a fork of it");
+    }
+    List<QueryRule> order = new ArrayList<>(rules.values());
+    Report report = new Report();
+    boolean changed = true;
+    while (changed && (report.passes < MAX_PASSES)) {
+      changed = optimize(group, order, report);
+      report.passes++;
+    }
+    return report;
+  }
+
+  private static boolean optimize(TermGroup group, List<QueryRule> order, Report report) {
+    boolean changed = false;
+    // A rule only changes the group it is given and the groups directly below it, so the groups
+    // of this group stay where they are while the ones below are optimized.
+    List<TermGroup> subgroups = group.getGroups();
+    for (int i = 0; i < subgroups.size(); i++) {
+      changed |= optimize(subgroups.get(i), order, report);
+    }
+    for (QueryRule rule : order) {
+      changed |= rule.apply(group, report);
+    }
+    return changed;
+  }
+
+  /**
+   * What the rules changed, in the order they changed it.
+   */
+  public static final class Report {
+
+    private final List<Change> changes = new ArrayList<>();
+    private final Map<String, Integer> counts = new LinkedHashMap<>();
+    private int passes = 0;
+
+    /**
+     * @param rule        that made the change
+     * @param description of the change
+     */
+    public void add(QueryRule rule, String description) {
+      changes.add(new Change(rule.name(), description));
+      counts.merge(rule.name(), 1, Integer::sum);
+    }
+
+    /**
+     * @return every change, in order
+     */
+    public List<Change> getChanges() {
+      return Collections.unmodifiableList(changes);
+    }
+
+    /**
+     * @param name of a rule
+     * @return how many changes the rule made
+     */
+    public int count(String name) {
+      return counts.getOrDefault(name, 0);
+    }
+
+    /**
+     * @return the number of changes made by each rule that made any, in the order of the first
+     */
+    public Map<String, Integer> getCounts() {
+      return Collections.unmodifiableMap(counts);
+    }
+
+    /**
+     * @return true if nothing was changed
+     */
+    public boolean isEmpty() {
+      return changes.isEmpty();
+    }
+
+    /**
+     * @return the number of passes over the tree, the last of which changed nothing unless
+     * MAX_PASSES was reached
+     */
+    public int getPasses() {
+      return passes;
+    }
+
+    @Override
+    public String toString() {
+      return counts + " in " + passes + " passes";
+    }
+  }
+
+  /**
+   * One change made by a rule.
+   */
+  public static final class Change {
+
+    private final String rule;
+    private final String description;
+
+    Change(String rule, String description) {
+      this.rule = rule;
+      this.description = description;
+    }
+
+    /**
+     * @return the name of the rule
+     */
+    public String getRule() {
+      return rule;
+    }
+
+    /**
+     * @return what the rule did
+     */
+    public String getDescription() {
+      return description;
+    }
+
+    @Override
+    public String toString() {
+      return rule + ": " + description;
+    }
+  }
+}
@@ -0,0 +1,333 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/*------------------------------------------------------------------
+    slinkworks.com
+
+               .---.    (__)
+             .'__|__`.  |  |
+            ||-~~~~~-||  ||
+             |  \ /  |   ||
+             \  | |  /   ||
+      .--------`   '-------.
+     // \       / \  | |  /  \
+    ((_/|       | |  /./  |___\
+         \______\ /_/_/__/
+          THIS IS THE WAY
+            CODERS GUILD
+-------------------------------------------------------------------*/
+
+package com.slinkworks.query;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * QueryPublisher publishes the UTF-8 bytes of a TermGroup, the same text toString returns, as
+ * ByteBuffers of a fixed size. The tree is walked a clause at a time, only as far as the
+ * subscriber has asked for, so however large the query only a few chunks of it are in memory at
+ * once. It can be the body of a request to Solr.
+ *
+ * <pre>
+ *         HttpRequest request = HttpRequest.newBuilder(uri)
+ *             .header("Content-Type", "application/x-www-form-urlencoded")
+ *             .POST(HttpRequest.BodyPublishers.fromPublisher(
+ *                 new QueryPublisher("q", group, 16 * 1024)))
+ *             .build();
+ * </pre>
+ * <p>
+ * Every subscriber gets the whole query, rendered again for it. Chunks are rendered and delivered
+ * on the thread that calls request. The tree must not change while it is being published, freeze
+ * it or publish a fork.
+ *
+ * @see QueryEncoder
+ */
+public class QueryPublisher implements Flow.Publisher<ByteBuffer> {
+
+  private final TermGroup group;
+  private final String parameter;
+  private final int chunkSize;
+
+  /**
+   * Publishes the query as plain UTF-8.
+   *
+   * @param group     the query
+   * @param chunkSize the size of each ByteBuffer but the last
+   */
+  public QueryPublisher(TermGroup group, int chunkSize) {
+    this(null, group, chunkSize);
+  }
+
+  /**
+   * Publishes parameter=query, application/x-www-form-urlencoded.
+   *
+   * @param parameter name of the request parameter, q for example, or null to publish the query as
+   *                  plain UTF-8
+   * @param group     the query
+   * @param chunkSize the size of each ByteBuffer but the last
+   */
+  public QueryPublisher(String parameter, TermGroup group, int chunkSize) {
+    if (chunkSize <= 0) {
+      throw new IllegalArgumentException("chunkSize must be positive: " + chunkSize);
+    }
+    this.group = Objects.requireNonNull(group);
+    this.parameter = parameter;
+    this.chunkSize = chunkSize;
+  }
+
+  @Override
+  public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+    Objects.requireNonNull(subscriber);
+    Chunks chunks = new Chunks(subscriber);
+    subscriber.onSubscribe(chunks);
+  }
+
+  /**
+   * The subscription, and the walk of the tree for one subscriber.
+   */
+  private final class Chunks extends OutputStream implements Flow.Subscription {
+
+    private final Flow.Subscriber<? super ByteBuffer> subscriber;
+    private final AtomicLong requested = new AtomicLong();
+
+    // Counts the calls to drain, only the first of which works while the others are let in.
+    private final AtomicInteger work = new AtomicInteger();
+    private volatile boolean cancelled = false;
+
+    // The error for a request of no chunks, delivered by drain so signals are never concurrent.
+    private volatile Throwable pendingError = null;
+
+    // Only touched inside drain, which is never run by two threads at once.
+    private final ArrayDeque<ByteBuffer> ready = new ArrayDeque<>();
+    private ByteBuffer chunk = null;
+    private QueryEncoder encoder = null;
+    private Walk walk = null;
+    private boolean walked = false;
+    private boolean terminated = false;
+
+    Chunks(Flow.Subscriber<? super ByteBuffer> subscriber) {
+      this.subscriber = subscriber;
+    }
+
+    @Override
+    public void request(long n) {
+      if (n <= 0) {
+        if (!cancelled) {
+          pendingError = new IllegalArgumentException("Requested " + n + " chunks");
+          cancelled = true;
+          drain();
+        }
+        return;
+      }
+      requested.accumulateAndGet(n, (current, more) -> {
+        long sum = current + more;
+        return (sum < 0) ? Long.MAX_VALUE : sum;
+      });
+      drain();
+    }
+
+    @Override
+    public void cancel() {
+      cancelled = true;
+      drain();
+    }
+
+    private void drain() {
+      if (0 != work.getAndIncrement()) {
+        return;
+      }
+      int missed = 1;
+      do {
+        if (cancelled) {
+          release();
+          Throwable error = pendingError;
+          if ((null != error) && !terminated) {
+            terminated = true;
+            subscriber.onError(error);
+          }
+        } else {
+          long delivered = 0;
+          long wanted = requested.get();
+          while ((delivered != wanted) && !cancelled) {
+            ByteBuffer next = ready.poll();
+            if (null != next) {
+              subscriber.onNext(next);
+              delivered++;
+            } else if (walked) {
+              break;
+            } else {
+              try {
+                step();
+              } catch (IOException | RuntimeException e) {
+                cancelled = true;
+                terminated = true;
+                release();
+                subscriber.onError(e);
+              }
+            }
+          }
+          if (!cancelled && walked && ready.isEmpty()) {
+            cancelled = true;
+            terminated = true;
+            release();
+            subscriber.onComplete();
+          }
+          if ((0 != delivered) && (Long.MAX_VALUE != wanted)) {
+            requested.addAndGet(-delivered);
+          }
+        }
+        missed = work.addAndGet(-missed);
+      } while (0 != missed);
+    }
+
+    /**
+     * Walks the tree until at least one chunk is ready, or to the end.
+     */
+    private void step() throws IOException {
+      if (null == encoder) {
+        encoder = new QueryEncoder(this, null != parameter, chunkSize);
+        if (null != parameter) {
+          encoder.startParameter(parameter);
+        }
+        walk = new Walk(group, "", null);
+      }
+      while (ready.isEmpty() && (null != walk)) {
+        walk = walk.step(encoder);
+      }
+      if (null == walk) {
+        encoder.flush();
+        if ((null != chunk) && (chunk.position() > 0)) {
+          ready.add(chunk.flip());
+        }
+        chunk = null;
+        walked = true;
+      }
+    }
+
+    private void release() {
+      ready.clear();
+      chunk = null;
+      encoder = null;
+      walk = null;
+    }
+
+    // What the encoder writes is cut into chunks here.
+
+    @Override
+    public void write(int b) {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      while (len > 0) {
+        if (null == chunk) {
+          chunk = ByteBuffer.allocate(chunkSize);
+        }
+        int length = Math.min(len, chunk.remaining());
+        chunk.put(b, off, length);
+        off += length;
+        len -= length;
+        if (!chunk.hasRemaining()) {
+          ready.add(chunk.flip());
+          chunk = null;
+        }
+      }
+    }
+  }
+
+  /**
+   * Where the walk is in one group. Writes the group through GroupRenderer, as TermGroup.render
+   * does, with the arguments toString passes to it, so without labels or indentation. It is
+   * written a piece at a time, the start of the group, a term or the end of the group.
+   */
+  private static final class Walk {
+
+    private static final String SEPARATOR = TermGroup.DEFAULT_SEPARATOR_STRING;
+
+    private final TermGroup group;
+    private final String leading;
+    private final Walk parent;
+
+    private List<Term> terms = null;
+    private List<TermGroup> groups = null;
+    private int next = 0;
+    private boolean written = false;
+
+    Walk(TermGroup group, String leading, Walk parent) {
+      this.group = group;
+      this.leading = leading;
+      this.parent = parent;
+    }
+
+    /**
+     * Writes the next piece of the group.
+     *
+     * @param out to write to
+     * @return where the walk goes next, null at the end of the tree
+     */
+    Walk step(Appendable out) throws IOException {
+      if (null == terms) {
+        if (group.isEmpty()) {
+          return end(false);
+        }
+        written = GroupRenderer.appendStart(out, leading, "", null, group.getOccur(),
+            group.getHasGroupingParenthesis() ? group.openGroup() : null);
+        terms = group.contentTerms();
+        groups = group.contentGroups();
+        return this;
+      }
+
+      if (next < terms.size()) {
+        boolean fieldFactored = group.isFieldFactored();
+        int start = GroupRenderer.nextRun(terms, next, fieldFactored);
+        if (start < terms.size()) {
+          next = GroupRenderer.runEnd(terms, start, fieldFactored);
+          GroupRenderer.appendRun(out, written ? SEPARATOR : leading, "", terms, start, next);
+          written = true;
+          return this;
+        }
+        next = terms.size();
+      }
+
+      int index = next++ - terms.size();
+      if (index < groups.size()) {
+        return new Walk(groups.get(index), written ? SEPARATOR : leading, this);
+      }
+
+      if (group.getHasGroupingParenthesis()) {
+        GroupRenderer.appendEnd(out, SEPARATOR, "", group.closeGroup(), group.getConstantScore(),
+            group.getBoost());
+      }
+      return end(written);
+    }
+
+    private Walk end(boolean wrote) {
+      if (null != parent) {
+        parent.written |= wrote;
+      }
+      return parent;
+    }
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/*------------------------------------------------------------------
+    slinkworks.com
+
+               .---.    (__)
+             .'__|__`.  |  |
+            ||-~~~~~-||  ||
+             |  \ /  |   ||
+             \  | |  /   ||
+      .--------`   '-------.
+     // \       / \  | |  /  \
+    ((_/|       | |  /./  |___\
+         \______\ /_/_/__/
+          THIS IS THE WAY
+            CODERS GUILD
+-------------------------------------------------------------------*/
+
+package com.slinkworks.query;
+
+/**
+ * A QueryRule is one rewrite that the QueryOptimizer applies to every group of a tree. A rule must
+ * not change what the query matches, and must leave the group alone once it has nothing left to
+ * do, or the optimizer would never settle.
+ *
+ * <pre>
+ *         QueryOptimizer optimizer = new QueryOptimizer().register(new QueryRule() {
+ *           public String name() {
+ *             return "NO_LABELS";
+ *           }
+ *
+ *           public boolean apply(TermGroup group, QueryOptimizer.Report report) {
+ *             ...
+ *           }
+ *         });
+ * </pre>
+ *
+ * @see QueryOptimizer.StandardRule
+ */
+public interface QueryRule {
+
+  /**
+   * @return the name the rule is registered and reported under
+   */
+  String name();
+
+  /**
+   * Rewrites the terms of the group and its direct sub groups, if the rule applies to them. The
+   * groups below have already been visited. Each change is added to the report.
+   *
+   * @param group  a group of the tree being optimized, never frozen
+   * @param report to add the changes to
+   * @return true if anything was changed
+   */
+  boolean apply(TermGroup group, QueryOptimizer.Report report);
+}
@@ -0,0 +1,217 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/*------------------------------------------------------------------
+    slinkworks.com
+
+               .---.    (__)
+             .'__|__`.  |  |
+            ||-~~~~~-||  ||
+             |  \ /  |   ||
+             \  | |  /   ||
+      .--------`   '-------.
+     // \       / \  | |  /  \
+    ((_/|       | |  /./  |___\
+         \______\ /_/_/__/
+          THIS IS THE WAY
+            CODERS GUILD
+-------------------------------------------------------------------*/
+
+package com.slinkworks.query;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * RenderedQueryCache remembers the strings rendered from TermGroups by their fingerprint, so that
+ * a request that builds the same tree as an earlier one gets the query string without rendering
+ * it. It holds at most maximumSize queries and at most maximumWeight characters of them. It can
+ * be shared by any number of threads.
+ * <p>
+ * Finding a query takes no lock, so threads that hit at once do not wait on each other. A hit
+ * only marks the query as used, and the order of the queries is only looked at when one has to
+ * be let go: the eldest query is let go unless it was used since it was last looked at, in which
+ * case it goes to the back of the line. The queries that keep being used stay, about as they
+ * would when the least recently used one goes first.
+ *
+ * <pre>
+ *         RenderedQueryCache cache = new RenderedQueryCache(10_000, 50_000_000L);
+ *
+ *         String query = cache.toString(group);
+ * </pre>
+ *
+ * @see TermGroup#fingerprint()
+ */
+public class RenderedQueryCache {
+
+  private final int maximumSize;
+  private final long maximumWeight;
+
+  // Read without the lock, only changed while holding it.
+  private final ConcurrentHashMap<Fingerprint, Entry> queries = new ConcurrentHashMap<>();
+
+  // The queries in the order they are let go, eldest first. Guarded by itself, as is weight.
+  private final ArrayDeque<Entry> order = new ArrayDeque<>();
+  private volatile long weight = 0;
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  /**
+   * A rendered query, and whether it was used since eviction last looked at it.
+   */
+  private static final class Entry {
+    private final Fingerprint key;
+    private final String text;
+    private volatile boolean used = false;
+
+    Entry(Fingerprint key, String text) {
+      this.key = key;
+      this.text = text;
+    }
+  }
+
+  /**
+   * @param maximumSize   the most queries to hold
+   * @param maximumWeight the most characters to hold, over all the queries. A query longer than
+   *                      this is rendered every time.
+   */
+  public RenderedQueryCache(int maximumSize, long maximumWeight) {
+    if (maximumSize < 0) {
+      throw new IllegalArgumentException("maximumSize can not be negative: " + maximumSize);
+    }
+    if (maximumWeight < 0) {
+      throw new IllegalArgumentException("maximumWeight can not be negative: " + maximumWeight);
+    }
+    this.maximumSize = maximumSize;
+    this.maximumWeight = maximumWeight;
+  }
+
+  /**
+   * @param group the query
+   * @return the same string as group.toString()
+   */
+  public String toString(TermGroup group) {
+    return prettyPrint(group, false, "", "", TermGroup.DEFAULT_SEPARATOR_STRING);
+  }
+
+  /**
+   * @param group              the query
+   * @param includeLabels      true to print labels as comments
+   * @param currentIndentation current level of indentation
+   * @param indentation        string to use as indentation. Usually a string of spaces or tabs
+   * @param separator          string to use as a separator
+   * @return the same string as group.prettyPrint with the same arguments
+   */
+  public String prettyPrint(TermGroup group, boolean includeLabels, String currentIndentation,
+      String indentation, String separator) {
+    Fingerprint key = group.fingerprint()
+        .withRenderOptions(includeLabels, currentIndentation, indentation, separator);
+    Entry entry = queries.get(key);
+    if (null != entry) {
+      // Only written when it changes, so that the threads hitting a popular query just read it
+      if (!entry.used) {
+        entry.used = true;
+      }
+      hits.increment();
+      return entry.text;
+    }
+
+    // Rendered outside of the lock. Threads that miss on the same query at once each render it.
+    misses.increment();
+    String text = group.prettyPrint(includeLabels, currentIndentation, indentation, separator);
+    if (text.length() <= maximumWeight) {
+      synchronized (order) {
+        if (!queries.containsKey(key)) {
+          Entry added = new Entry(key, text);
+          queries.put(key, added);
+          order.addLast(added);
+          weight += text.length();
+          evict();
+        }
+      }
+    }
+    return text;
+  }
+
+  /**
+   * Takes out the eldest queries that were not used since they were last looked at until the
+   * cache is back within its limits. Each query is looked at at most twice, as the first look
+   * clears its mark.
+   */
+  private void evict() {
+    while ((queries.size() > maximumSize) || (weight > maximumWeight)) {
+      Entry eldest = order.pollFirst();
+      if (eldest.used) {
+        eldest.used = false;
+        order.addLast(eldest);
+      } else {
+        queries.remove(eldest.key);
+        weight -= eldest.text.length();
+        evictions.increment();
+      }
+    }
+  }
+
+  /**
+   * Forgets every query. The counts are kept.
+   */
+  public void clear() {
+    synchronized (order) {
+      queries.clear();
+      order.clear();
+      weight = 0;
+    }
+  }
+
+  /**
+   * @return the number of queries held
+   */
+  public int size() {
+    return queries.size();
+  }
+
+  /**
+   * @return the number of characters held
+   */
+  public long weight() {
+    return weight;
+  }
+
+  /**
+   * @return the number of times a query was found
+   */
+  public long hitCount() {
+    return hits.sum();
+  }
+
+  /**
+   * @return the number of times a query had to be rendered
+   */
+  public long missCount() {
+    return misses.sum();
+  }
+
+  /**
+   * @return the number of queries taken out to make room
+   */
+  public long evictionCount() {
+    return evictions.sum();
+  }
+}
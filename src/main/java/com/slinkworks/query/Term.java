@@ -33,8 +33,11 @@
 
 package com.slinkworks.query;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
-import java.util.StringTokenizer;
 import org.apache.commons.lang3.StringUtils;
 
 /**
@@ -75,8 +78,49 @@ public class Term {
   private ConstantScore constantScore = null;
   private Proximity proximity = null;
   private Occur occur = Occur.SHOULD;
-  private boolean isRangeQuery = false;
-  private boolean isGroupingClauseQuery = false;
+
+  // What setValue made of the value, one of the kinds below, plus SPECIAL when it has any of the
+  // characters that mean something to the query parser.
+  private byte shape = BLANK;
+
+  static final byte BLANK = 0;
+  static final byte SINGLE = 1;
+  static final byte PHRASE = 2;
+  static final byte QUOTED = 3;
+  static final byte RANGE = 4;
+  static final byte GROUPING = 5;
+  static final byte KIND = 0x7;
+  static final byte SPECIAL = 0x8;
+
+  // What classify needs to know about each ASCII character. A space is 0, the other whitespace is
+  // just IN_TOKEN and everything else is VISIBLE as well, and SPECIAL when the Lucene query parser
+  // gives it a meaning.
+  private static final byte IN_TOKEN = 1;
+  private static final byte VISIBLE = 2;
+  private static final byte[] CHARACTERS = new byte[128];
+
+  static {
+    for (char c = 0; c < 128; c++) {
+      if (' ' != c) {
+        CHARACTERS[c] = Character.isWhitespace(c) ? IN_TOKEN : IN_TOKEN | VISIBLE;
+      }
+    }
+    for (char c : "\\+-!():^[]\"{}~*?|&/".toCharArray()) {
+      CHARACTERS[c] |= SPECIAL;
+    }
+  }
+
+  // The groups holding this term. A term is nearly always in exactly one group so the first
+  // group is kept in a field and the list is only created when the term is shared.
+  private TermGroup owner = null;
+  private List<TermGroup> additionalOwners = null;
+
+  // A frozen term is shared by the trees of PersistentTermGroup, or is in a frozen TermGroup, and
+  // can not be changed.
+  private volatile boolean frozen = false;
+
+  // hashCode, or 0 when it has to be worked out again.
+  private int hash = 0;
 
   /**
    * @param field Field Name
@@ -95,24 +139,81 @@ public class Term {
   }
 
   /**
-   * Copy Constructor
+   * Makes a term that matches the value as it is written. Any character that means something to
+   * the query parser is escaped, so a value typed in by a user can not turn into a range, a group
+   * or a wildcard. A value with several tokens is still quoted as a phrase.
+   *
+   * <pre>
+   *      Term.escaped("title", "what? (1999)").toString()
+   *
+   *      Output: title:"what\? \(1999\)"
+   * </pre>
+   *
+   * @param field Field Name, can be null or empty
+   * @param value Value of Field, can be null or empty
+   * @return a new Term
+   */
+  public static Term escaped(String field, String value) {
+    return new Term(field, escape(value));
+  }
+
+  /**
+   * Puts a backslash in front of each character that means something to the Lucene query parser,
+   * the same characters as its QueryParser.escape. Whitespace is left as it is.
+   *
+   * @param value Can be null or empty
+   * @return the escaped value, or value itself when nothing had to be escaped
+   */
+  public static String escape(String value) {
+    if (null == value) {
+      return null;
+    }
+    int length = value.length();
+    int i = 0;
+    while ((i < length) && !isSpecial(value.charAt(i))) {
+      i++;
+    }
+    if (i == length) {
+      return value;
+    }
+
+    StringBuilder sb = new StringBuilder(length + 8).append(value, 0, i);
+    for (; i < length; i++) {
+      char c = value.charAt(i);
+      if (isSpecial(c)) {
+        sb.append('\\');
+      }
+      sb.append(c);
+    }
+    return sb.toString();
+  }
+
+  /**
+   * @param c character to check
+   * @return true if the Lucene query parser gives the character a meaning
+   */
+  static boolean isSpecial(char c) {
+    return (c < 128) && (0 != (CHARACTERS[c] & SPECIAL));
+  }
+
+  /**
+   * Copy Constructor. The copy can be changed even if the source is frozen.
    *
    * @param source Another Query Term
    */
   public Term(Term source) {
     this.field = source.field;
     this.value = source.value;
-    this.isRangeQuery = source.isRangeQuery;
-    this.isGroupingClauseQuery = source.isGroupingClauseQuery;
+    this.shape = source.shape;
     this.occur = source.occur;
     if (null != source.boost) {
-      this.boost = new Boost(source.boost);
+      holdBoost(new Boost(source.boost));
     }
     if (null != source.constantScore) {
-      this.constantScore = new ConstantScore(source.constantScore);
+      holdConstantScore(new ConstantScore(source.constantScore));
     }
     if (null != source.proximity) {
-      this.proximity = new Proximity(source.proximity);
+      holdProximity(new Proximity(source.proximity));
     }
   }
 
@@ -127,7 +228,10 @@ public class Term {
    * @param field Can be null or empty
    */
   protected void setField(String field) {
+    checkNotFrozen();
+    boolean wasBlank = isBlank();
     this.field = field;
+    changed(wasBlank);
   }
 
   /**
@@ -144,41 +248,230 @@ public class Term {
    * @param value Can be null or empty
    */
   protected void setValue(String value) {
+    checkNotFrozen();
+    boolean wasBlank = isBlank();
+
+    int shape = classify(value);
+    switch (shape & KIND) {
+      case PHRASE:
+        // Suppose the clause is Pink Panther
+        // Then the clause should be wrapped to be "Pink Panther".
+        value = "\"" + value + "\"";
+        break;
+      case RANGE:
+        holdProximity(null);
+        break;
+      case GROUPING:
+        holdProximity(null);
+        holdBoost(null);
+        break;
+      default:
+        break;
+    }
+    this.shape = (byte) shape;
+    this.value = value;
+    changed(wasBlank);
+  }
+
+  /**
+   * Works out in one pass over the value what setValue should make of it. A value with more than
+   * one space separated token is a PHRASE unless it is already QUOTED, a RANGE or a GROUPING
+   * clause, which are told apart by the first character.
+   *
+   * @param value Can be null or empty
+   * @return BLANK, SINGLE, PHRASE, QUOTED, RANGE or GROUPING, plus SPECIAL
+   */
+  static int classify(String value) {
+    if (null == value) {
+      return BLANK;
+    }
+    int seen = 0;
+    int tokens = 0;
+    int previous = 0;
+    for (int i = 0, length = value.length(); i < length; i++) {
+      char c = value.charAt(i);
+      int type = (c < 128) ? CHARACTERS[c]
+          : (Character.isWhitespace(c) ? IN_TOKEN : (IN_TOKEN | VISIBLE));
+      // A token starts wherever a space is followed by anything else
+      tokens += (previous ^ type) & ~previous & IN_TOKEN;
+      previous = type;
+      seen |= type;
+    }
+    if (0 == (seen & VISIBLE)) {
+      return BLANK;
+    }
+
+    int kind;
+    switch (value.charAt(0)) {
+      case '[':
+      case '{':
+        kind = RANGE;
+        break;
+      case '(':
+        kind = GROUPING;
+        break;
+      case '"':
+        kind = QUOTED;
+        break;
+      default:
+        kind = (tokens > 1) ? PHRASE : SINGLE;
+        break;
+    }
+    return kind | (seen & SPECIAL);
+  }
 
-    if (StringUtils.isNotBlank(value)) {
-      isRangeQuery = value.startsWith("[") || value.startsWith("{");
-      isGroupingClauseQuery = value.startsWith("(");
-
-      // If the clause has more than one token and it is not a range query
-      // and doesn't have an opening parenthesis (Grouping Clause query)
-      // then it should be wrapped in double quotes.
-      // Suppose the clause is Pink Panther
-      // Then the clause should be wrapped to be "Pink Panther".
-      StringTokenizer tokenizer = new StringTokenizer(value, " ");
-      if ((tokenizer.countTokens() > 1)
-          && (!value.startsWith("\""))
-          && (!isRangeQuery)
-          && (!isGroupingClauseQuery)) {
-        value = "\"" + value + "\""; // Wrap in quotes
+  /**
+   * @return what setValue made of the value, see classify
+   */
+  int shape() {
+    return shape;
+  }
+
+  /**
+   * @return true if value and field are blank, else return false
+   */
+  public boolean isBlank() {
+    return (BLANK == shape) && StringUtils.isBlank(field);
+  }
+
+  /**
+   * Called by TermGroup when this term is added to one of its lists.
+   *
+   * @param group the group now holding this term
+   */
+  void attach(TermGroup group) {
+    if (frozen) {
+      // Never changes so there is nothing to report.
+      return;
+    }
+    if (null == owner) {
+      owner = group;
+    } else {
+      if (null == additionalOwners) {
+        additionalOwners = new ArrayList<>(1);
       }
+      additionalOwners.add(group);
+    }
+  }
 
-      if (isRangeQuery) {
-        this.proximity = null;
+  /**
+   * Called by TermGroup when this term is removed from one of its lists.
+   *
+   * @param group the group no longer holding this term
+   */
+  void detach(TermGroup group) {
+    if (frozen) {
+      return;
+    }
+    if (owner == group) {
+      owner = (null == additionalOwners || additionalOwners.isEmpty())
+          ? null : additionalOwners.remove(additionalOwners.size() - 1);
+    } else if (null != additionalOwners) {
+      for (int i = 0; i < additionalOwners.size(); i++) {
+        if (additionalOwners.get(i) == group) {
+          additionalOwners.remove(i);
+          break;
+        }
       }
+    }
+  }
+
+  /**
+   * @return true if the term can not be changed
+   */
+  public boolean isFrozen() {
+    return frozen;
+  }
 
-      if (isGroupingClauseQuery) {
-        this.proximity = null;
-        this.boost = null;
+  /**
+   * @return this if it is frozen, otherwise a frozen copy
+   */
+  Term frozen() {
+    if (frozen) {
+      return this;
+    }
+    Term copy = new Term(this);
+    copy.freeze();
+    return copy;
+  }
+
+  /**
+   * Freezes this term in place, see TermGroup.freeze. A Boost, ConstantScore or Proximity that
+   * could be changed in place is swapped for the immutable one of the same value.
+   */
+  void freeze() {
+    if (!frozen) {
+      if (null != boost) {
+        holdBoost(boost.immutable());
+      }
+      if (null != constantScore) {
+        holdConstantScore(constantScore.immutable());
       }
+      if (null != proximity) {
+        holdProximity(proximity.immutable());
+      }
+      frozen = true;
+    }
+  }
+
+  private void checkNotFrozen() {
+    if (frozen) {
+      throw new UnsupportedOperationException("A frozen Term can not be changed");
     }
-    this.value = value;
   }
 
   /**
-   * @return true if value and field are blank, else return false
+   * Called by the Boost, ConstantScore or Proximity of this term when it is changed in place.
    */
-  public boolean isBlank() {
-    return StringUtils.isBlank(value) && StringUtils.isBlank(field);
+  void valueChanged() {
+    changed(isBlank());
+  }
+
+  private void holdBoost(Boost boost) {
+    if (null != this.boost) {
+      this.boost.detach(this);
+    }
+    this.boost = boost;
+    if (null != boost) {
+      boost.attach(this);
+    }
+  }
+
+  private void holdConstantScore(ConstantScore constantScore) {
+    if (null != this.constantScore) {
+      this.constantScore.detach(this);
+    }
+    this.constantScore = constantScore;
+    if (null != constantScore) {
+      constantScore.attach(this);
+    }
+  }
+
+  private void holdProximity(Proximity proximity) {
+    if (null != this.proximity) {
+      this.proximity.detach(this);
+    }
+    this.proximity = proximity;
+    if (null != proximity) {
+      proximity.attach(this);
+    }
+  }
+
+  /**
+   * Lets the groups holding this term know that it changed.
+   *
+   * @param wasBlank isBlank before the change
+   */
+  private void changed(boolean wasBlank) {
+    hash = 0;
+    if (null != owner) {
+      owner.termChanged(wasBlank, isBlank());
+      if (null != additionalOwners) {
+        for (TermGroup group : additionalOwners) {
+          group.termChanged(wasBlank, isBlank());
+        }
+      }
+    }
   }
 
   /**
@@ -197,11 +490,13 @@ public class Term {
    * @param boost may be null, should be a valid Lucene boost value.
    */
   public void setBoost(Boost boost) {
-    if (!isGroupingClauseQuery) {
+    checkNotFrozen();
+    if (GROUPING != (shape & KIND)) {
       if (null != boost) {
-        this.constantScore = null;
+        holdConstantScore(null);
       }
-      this.boost = boost;
+      holdBoost(boost);
+      changed(isBlank());
     }
   }
 
@@ -230,10 +525,12 @@ public class Term {
    * @param constantScore may be null, should be a valid Lucene constant score.
    */
   public void setConstantScore(ConstantScore constantScore) {
+    checkNotFrozen();
     if (null != constantScore) {
-      this.boost = null;
+      holdBoost(null);
     }
-    this.constantScore = constantScore;
+    holdConstantScore(constantScore);
+    changed(isBlank());
   }
 
   /**
@@ -267,8 +564,11 @@ public class Term {
    * @param proximity maybe null, should be a valid Lucene value for proximity or fuzziness.
    */
   public void setProximity(Proximity proximity) {
-    if ((!isGroupingClauseQuery) && (!isRangeQuery)) {
-      this.proximity = proximity;
+    checkNotFrozen();
+    int kind = shape & KIND;
+    if ((GROUPING != kind) && (RANGE != kind)) {
+      holdProximity(proximity);
+      changed(isBlank());
     }
   }
 
@@ -297,7 +597,9 @@ public class Term {
    * @param occur SHOULD, MUST, MUST_NOT
    */
   public void setOccur(Occur occur) {
+    checkNotFrozen();
     this.occur = occur;
+    changed(isBlank());
   }
 
   /**
@@ -393,36 +695,212 @@ public class Term {
   }
 
   /**
-   * @return String representation of Query Term that is valid for as a Lucene query term, or is
-   * empty.
+   * @return true if the value is not blank and therefore the term renders something.
    */
-  @Override
-  public String toString() {
-    StringBuilder sb = new StringBuilder();
+  boolean isRenderable() {
+    return BLANK != shape;
+  }
+
+  /**
+   * @return the length of toString, worked out without rendering
+   */
+  public int estimateRenderedLength() {
+    if (!isRenderable()) {
+      return 0;
+    }
+    int length = occur.toString().length() + value.length() + suffixLength();
+    if (StringUtils.isNotBlank(field)) {
+      length += field.length() + 1;
+    }
+    return length;
+  }
+
+  /**
+   * @return the number of bytes toString encodes to in UTF-8, worked out without rendering
+   */
+  public long estimateRenderedBytes() {
+    if (!isRenderable()) {
+      return 0;
+    }
+    long bytes = occur.toString().length() + QueryEncoder.utf8Length(value) + suffixLength();
+    if (StringUtils.isNotBlank(field)) {
+      bytes += QueryEncoder.utf8Length(field) + 1;
+    }
+    return bytes;
+  }
+
+  /**
+   * Finds the run of terms, starting at start, that a field factored group writes as one clause.
+   * The terms of a run have the same field and occur and no boost or constant score, so that
+   * <code>title:a title:b</code> can be written <code>title:(a b)</code>,
+   * <code>+title:a +title:b</code> as <code>+title:(+a +b)</code> and
+   * <code>-title:a -title:b</code> as <code>-title:(a b)</code>. Blank terms in between are passed
+   * over.
+   *
+   * @param terms of a group
+   * @param start index of the first term
+   * @return the index after the last term of the run, start + 1 if the term at start is on its own
+   */
+  static int factoredEnd(List<Term> terms, int start) {
+    Term first = terms.get(start);
+    int end = start + 1;
+    if (!first.isFactorable()) {
+      return end;
+    }
+    for (int i = end, size = terms.size(); i < size; i++) {
+      Term term = terms.get(i);
+      if (term.isRenderable()) {
+        if ((term.occur != first.occur) || !term.isFactorable()
+            || !term.field.equals(first.field)) {
+          break;
+        }
+        end = i + 1;
+      }
+    }
+    return end;
+  }
+
+  /**
+   * Appends the terms from start to end, as factoredEnd found them, the way a field factored
+   * group writes them.
+   *
+   * @param out   buffer to append to
+   * @param terms of a group
+   * @param start index of the first term
+   * @param end   index after the last term
+   * @throws IOException if the buffer throws
+   */
+  static void appendFactored(Appendable out, List<Term> terms, int start, int end)
+      throws IOException {
+    Term first = terms.get(start);
+    if (end == start + 1) {
+      first.appendTo(out);
+      return;
+    }
+    out.append(first.occur.toString()).append(first.field).append(":(");
+    String inner = (Occur.MUST == first.occur) ? first.occur.toString() : "";
+    for (int i = start; i < end; i++) {
+      Term term = terms.get(i);
+      if (term.isRenderable()) {
+        if (i > start) {
+          out.append(' ');
+        }
+        out.append(inner).append(term.value);
+        if (null != term.proximity) {
+          out.append(term.proximity.toString());
+        }
+      }
+    }
+    out.append(')');
+  }
+
+  /**
+   * @param terms   of a group
+   * @param start   index of the first term
+   * @param end     index after the last term, as factoredEnd found it
+   * @param inBytes true to count UTF-8 bytes, false to count chars
+   * @return the length of what appendFactored writes
+   */
+  static long estimateFactored(List<Term> terms, int start, int end, boolean inBytes) {
+    Term first = terms.get(start);
+    if (end == start + 1) {
+      return inBytes ? first.estimateRenderedBytes() : first.estimateRenderedLength();
+    }
+    long inner = (Occur.MUST == first.occur) ? 1 : 0;
+    // occur field:( ) and a space between each value
+    long length = first.occur.toString().length() + 3 - 1
+        + (inBytes ? QueryEncoder.utf8Length(first.field) : first.field.length());
+    for (int i = start; i < end; i++) {
+      Term term = terms.get(i);
+      if (term.isRenderable()) {
+        length += 1 + inner + term.suffixLength()
+            + (inBytes ? QueryEncoder.utf8Length(term.value) : term.value.length());
+      }
+    }
+    return length;
+  }
+
+  /**
+   * @return true if the term can go in a run, see factoredEnd
+   */
+  private boolean isFactorable() {
+    if (!isRenderable() || StringUtils.isBlank(field) || (null != boost)
+        || (null != constantScore)) {
+      return false;
+    }
+    // Inside the ( ) these would be read as operators
+    char c = value.charAt(0);
+    return ('+' != c) && ('-' != c) && ('!' != c) && ('&' != c) && ('|' != c)
+        && !"AND".equals(value) && !"OR".equals(value) && !"NOT".equals(value);
+  }
+
+  /**
+   * @return the length of what goes after the value, the proximity and the boost or constant
+   * score, all of it ASCII
+   */
+  private int suffixLength() {
+    int length = (null == proximity) ? 0 : proximity.toString().length();
+    if (null != boost) {
+      length += boost.toString().length();
+    } else if (null != constantScore) {
+      length += constantScore.toString().length();
+    }
+    return length;
+  }
 
+  /**
+   * Appends the same text that toString returns to the given buffer.
+   *
+   * @param out buffer to append to
+   * @throws IOException if the buffer throws
+   */
+  public void appendTo(Appendable out) throws IOException {
     // There has to be a clause
     // If the field is blank then it is a query on the default field.
-    if (StringUtils.isNotBlank(value)) {
-      sb.append(occur.toString());
+    if (isRenderable()) {
+      out.append(occur.toString());
 
       if (StringUtils.isNotBlank(field)) {
-        sb.append(field).append(":");
+        out.append(field).append(':');
       }
 
-      sb.append(value);
+      out.append(value);
 
       if (null != proximity) {
-        sb.append(proximity);
+        out.append(proximity.toString());
       }
 
       if (null != boost) {
-        sb.append(boost);
+        boost.appendTo(out);
       } else if (null != constantScore) {
-        sb.append(constantScore);
+        constantScore.appendTo(out);
       }
     }
+  }
 
-    return sb.toString();
+  /**
+   * Appends the same text that toString returns to the given buffer.
+   *
+   * @param sb buffer to append to
+   * @return sb
+   */
+  public StringBuilder appendTo(StringBuilder sb) {
+    try {
+      appendTo((Appendable) sb);
+    } catch (IOException e) {
+      // StringBuilder does not throw IOException
+      throw new UncheckedIOException(e);
+    }
+    return sb;
+  }
+
+  /**
+   * @return String representation of Query Term that is valid for as a Lucene query term, or is
+   * empty.
+   */
+  @Override
+  public String toString() {
+    return appendTo(new StringBuilder()).toString();
   }
 
   /**
@@ -443,6 +921,10 @@ public class Term {
       return false;
     }
 
+    if (hashCode() != other.hashCode()) {
+      return false;
+    }
+
     return ((Objects.equals(field, other.field))
         && (Objects.equals(value, other.value))
         && (Objects.equals(boost, other.boost))
@@ -452,10 +934,38 @@ public class Term {
   }
 
   /**
-   * @return hash code
+   * Writes everything that decides how this term renders.
+   *
+   * @param hasher the fingerprint of the group holding this term
+   * @see TermGroup#fingerprint()
+   */
+  void fingerprint(Fingerprint.Hasher hasher) {
+    // The flags say which of the values that follow are there.
+    hasher.putString(field).putString(value).putLong(
+        ((null == boost) ? 0 : 1) | ((null == constantScore) ? 0 : 2)
+            | ((null == proximity) ? 0 : 4)
+            | ((long) ((null == occur) ? 0 : occur.ordinal() + 1) << 3)
+            | ((long) ((null == proximity) ? 0 : proximity.getValue()) << 32));
+    if ((null != boost) || (null != constantScore)) {
+      hasher.putLong(
+          ((long) ((null == boost) ? 0 : Float.floatToIntBits(boost.getValue())) << 32)
+              | (((null == constantScore) ? 0 : Float.floatToIntBits(constantScore.getValue()))
+              & 0xffffffffL));
+    }
+  }
+
+  /**
+   * @return hash code, cached until the term is changed
    */
   @Override
   public int hashCode() {
-    return Objects.hash(field, value, boost, constantScore, proximity, occur);
+    int h = hash;
+    if (0 == h) {
+      h = Objects.hash(field, value, boost, constantScore, proximity, occur);
+      // 0 means not cached
+      h = (0 == h) ? 1 : h;
+      hash = h;
+    }
+    return h;
   }
 }
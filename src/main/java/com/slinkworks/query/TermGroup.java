@@ -33,9 +33,15 @@
 
 package com.slinkworks.query;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.WeakReference;
+import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
 import org.apache.commons.lang3.StringUtils;
 
@@ -115,14 +121,70 @@ public class TermGroup {
   protected static final String NEW_LINE_SEPARATOR_STRING = "\n";
   protected static final String PRETTY_PRINT_DEFAULT = "\t";
 
-  protected final List<Term> terms = new ArrayList<>();
+  // The largest buffer prettyPrint sizes up front.
+  private static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+
+  // Number of recent renderings kept alive by the group they were rendered from, see pin.
+  private static final int PINNED_RENDERINGS = 4;
+
+  // Never changed. Copied by fork to make an empty group of the right class.
+  private static final TermGroup EMPTY = new TermGroup();
+
+  private final TermList termList = new TermList();
+  private final GroupList groupList = new GroupList();
+
+  protected final List<Term> terms = termList;
   protected String label = "";
-  protected final List<TermGroup> groups = new ArrayList<>();
+  protected final List<TermGroup> groups = groupList;
   protected TermGroup parentGroup = null;
   protected Occur occur = Occur.SHOULD;
   protected ConstantScore constantScore = null;
   protected Boost boost = null;
   protected boolean hasGroupingParenthesis = true;
+  protected boolean fieldFactored = false;
+
+  // Kept up to date by the term and group lists so that isEmpty does not walk the tree.
+  private int nonBlankTermCount = 0;
+  private int nonEmptyGroupCount = 0;
+
+  // Where to find the text of this group the last time it was rendered into a string. It is
+  // cleared, together with the render cache of every group above, by anything that changes the
+  // text. See render and invalidate.
+  private RenderCache renderCache = null;
+  private String[] pinnedRenderings = null;
+  private int nextPinnedRendering = 0;
+
+  // The length of the last string prettyPrint rendered from this group, whatever the arguments, to
+  // size the buffer for the next one. Not cleared by invalidate.
+  private int lastRenderedLength = 0;
+
+  // hashCode, or 0 when it has to be worked out again. Cleared by invalidate together with the
+  // hash of every group above, as the hash of a group is made from the hashes below it.
+  private int hash = 0;
+
+  // Like hash, null when it has to be worked out again. See fingerprint.
+  private Fingerprint fingerprint = null;
+
+  // Like hash, null when it has to be worked out again. See estimateRenderedLength.
+  private RenderedSize renderedSize = null;
+
+  // The groups in this group's tree by label, built by findByLabel. It is dropped, together with
+  // the index of every group above, by anything that moves a group or changes a label.
+  private volatile Map<String, List<TermGroup>> labelIndex = null;
+
+  // A frozen group can not be changed and can be forked, see freeze and fork. Set last by freeze,
+  // so a thread that sees it set sees the whole frozen tree.
+  private volatile boolean frozen = false;
+
+  // One bit, picked by hash, for every label below a frozen group. See materializeLabel.
+  private long descendantLabelBits = 0;
+
+  // Set on a group made by fork until it is materialized. The terms and groups lists stay empty
+  // and the template's are used in their place, see materialize.
+  private TermGroup template = null;
+
+  // True when this group or a group below it may still be waiting to be materialized.
+  private boolean hasOverlays = false;
 
   /**
    * Constructor
@@ -144,20 +206,21 @@ public class TermGroup {
       this.setLabel(other.label);
       this.setOccur(other.occur);
       this.setHasGroupingParenthesis(other.hasGroupingParenthesis);
+      this.setFieldFactored(other.fieldFactored);
 
       if (null != other.boost) {
-        this.setBoost(new Boost(other.boost.getValue()));
+        this.setBoost(new Boost(other.boost));
       }
 
       if (null != other.constantScore) {
-        this.setConstantScore(new ConstantScore(other.constantScore.getValue()));
+        this.setConstantScore(new ConstantScore(other.constantScore));
       }
 
-      for (Term term : other.terms) {
+      for (Term term : other.content().terms) {
         this.getTerms().add(new Term(term));
       }
 
-      for (TermGroup subgroup : other.groups) {
+      for (TermGroup subgroup : other.content().groups) {
         TermGroup copiedSubGroup = subgroup.replicate(subgroup);
         this.addGroup(copiedSubGroup);
       }
@@ -185,6 +248,10 @@ public class TermGroup {
    * @return List of groups
    */
   public List<TermGroup> getGroups() {
+    if (frozen) {
+      return Collections.unmodifiableList(groups);
+    }
+    materialize();
     return groups;
   }
 
@@ -192,6 +259,10 @@ public class TermGroup {
    * @return List of Query Terms
    */
   public List<Term> getTerms() {
+    if (frozen) {
+      return Collections.unmodifiableList(terms);
+    }
+    materialize();
     return terms;
   }
 
@@ -207,6 +278,7 @@ public class TermGroup {
    * @param parentGroup TermGroup that will contain this group as a child.
    */
   public void setParentGroup(TermGroup parentGroup) {
+    checkNotFrozen();
     this.parentGroup = parentGroup;
   }
 
@@ -245,8 +317,10 @@ public class TermGroup {
     // parenthesis
     // FieldA:"data" FieldB:"data" FieldC:"data"
     // and therefore there is no place to apply the occur value.
+    checkNotFrozen();
     if ((occur == Occur.SHOULD) || (this.hasGroupingParenthesis)) {
       this.occur = occur;
+      invalidate();
     }
   }
 
@@ -265,6 +339,8 @@ public class TermGroup {
    * @return newly created group
    */
   public TermGroup addGroup() {
+    checkNotFrozen();
+    materialize();
     TermGroup newGroup = new TermGroup();
     newGroup.setParentGroup(this);
     this.groups.add(newGroup);
@@ -278,14 +354,8 @@ public class TermGroup {
    * @return true if referential check finds the group
    */
   protected boolean groupsContains(TermGroup group) {
-    boolean found = false;
-    for (TermGroup termGroup : groups) {
-      if (termGroup == group) {
-        found = true;
-        break;
-      }
-    }
-    return found;
+    materialize();
+    return groupList.containsElement(group);
   }
 
   /**
@@ -293,10 +363,15 @@ public class TermGroup {
    * @return the input group.
    */
   public TermGroup addGroup(TermGroup groupToAdd) {
+    checkNotFrozen();
+    if (null != groupToAdd) {
+      // A frozen group has a frozen parent to be taken out of, fork it instead.
+      groupToAdd.checkNotFrozen();
+    }
     if ((null != groupToAdd) && (!this.groupsContains(groupToAdd))) {
 
       if (null != groupToAdd.parentGroup) {
-        groupToAdd.parentGroup.getGroups().removeIf(group -> group == groupToAdd);
+        groupToAdd.parentGroup.groupList.removeElement(groupToAdd);
       }
 
       groupToAdd.setParentGroup(this);
@@ -322,11 +397,14 @@ public class TermGroup {
    *                      this.
    */
   public void removeGroup(TermGroup groupToRemove, boolean splice) {
+    checkNotFrozen();
     if ((null != groupToRemove) && (groupToRemove.parentGroup == this)) {
-      this.groups.removeIf(group -> group == groupToRemove);
+      materialize();
+      this.groupList.removeElement(groupToRemove);
       groupToRemove.parentGroup = null;
 
       if (splice) {
+        groupToRemove.materialize();
         List<TermGroup> subGroups = new ArrayList<>(groupToRemove.groups);
         for (TermGroup subGroup : subGroups) {
           this.addGroup(subGroup);
@@ -347,20 +425,15 @@ public class TermGroup {
    * @return true if referential check finds the group
    */
   protected boolean termsContains(Term term) {
-    boolean found = false;
-    for (Term t : terms) {
-      if (t == term) {
-        found = true;
-        break;
-      }
-    }
-    return found;
+    materialize();
+    return termList.containsElement(term);
   }
 
   /**
    * @param term added to this terms.
    */
   public void addTerm(Term term) {
+    checkNotFrozen();
     if ((null != term) && (!termsContains(term))) {
       terms.add(term);
     }
@@ -370,8 +443,10 @@ public class TermGroup {
    * @param term to remove
    */
   public void removeTerm(Term term) {
+    checkNotFrozen();
     if (null != term) {
-      this.terms.removeIf(t -> t == term);
+      materialize();
+      this.termList.removeElement(term);
     }
   }
 
@@ -401,10 +476,12 @@ public class TermGroup {
    * @param value could be null. If not null it should be a valid Lucene constant score.
    */
   public void setConstantScore(ConstantScore value) {
-    this.constantScore = value;
+    checkNotFrozen();
+    holdConstantScore(value);
     if (null != boost) {
-      boost = null;
+      holdBoost(null);
     }
+    invalidate();
   }
 
   /**
@@ -456,10 +533,12 @@ public class TermGroup {
    * @param value may be null, if not null it should be a valid Lucene boost value.
    */
   public void setBoost(Boost value) {
-    this.boost = value;
+    checkNotFrozen();
+    holdBoost(value);
     if (null != constantScore) {
-      constantScore = null;
+      holdConstantScore(null);
     }
+    invalidate();
   }
 
   /**
@@ -499,6 +578,7 @@ public class TermGroup {
    * @param hasGroupingParenthesis true of false
    */
   public void setHasGroupingParenthesis(boolean hasGroupingParenthesis) {
+    checkNotFrozen();
     this.hasGroupingParenthesis = hasGroupingParenthesis;
     if (!hasGroupingParenthesis) {
       // If this doesn't have parenthesis then it holds query terms that are not wrapped by
@@ -507,47 +587,408 @@ public class TermGroup {
       // and therefore there is no place to apply the occur value.
       this.occur = Occur.SHOULD;
     }
+    invalidate();
+  }
+
+  /**
+   * @return true if runs of terms on the same field are rendered as one field:( ) clause
+   */
+  public boolean isFieldFactored() {
+    return fieldFactored;
+  }
+
+  /**
+   * If set to true the terms of this group that are next to each other and have the same field
+   * and occur, and no boost or constant score, are rendered as one clause.
+   *
+   * <pre>
+   *     ( title:a title:b +year:1999 +year:2000 -id:1 -id:2 )
+   *
+   *     Output: ( title:(a b) +year:(+1999 +2000) -id:(1 2) )
+   * </pre>
+   * <p>
+   * It matches the same as long as the query parser's default operator is OR. Only the terms of
+   * this group are factored, not those of its sub groups.
+   *
+   * @param fieldFactored true or false
+   */
+  public void setFieldFactored(boolean fieldFactored) {
+    checkNotFrozen();
+    this.fieldFactored = fieldFactored;
+    invalidate();
+  }
+
+  /**
+   * @param fieldFactored true or false
+   * @return this
+   */
+  public TermGroup withFieldFactored(boolean fieldFactored) {
+    this.setFieldFactored(fieldFactored);
+    return this;
   }
 
   /**
    * @return true or false
    */
   public boolean isEmpty() {
-    return termsAreEmpty() && groupsAreEmpty();
+    return (0 == nonBlankTermCount) && (0 == nonEmptyGroupCount);
   }
 
   /**
    * @return true or false
    */
   protected boolean termsAreEmpty() {
-    boolean isEmpty = terms.isEmpty();
+    return 0 == nonBlankTermCount;
+  }
+
+  /**
+   * @return true or false
+   */
+  protected boolean groupsAreEmpty() {
+    return 0 == nonEmptyGroupCount;
+  }
 
-    if (!isEmpty) {
+  /**
+   * Makes this group and everything below it read only. Setters, and changes through the lists
+   * returned by getTerms and getGroups, throw UnsupportedOperationException from then on, and the
+   * terms are frozen too. A Boost or ConstantScore that could be changed in place is swapped for the
+   * immutable one of the same value. The lists are trimmed to their size so that reading them never
+   * writes.
+   * <p>
+   * A frozen group can be read, rendered and forked by many threads at once without locking. The
+   * renderings they cache are immutable once published, so a thread either reuses a complete
+   * rendering or renders the group itself. The tree is safely published to any thread that reads
+   * isFrozen, or that gets hold of the group through the usual means such as a volatile or final
+   * field, after freeze returns.
+   *
+   * @return this
+   */
+  public TermGroup freeze() {
+    if (!frozen) {
+      materialize();
+      long bits = 0;
+      for (TermGroup group : groups) {
+        group.freeze();
+        bits |= labelBit(group.label) | group.descendantLabelBits;
+      }
       for (Term term : terms) {
-        isEmpty = term.isBlank();
-        if (!isEmpty) {
-          break;
+        if (null != term) {
+          term.freeze();
         }
       }
+      if (null != boost) {
+        holdBoost(boost.immutable());
+      }
+      if (null != constantScore) {
+        holdConstantScore(constantScore.immutable());
+      }
+      termList.trimToSize();
+      groupList.trimToSize();
+      descendantLabelBits = bits;
+      frozen = true;
     }
+    return this;
+  }
 
-    return isEmpty;
+  /**
+   * @return true if this group can not be changed
+   */
+  public boolean isFrozen() {
+    return frozen;
   }
 
   /**
-   * @return true or false
+   * Makes a copy of a frozen group that can be changed. The copy starts out as a light overlay on
+   * this group: the terms and sub groups of a group in the copy are only copied when that group,
+   * or something below it, is changed or handed out by getTerms, getGroups or findByLabel. Until
+   * then it renders from this group. A group that is not frozen is copied in full.
+   *
+   * @return a group that renders the same as a copy made with the copy constructor
    */
-  protected boolean groupsAreEmpty() {
-    boolean empty = groups.isEmpty();
-    if (!empty) {
-      for (TermGroup g : groups) {
-        empty = g.isEmpty();
-        if (!empty) {
-          break;
+  public TermGroup fork() {
+    if (!frozen) {
+      return replicate(this);
+    }
+
+    TermGroup fork = emptyCopy();
+    fork.nonBlankTermCount = nonBlankTermCount;
+    fork.nonEmptyGroupCount = nonEmptyGroupCount;
+    fork.template = this;
+    fork.hasOverlays = true;
+    // The text is the same, so is where to find it.
+    fork.renderCache = renderCache;
+    fork.hash = hash;
+    fork.fingerprint = fingerprint;
+    fork.renderedSize = renderedSize;
+    return fork;
+  }
+
+  /**
+   * @return a group of the same class with the label, occur, parenthesis, field factoring, boost
+   * and constant score of this group, but no terms or groups
+   */
+  TermGroup emptyCopy() {
+    TermGroup copy = replicate(EMPTY);
+    copy.label = label;
+    copy.occur = occur;
+    copy.hasGroupingParenthesis = hasGroupingParenthesis;
+    copy.fieldFactored = fieldFactored;
+    if (null != boost) {
+      copy.holdBoost(new Boost(boost));
+    }
+    if (null != constantScore) {
+      copy.holdConstantScore(new ConstantScore(constantScore));
+    }
+    return copy;
+  }
+
+  /**
+   * @return the group holding the terms and groups that this group renders
+   */
+  private TermGroup content() {
+    return (null == template) ? this : template;
+  }
+
+  /**
+   * @return the terms this group renders. Unlike getTerms this does not materialize a fork.
+   */
+  List<Term> contentTerms() {
+    return content().terms;
+  }
+
+  /**
+   * @return the sub groups this group renders. Unlike getGroups this does not materialize a fork.
+   */
+  List<TermGroup> contentGroups() {
+    return content().groups;
+  }
+
+  /**
+   * Copies the terms of the template and adds a fork of each of its groups, so this group can be
+   * changed and handed out its lists.
+   */
+  private void materialize() {
+    TermGroup source = template;
+    if (null == source) {
+      return;
+    }
+    template = null;
+
+    // fork copied the counts and the parent already counts this group, the lists are filled
+    // without telling the groups above. The text does not change.
+    TermGroup parent = parentGroup;
+    RenderCache cache = renderCache;
+    int cachedHash = hash;
+    Fingerprint cachedFingerprint = fingerprint;
+    RenderedSize cachedSize = renderedSize;
+    parentGroup = null;
+    nonBlankTermCount = 0;
+    nonEmptyGroupCount = 0;
+    for (Term term : source.terms) {
+      termList.add(new Term(term));
+    }
+    for (TermGroup group : source.groups) {
+      groupList.add(group.fork());
+    }
+    parentGroup = parent;
+    renderCache = cache;
+    hash = cachedHash;
+    fingerprint = cachedFingerprint;
+    renderedSize = cachedSize;
+    labelsChanged();
+  }
+
+  /**
+   * Materializes the groups above every group with the label so that findByLabel can find them.
+   */
+  private void materializeLabel(String label, long bit) {
+    if (null != template) {
+      if (0 == (template.descendantLabelBits & bit)) {
+        return;
+      }
+      materialize();
+    }
+    if (hasOverlays) {
+      for (TermGroup group : groups) {
+        group.materializeLabel(label, bit);
+      }
+    }
+  }
+
+  private static long labelBit(String label) {
+    return 1L << (Objects.hashCode(label) & 63);
+  }
+
+  private void checkNotFrozen() {
+    if (frozen) {
+      throw new UnsupportedOperationException("A frozen TermGroup can not be changed");
+    }
+  }
+
+  /**
+   * Called by a Term held by this group when it changes.
+   *
+   * @param wasBlank true if the term was blank before the change
+   * @param isBlank  true if the term is blank now
+   */
+  void termChanged(boolean wasBlank, boolean isBlank) {
+    if (wasBlank != isBlank) {
+      boolean wasEmpty = isEmpty();
+      nonBlankTermCount += wasBlank ? 1 : -1;
+      emptinessChanged(wasEmpty);
+    }
+    invalidate();
+  }
+
+  /**
+   * Walks up the parent groups adjusting their counts for as long as the emptiness of the group
+   * below actually changed.
+   *
+   * @param wasEmpty isEmpty before the counts of this group were changed
+   */
+  private void emptinessChanged(boolean wasEmpty) {
+    TermGroup group = this;
+    while (wasEmpty != group.isEmpty()) {
+      // An empty group does not render its sub groups, so the caches below a group that was
+      // empty can not be relied on by invalidate. Clear each group that flipped directly.
+      group.renderCache = null;
+      group.hash = 0;
+      group.fingerprint = null;
+      group.renderedSize = null;
+      TermGroup parent = group.parentGroup;
+      if (null == parent) {
+        return;
+      }
+      wasEmpty = parent.isEmpty();
+      parent.nonEmptyGroupCount += group.isEmpty() ? -1 : 1;
+      group = parent;
+    }
+    group.invalidate();
+  }
+
+  /**
+   * Called by the Boost or ConstantScore of this group when it is changed in place.
+   */
+  void valueChanged() {
+    invalidate();
+  }
+
+  private void holdBoost(Boost value) {
+    if (null != boost) {
+      boost.detach(this);
+    }
+    boost = value;
+    if (null != value) {
+      value.attach(this);
+    }
+  }
+
+  private void holdConstantScore(ConstantScore value) {
+    if (null != constantScore) {
+      constantScore.detach(this);
+    }
+    constantScore = value;
+    if (null != value) {
+      value.attach(this);
+    }
+  }
+
+  /**
+   * Forgets the cached rendering and hash code of this group and of every group above it. Every
+   * setter that changes what this group renders calls this.
+   * <p>
+   * A group is only cached when the group above it is rendered, and a hash code is only cached
+   * once the hash codes below it are, and the whole chain above a group is cleared with it, so the
+   * walk can stop at the first group that has nothing cached.
+   */
+  protected void invalidate() {
+    TermGroup group = this;
+    while ((null != group)
+        && ((null != group.renderCache) || (0 != group.hash) || (null != group.fingerprint)
+        || (null != group.renderedSize))) {
+      group.renderCache = null;
+      group.hash = 0;
+      group.fingerprint = null;
+      group.renderedSize = null;
+      group = group.parentGroup;
+    }
+  }
+
+  /**
+   * The list behind getTerms. Terms are told which groups hold them so that they can report
+   * changes back.
+   */
+  private final class TermList extends ClauseList<Term> {
+
+    @Override
+    protected void added(Term term) {
+      if (null != term) {
+        term.attach(TermGroup.this);
+        termChanged(true, term.isBlank());
+      }
+    }
+
+    @Override
+    protected void removed(Term term) {
+      if (null != term) {
+        term.detach(TermGroup.this);
+        termChanged(term.isBlank(), true);
+      }
+    }
+
+    @Override
+    protected void reordered() {
+      invalidate();
+    }
+  }
+
+  /**
+   * The list behind getGroups. A group in the list has this group as its parent.
+   */
+  private final class GroupList extends ClauseList<TermGroup> {
+
+    @Override
+    protected void added(TermGroup group) {
+      if (null != group) {
+        group.parentGroup = TermGroup.this;
+        if (group.hasOverlays) {
+          for (TermGroup above = TermGroup.this; (null != above) && (!above.hasOverlays);
+              above = above.parentGroup) {
+            above.hasOverlays = true;
+          }
+        }
+        if (!group.isEmpty()) {
+          boolean wasEmpty = TermGroup.this.isEmpty();
+          nonEmptyGroupCount++;
+          emptinessChanged(wasEmpty);
         }
       }
+      invalidate();
+      labelsChanged();
+    }
+
+    @Override
+    protected void removed(TermGroup group) {
+      if (null != group) {
+        // A group moved by set, as a sort or a swap does, is still in the list
+        if ((group.parentGroup == TermGroup.this) && !containsElement(group)) {
+          group.parentGroup = null;
+        }
+        if (!group.isEmpty()) {
+          boolean wasEmpty = TermGroup.this.isEmpty();
+          nonEmptyGroupCount--;
+          emptinessChanged(wasEmpty);
+        }
+      }
+      invalidate();
+      labelsChanged();
+    }
+
+    @Override
+    protected void reordered() {
+      invalidate();
+      labelsChanged();
     }
-    return empty;
   }
 
   /**
@@ -594,106 +1035,539 @@ public class TermGroup {
    */
   public String prettyPrint(final boolean includeLabels, String currentIndentation,
       final String indentation, final String separator) {
+    RenderCache cache = renderCache;
+    if ((null != cache) && cache.matches(includeLabels, currentIndentation, indentation,
+        separator)) {
+      String text = cache.rendering.get();
+      if (null != text) {
+        // The same string instance when this group was the one rendered last time.
+        return text.substring(cache.start, cache.end);
+      }
+    }
 
-    StringBuilder sb = new StringBuilder();
+    // Render into a buffer owned by this call so that every group rendered along the way can
+    // remember where its text is in the result. Working out the exact length takes about half as
+    // long as rendering, so it is only used when it is cached, otherwise the length of the last
+    // rendering with a little to spare is near enough.
+    long length = (null != renderedSize)
+        ? estimateRenderedLength(includeLabels, currentIndentation, indentation, separator)
+        : lastRenderedLength + (lastRenderedLength >> 4);
+    StringBuilder sb = new StringBuilder((int) Math.max(16, Math.min(length, MAX_CAPACITY)));
+    Rendering rendering = new Rendering();
+    try {
+      render(sb, "", includeLabels, currentIndentation, indentation, separator, rendering);
+    } catch (IOException e) {
+      // StringBuilder does not throw IOException
+      throw new UncheckedIOException(e);
+    }
+    String text = sb.toString();
+    rendering.complete(text);
+    pin(text);
+    lastRenderedLength = text.length();
+    return text;
+  }
 
-    if (!isEmpty()) {
-      String localIndentation = currentIndentation;
+  /**
+   * Appends the same text that prettyPrint returns to the given buffer. The whole tree is written
+   * into the buffer in a single pass without building intermediate strings for the sub groups.
+   *
+   * @param sb                 buffer to append to
+   * @param includeLabels      true to print labels as comments
+   * @param currentIndentation current level of indentation
+   * @param indentation        string to use as indentation. Usually a string of spaces or tabs
+   * @param separator          string to use as a separator
+   * @return sb
+   */
+  public StringBuilder prettyPrint(StringBuilder sb, final boolean includeLabels,
+      String currentIndentation, final String indentation, final String separator) {
+    try {
+      prettyPrint((Appendable) sb, includeLabels, currentIndentation, indentation, separator);
+    } catch (IOException e) {
+      // StringBuilder does not throw IOException
+      throw new UncheckedIOException(e);
+    }
+    return sb;
+  }
 
-      // ------------------------------------------------
-      // Labels
-      if (includeLabels && StringUtils.isNotBlank(this.label)) {
-        sb.append(localIndentation)
-            .append(TermGroup.OPEN_COMMENT_STRING)
-            .append(this.label)
-            .append(TermGroup.CLOSE_COMMENT_STRING)
-            .append(TermGroup.NEW_LINE_SEPARATOR_STRING);
-      }
+  /**
+   * Appends the same text that prettyPrint returns to the given buffer. The whole tree is written
+   * into the buffer in a single pass without building intermediate strings for the sub groups.
+   *
+   * @param out                buffer to append to
+   * @param includeLabels      true to print labels as comments
+   * @param currentIndentation current level of indentation
+   * @param indentation        string to use as indentation. Usually a string of spaces or tabs
+   * @param separator          string to use as a separator
+   * @throws IOException if the buffer throws
+   */
+  public void prettyPrint(Appendable out, final boolean includeLabels, String currentIndentation,
+      final String indentation, final String separator) throws IOException {
+    render(out, "", includeLabels, currentIndentation, indentation, separator);
+  }
 
-      // ------------------------------------------------
-      // Start the group (
-      if (hasGroupingParenthesis) {
-        // Indent for beginning of this group.
-        sb.append(currentIndentation);
+  /**
+   * Appends the same text that toString returns to the given buffer.
+   *
+   * @param out buffer to append to
+   * @throws IOException if the buffer throws
+   */
+  public void appendTo(Appendable out) throws IOException {
+    prettyPrint(out, false, "", "", TermGroup.DEFAULT_SEPARATOR_STRING);
+  }
+
+  /**
+   * @return the length of toString, see estimateRenderedLength(boolean, String, String, String)
+   */
+  public long estimateRenderedLength() {
+    return estimateRenderedLength(false, "", "", TermGroup.DEFAULT_SEPARATOR_STRING);
+  }
+
+  /**
+   * Works out the length of what prettyPrint returns without rendering it. The counts it is worked
+   * out from do not depend on the arguments and are cached like the hash code, so after a change
+   * only the groups from the change up are counted again, and otherwise it takes constant time.
+   * It can be used to size a buffer or to turn away a query that is too long before rendering it.
+   * <p>
+   * The length is exact as long as a subclass renders with render.
+   *
+   * @param includeLabels      true to print labels as comments
+   * @param currentIndentation current level of indentation
+   * @param indentation        string to use as indentation. Usually a string of spaces or tabs
+   * @param separator          string to use as a separator
+   * @return the number of chars prettyPrint returns
+   */
+  public long estimateRenderedLength(final boolean includeLabels, String currentIndentation,
+      final String indentation, final String separator) {
+    return renderedSize().total(includeLabels, false, String.valueOf(currentIndentation).length(),
+        String.valueOf(indentation).length(), String.valueOf(separator).length());
+  }
+
+  /**
+   * @return the number of bytes toString encodes to in UTF-8, see
+   * estimateRenderedBytes(boolean, String, String, String)
+   */
+  public long estimateRenderedBytes() {
+    return estimateRenderedBytes(false, "", "", TermGroup.DEFAULT_SEPARATOR_STRING);
+  }
+
+  /**
+   * Works out the number of bytes what prettyPrint returns encodes to in UTF-8, the same way and
+   * on the same terms as estimateRenderedLength. A QueryEncoder writes that many bytes when it is
+   * not form url encoded.
+   *
+   * @param includeLabels      true to print labels as comments
+   * @param currentIndentation current level of indentation
+   * @param indentation        string to use as indentation. Usually a string of spaces or tabs
+   * @param separator          string to use as a separator
+   * @return the number of UTF-8 bytes prettyPrint returns
+   */
+  public long estimateRenderedBytes(final boolean includeLabels, String currentIndentation,
+      final String indentation, final String separator) {
+    return renderedSize().total(includeLabels, true,
+        QueryEncoder.utf8Length(String.valueOf(currentIndentation)),
+        QueryEncoder.utf8Length(String.valueOf(indentation)),
+        QueryEncoder.utf8Length(String.valueOf(separator)));
+  }
+
+  private RenderedSize renderedSize() {
+    RenderedSize size = renderedSize;
+    if (null == size) {
+      size = isEmpty() ? RenderedSize.NOTHING : new RenderedSize(this);
+      renderedSize = size;
+    }
+    return size;
+  }
 
-        // ------------------------------------------------
-        // Add the occur rule
+  /**
+   * Writes this group into the buffer. Nothing is written, not even the leading string, if the
+   * group renders nothing.
+   *
+   * @param out                buffer to append to
+   * @param leading            written before the first thing this group writes. The parent uses
+   *                           it to place a separator between this group and what came before.
+   * @param includeLabels      true to print labels as comments
+   * @param currentIndentation current level of indentation
+   * @param indentation        string to use as indentation. Usually a string of spaces or tabs
+   * @param separator          string to use as a separator
+   * @return true if anything was written
+   * @throws IOException if the buffer throws
+   */
+  protected boolean render(Appendable out, String leading, final boolean includeLabels,
+      String currentIndentation, final String indentation, final String separator)
+      throws IOException {
+    return render(out, leading, includeLabels, currentIndentation, indentation, separator, null);
+  }
 
-        if (null != occur) {
-          sb.append(occur);
+  /**
+   * Writes this group into the buffer, reusing the text of the last rendering when nothing has
+   * changed since.
+   *
+   * @param capture the rendering being built when out is the StringBuilder behind a call to
+   *                prettyPrint that returns a String, null otherwise. Groups remember where their
+   *                text is in a rendering, they never remember text written to a caller's buffer.
+   * @see #render(Appendable, String, boolean, String, String, String)
+   */
+  private boolean render(Appendable out, String leading, final boolean includeLabels,
+      String currentIndentation, final String indentation, final String separator,
+      Rendering capture) throws IOException {
+
+    int mark = (null == capture) ? 0 : ((StringBuilder) out).length();
+
+    RenderCache cache = renderCache;
+    if ((null != cache) && cache.matches(includeLabels, currentIndentation, indentation,
+        separator)) {
+      String text = cache.rendering.get();
+      if (null != text) {
+        boolean written = cache.end > cache.start;
+        if (written) {
+          out.append(leading).append(text, cache.start, cache.end);
         }
+        if (null != capture) {
+          int start = written ? mark + leading.length() : mark;
+          renderCache = new RenderCache(includeLabels, currentIndentation, indentation, separator,
+              capture, start, start + (cache.end - cache.start));
+        }
+        return written;
+      }
+    }
 
-        // ------------------------------------------------
-        // Add the open brace
-        sb.append(this.openGroup());
+    boolean written = renderGroup(out, leading, includeLabels, currentIndentation, indentation,
+        separator, capture);
 
-        // ------------------------------------------------
-        // increase indentation to be nested inside of the open brace that was just added.
-        currentIndentation += indentation;
+    if (null != capture) {
+      int start = written ? mark + leading.length() : mark;
+      renderCache = new RenderCache(includeLabels, currentIndentation, indentation, separator,
+          capture, start, ((StringBuilder) out).length());
+    }
+    return written;
+  }
+
+  private boolean renderGroup(Appendable out, String leading, final boolean includeLabels,
+      String currentIndentation, final String indentation, final String separator,
+      Rendering capture) throws IOException {
+
+    // Stands in for "is there something in the string builder" now that the buffer is shared
+    // with the parent groups.
+    boolean written = false;
+
+    if (!isEmpty()) {
+      String inner = hasGroupingParenthesis ? currentIndentation + indentation : currentIndentation;
+      written = GroupRenderer.appendStart(out, leading, currentIndentation,
+          includeLabels ? this.label : null, occur, hasGroupingParenthesis ? openGroup() : null);
+
+      TermGroup content = content();
+      written = GroupRenderer.appendClauses(out, written, leading, inner, separator,
+          content.terms, fieldFactored, content.groups,
+          (subGroup, subLeading, subIndentation) -> subGroup.render(out, subLeading,
+              includeLabels, subIndentation, indentation, separator, capture));
+
+      if (hasGroupingParenthesis) {
+        GroupRenderer.appendEnd(out, separator, currentIndentation, closeGroup(), constantScore,
+            boost);
       }
+    }
 
-      // ------------------------------------------------
-      // Inside of group
-      if (!termsAreEmpty()) {
-        for (Term term : terms) {
-          String termString = term.toString();
-          if (StringUtils.isNotBlank(termString)) {
-            //If there is something in the string builder append a separator before appending
-            if (!sb.isEmpty()) {
-              sb.append(separator);
-            }
+    return written;
+  }
 
-            String query = currentIndentation + termString;
-            sb.append(query);
-          }
-        }
+  /**
+   * Keeps the most recent strings rendered from this group reachable. The groups below only hold
+   * on to them weakly, so a rendering goes away once the group it was rendered from lets go of it.
+   *
+   * @param text rendered string
+   */
+  private void pin(String text) {
+    if (null == pinnedRenderings) {
+      pinnedRenderings = new String[PINNED_RENDERINGS];
+    }
+    pinnedRenderings[nextPinnedRendering] = text;
+    nextPinnedRendering = (nextPinnedRendering + 1) % PINNED_RENDERINGS;
+  }
+
+  /**
+   * The string produced by one call to prettyPrint. It is shared by every group that was rendered
+   * into it.
+   */
+  private static final class Rendering {
+
+    // Volatile as another thread rendering a frozen tree may find it through a group.
+    private volatile WeakReference<String> text = null;
+
+    void complete(String text) {
+      this.text = new WeakReference<>(text);
+    }
+
+    String get() {
+      return (null == text) ? null : text.get();
+    }
+  }
+
+  /**
+   * What render writes for a group and everything below it, counted so that the length can be
+   * worked out for any arguments. Every piece, a label line, a ( a term or a ), is indented, and
+   * every piece but a label line and the ( that follows one starts with the leading string or
+   * the separator. Only the very first piece written gets the empty leading string of the top
+   * group, the rest get the separator.
+   */
+  private static final class RenderedSize {
+
+    static final RenderedSize NOTHING = new RenderedSize();
+
+    // The text of the pieces, in chars and in UTF-8 bytes.
+    final long chars;
+    final long bytes;
+    final long labelChars;
+    final long labelBytes;
+
+    // Pieces that start with the separator, or the leading string, not counting labels.
+    final long separated;
+    final long labels;
+    final long labeledOpens;
+
+    // All the pieces but the labels, and how deep they are nested in total.
+    final long pieces;
+    final long depth;
+    final long labelDepth;
+
+    private RenderedSize() {
+      chars = 0;
+      bytes = 0;
+      labelChars = 0;
+      labelBytes = 0;
+      separated = 0;
+      labels = 0;
+      labeledOpens = 0;
+      pieces = 0;
+      depth = 0;
+      labelDepth = 0;
+    }
+
+    RenderedSize(TermGroup group) {
+      TermGroup content = group.content();
+      long chars = 0;
+      long bytes = 0;
+      long labelChars = 0;
+      long labelBytes = 0;
+      long separated = 0;
+      long labels = 0;
+      long labeledOpens = 0;
+      long pieces = 0;
+      long depth = 0;
+      long labelDepth = 0;
+
+      boolean labeled = StringUtils.isNotBlank(group.label);
+      if (labeled) {
+        long text = TermGroup.OPEN_COMMENT_STRING.length()
+            + TermGroup.CLOSE_COMMENT_STRING.length()
+            + TermGroup.NEW_LINE_SEPARATOR_STRING.length();
+        labelChars = text + group.label.length();
+        labelBytes = text + QueryEncoder.utf8Length(group.label);
+        labels = 1;
       }
 
-      // ------------------------------------------------
-      // Recur into the sub groups
-      for (TermGroup subGroup : groups) {
-        String subGroupString = subGroup.prettyPrint(includeLabels, currentIndentation, indentation,
-            separator);
-        if (StringUtils.isNotBlank(subGroupString)) {
-          //If there is something in the string builder append a separator before appending
-          if (!sb.isEmpty()) {
-            sb.append(separator);
-          }
+      // Everything inside the ( ) is one deeper.
+      int inside = 0;
+      if (group.hasGroupingParenthesis) {
+        String open = group.openGroup();
+        String close = group.closeGroup();
+        String occurText = (null == group.occur) ? "" : group.occur.toString();
+        String score = (null != group.constantScore) ? group.constantScore.toString()
+            : ((null != group.boost) ? group.boost.toString() : "");
+        chars = occurText.length() + open.length() + close.length() + score.length();
+        bytes = occurText.length() + QueryEncoder.utf8Length(open)
+            + QueryEncoder.utf8Length(close) + score.length();
+        // Unless the ( comes straight after the label line
+        separated = 2;
+        labeledOpens = labeled ? 1 : 0;
+        pieces = 2;
+        inside = 1;
+      }
 
-          sb.append(subGroupString);
+      List<Term> terms = content.terms;
+      for (int i = 0, end; i < terms.size(); i = end) {
+        end = group.fieldFactored ? Term.factoredEnd(terms, i) : i + 1;
+        if (terms.get(i).isRenderable()) {
+          chars += Term.estimateFactored(terms, i, end, false);
+          bytes += Term.estimateFactored(terms, i, end, true);
+          separated++;
+          pieces++;
+          depth += inside;
         }
       }
 
-      // ------------------------------------------------
-      // End the group )
-      if (hasGroupingParenthesis) {
-        sb.append(separator)
-            .append(localIndentation)
-            .append(this.closeGroup());
+      for (TermGroup subGroup : content.groups) {
+        RenderedSize size = subGroup.renderedSize();
+        chars += size.chars;
+        bytes += size.bytes;
+        labelChars += size.labelChars;
+        labelBytes += size.labelBytes;
+        separated += size.separated;
+        labels += size.labels;
+        labeledOpens += size.labeledOpens;
+        pieces += size.pieces;
+        depth += size.depth + inside * size.pieces;
+        labelDepth += size.labelDepth + inside * size.labels;
+      }
 
-        // ------------------------------------------------
-        // Add the boost or constant score
-        if (null != constantScore) {
-          sb.append(constantScore);
+      this.chars = chars;
+      this.bytes = bytes;
+      this.labelChars = labelChars;
+      this.labelBytes = labelBytes;
+      this.separated = separated;
+      this.labels = labels;
+      this.labeledOpens = labeledOpens;
+      this.pieces = pieces;
+      this.depth = depth;
+      this.labelDepth = labelDepth;
+    }
 
-        } else if (null != boost) {
-          sb.append(boost);
-        }
+    /**
+     * @param includeLabels      true if labels are printed
+     * @param inBytes            true to count UTF-8 bytes, false to count chars
+     * @param currentIndentation length of the indentation of the top group
+     * @param indentation        length of one level of indentation
+     * @param separator          length of the separator
+     * @return the length of the rendering
+     */
+    long total(boolean includeLabels, boolean inBytes, long currentIndentation,
+        long indentation, long separator) {
+      long total = inBytes ? bytes : chars;
+      long separatedPieces = separated;
+      long indentedPieces = pieces;
+      long totalDepth = depth;
+      if (includeLabels) {
+        total += inBytes ? labelBytes : labelChars;
+        separatedPieces += labels - labeledOpens;
+        indentedPieces += labels;
+        totalDepth += labelDepth;
+      }
+      if (0 == indentedPieces) {
+        return 0;
       }
+      // The first piece gets the empty leading string
+      return total + (separatedPieces - 1) * separator + indentedPieces * currentIndentation
+          + totalDepth * indentation;
     }
+  }
 
-    return sb.toString();
+  /**
+   * Where the text of a group is in a rendering, and the arguments it was rendered with.
+   */
+  private static final class RenderCache {
+
+    final boolean includeLabels;
+    final String currentIndentation;
+    final String indentation;
+    final String separator;
+    final Rendering rendering;
+    final int start;
+    final int end;
+
+    RenderCache(boolean includeLabels, String currentIndentation, String indentation,
+        String separator, Rendering rendering, int start, int end) {
+      this.includeLabels = includeLabels;
+      this.currentIndentation = currentIndentation;
+      this.indentation = indentation;
+      this.separator = separator;
+      this.rendering = rendering;
+      this.start = start;
+      this.end = end;
+    }
+
+    boolean matches(boolean includeLabels, String currentIndentation, String indentation,
+        String separator) {
+      return (this.includeLabels == includeLabels)
+          && Objects.equals(this.currentIndentation, currentIndentation)
+          && Objects.equals(this.indentation, indentation)
+          && Objects.equals(this.separator, separator);
+    }
   }
 
   /**
    * @param f floating point number
    * @return formatted string
+   * @see #appendFloat(Appendable, float)
    */
   protected static String formatFloat(float f) {
-    String results = String.format((Locale) null, "%1.4f", f);
-    results = StringUtils.stripEnd(results, ".0");
+    StringBuilder sb = new StringBuilder();
+    try {
+      appendFloat(sb, f);
+    } catch (IOException e) {
+      // StringBuilder does not throw IOException
+      throw new UncheckedIOException(e);
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Appends the number rounded half up to 4 decimal places, leaving off the trailing zeros of the
+   * fraction and the decimal point when there is no fraction. For example 2.5, 10 or 0.0001.
+   * Nothing is allocated unless the number is 1e14 or more.
+   *
+   * @param out buffer to append to
+   * @param f   floating point number
+   * @throws IOException if the buffer throws
+   */
+  protected static void appendFloat(Appendable out, float f) throws IOException {
+    if (Float.isNaN(f) || Float.isInfinite(f)) {
+      out.append(Float.toString(f));
+      return;
+    }
+
+    double magnitude = Math.abs((double) f);
+    if (magnitude >= 1e14) {
+      // Too big to scale into a long. A float this big is a whole number.
+      out.append(new BigDecimal((double) f).toPlainString());
+      return;
+    }
+
+    // A float has 24 significant bits so multiplying by 10^4 is exact in a double.
+    double exact = magnitude * 10000;
+    long scaled = (long) exact;
+    if ((exact - scaled) >= 0.5) {
+      scaled++;
+    }
+
+    if (0 == scaled) {
+      out.append('0');
+      return;
+    }
+    if (f < 0) {
+      out.append('-');
+    }
+
+    appendDigits(out, scaled / 10000, 1);
+
+    int fraction = (int) (scaled % 10000);
+    if (0 != fraction) {
+      int digits = 4;
+      while (0 == (fraction % 10)) {
+        fraction /= 10;
+        digits--;
+      }
+      out.append('.');
+      appendDigits(out, fraction, digits);
+    }
+  }
 
-    return results;
+  /**
+   * @param out       buffer to append to
+   * @param value     number that is not negative
+   * @param minDigits pad with leading zeros to this many digits
+   * @throws IOException if the buffer throws
+   */
+  private static void appendDigits(Appendable out, long value, int minDigits)
+      throws IOException {
+    long divisor = 1;
+    int digits = 1;
+    while ((digits < minDigits) || ((value / divisor) >= 10)) {
+      divisor *= 10;
+      digits++;
+    }
+    while (divisor > 0) {
+      out.append((char) ('0' + ((value / divisor) % 10)));
+      divisor /= 10;
+    }
   }
 
   /**
@@ -725,7 +1599,10 @@ public class TermGroup {
    * @param label A label that helps identify the group.
    */
   public void setLabel(String label) {
+    checkNotFrozen();
     this.label = label;
+    invalidate();
+    labelsChanged();
   }
 
   /**
@@ -745,13 +1622,48 @@ public class TermGroup {
   }
 
   /**
+   * The groups are looked up in an index of the tree below this group that is built on the first
+   * call and kept until a group is added, removed or relabeled.
+   *
    * @param label to look for
-   * @return list of all groups that have that label
+   * @return list of all groups that have that label, a new list on every call
    */
   public List<TermGroup> findByLabel(String label) {
-    List<TermGroup> labeledGroups = new ArrayList<>();
-    findByLabel(label, labeledGroups);
-    return labeledGroups;
+    if (hasOverlays) {
+      materializeLabel(label, labelBit(label));
+    }
+
+    Map<String, List<TermGroup>> index = labelIndex;
+    if (null == index) {
+      index = new HashMap<>();
+      indexLabels(index);
+      labelIndex = index;
+    }
+
+    List<TermGroup> labeledGroups = index.get(label);
+    return (null == labeledGroups) ? new ArrayList<>() : new ArrayList<>(labeledGroups);
+  }
+
+  /**
+   * @param index label to the groups that have it, in the order findByLabel finds them
+   */
+  private void indexLabels(Map<String, List<TermGroup>> index) {
+    index.computeIfAbsent(this.label, key -> new ArrayList<>(1)).add(this);
+    // The groups below a group that is not materialized are not part of this tree yet.
+    for (TermGroup group : this.groups) {
+      group.indexLabels(index);
+    }
+  }
+
+  /**
+   * Drops the label index of this group and of every group above it.
+   */
+  private void labelsChanged() {
+    TermGroup group = this;
+    while (null != group) {
+      group.labelIndex = null;
+      group = group.parentGroup;
+    }
   }
 
   /**
@@ -759,6 +1671,7 @@ public class TermGroup {
    * @param foundGroups is a container to hold the groups that were found
    */
   protected void findByLabel(String label, List<TermGroup> foundGroups) {
+    materialize();
     if (hasLabel(label)) {
       foundGroups.add(this);
     }
@@ -779,10 +1692,18 @@ public class TermGroup {
    * @param wrapperGroup is the group that will now be the new parent of this group.
    */
   public void wrapWith(TermGroup wrapperGroup) {
+    checkNotFrozen();
     TermGroup theParentGroup = this.parentGroup;
     int myIndexLocation = -1;
     if (null != theParentGroup) {
-      myIndexLocation = theParentGroup.groups.indexOf(this);
+      // By identity, an equal sibling must not be taken for this group.
+      List<TermGroup> siblings = theParentGroup.groups;
+      for (int i = 0; i < siblings.size(); i++) {
+        if (siblings.get(i) == this) {
+          myIndexLocation = i;
+          break;
+        }
+      }
       theParentGroup.groups.removeIf(group -> group == this);
       this.parentGroup = null;
     }
@@ -813,33 +1734,98 @@ public class TermGroup {
       return false;
     }
 
+    // Both are cached, so trees that differ are usually told apart without walking them.
+    if (hashCode() != other.hashCode()) {
+      return false;
+    }
+
     //Do not include the parent group or it will cause infinite recursion.
     //They could have different parent groups but are still considered equal.
     return (
-        (Objects.equals(terms, other.terms)) &&
+        (Objects.equals(content().terms, other.content().terms)) &&
             (Objects.equals(label, other.label)) &&
-            (Objects.equals(groups, other.groups)) &&
+            (Objects.equals(content().groups, other.content().groups)) &&
             (Objects.equals(occur, other.occur)) &&
             (Objects.equals(constantScore, other.constantScore)) &&
             (Objects.equals(boost, other.boost)) &&
-            (hasGroupingParenthesis == other.hasGroupingParenthesis)
+            (hasGroupingParenthesis == other.hasGroupingParenthesis) &&
+            (fieldFactored == other.fieldFactored)
     );
 
   }
 
   /**
+   * A 128 bit hash of how this group renders, for keying caches of rendered queries such as
+   * RenderedQueryCache. Unlike equals it tells a TermFilterGroup from a TermGroup. It is made from
+   * the fingerprints of the sub groups and cached in the same way as the hash code, so after a
+   * change only the groups from the change up are worked out again.
+   * <p>
+   * A subclass that renders from state of its own should make sure that state is reflected in
+   * its class name, or override this method.
+   *
+   * @return the fingerprint of this group and everything below it
+   */
+  public Fingerprint fingerprint() {
+    Fingerprint f = fingerprint;
+    if (null == f) {
+      TermGroup content = content();
+      Fingerprint.Hasher hasher = new Fingerprint.Hasher()
+          .putString(getClass().getName())
+          .putString(label)
+          .putString((null == occur) ? null : occur.name())
+          .putBoolean(hasGroupingParenthesis)
+          .putBoolean(fieldFactored)
+          .putBoolean(null != boost)
+          .putBoolean(null != constantScore);
+      if (null != boost) {
+        hasher.putFloat(boost.getValue());
+      }
+      if (null != constantScore) {
+        hasher.putFloat(constantScore.getValue());
+      }
+      hasher.putLong(content.terms.size());
+      for (Term term : content.terms) {
+        hasher.putBoolean(null != term);
+        if (null != term) {
+          term.fingerprint(hasher);
+        }
+      }
+      hasher.putLong(content.groups.size());
+      for (TermGroup group : content.groups) {
+        hasher.putBoolean(null != group);
+        if (null != group) {
+          hasher.putFingerprint(group.fingerprint());
+        }
+      }
+      f = hasher.finish();
+      fingerprint = f;
+    }
+    return f;
+  }
+
+  /**
+   * The hash code is worked out from those of the terms and sub groups, which are cached, and is
+   * cached until something in the group or below it changes.
+   *
    * @return hash code
    */
   @Override
   public int hashCode() {
-
-    //Do not include the parent group or it will cause infinite recursion.
-    return Objects.hash(terms,
-        label,
-        groups,
-        occur,
-        constantScore,
-        boost,
-        hasGroupingParenthesis);
+    int h = hash;
+    if (0 == h) {
+      //Do not include the parent group or it will cause infinite recursion.
+      h = Objects.hash(content().terms,
+          label,
+          content().groups,
+          occur,
+          constantScore,
+          boost,
+          hasGroupingParenthesis,
+          fieldFactored);
+      // 0 means not cached
+      h = (0 == h) ? 1 : h;
+      hash = h;
+    }
+    return h;
   }
 }
@@ -0,0 +1,311 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/*------------------------------------------------------------------
+    slinkworks.com
+
+               .---.    (__)
+             .'__|__`.  |  |
+            ||-~~~~~-||  ||
+             |  \ /  |   ||
+             \  | |  /   ||
+      .--------`   '-------.
+     // \       / \  | |  /  \
+    ((_/|       | |  /./  |___\
+         \______\ /_/_/__/
+          THIS IS THE WAY
+            CODERS GUILD
+-------------------------------------------------------------------*/
+
+package com.slinkworks.query;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * TermGroupDiff works out what changed between two trees, such as a base query and the variant
+ * of it made for a request:
+ *
+ * <pre>
+ *         for (TermGroupDiff.Change change : TermGroupDiff.diff(base, variant)) {
+ *           log.debug(change.toString());
+ *         }
+ * </pre>
+ *
+ * <p>Sub groups with the same fingerprint are taken to be the same and are not looked into, so
+ * diffing a large tree against a copy with a few changes only visits the groups along the way to
+ * the changes. The fingerprints are cached, see TermGroup.fingerprint.
+ *
+ * <p>Sub groups are paired up between the two trees by fingerprint first, then by label, then by
+ * position. Terms are paired up by equality first, then by field. Whatever is left over was
+ * removed or added. Terms and groups that only moved within their group are not reported.
+ */
+public final class TermGroupDiff {
+
+  /**
+   * What changed.
+   */
+  public enum Kind {
+    TERM_ADDED,
+    TERM_REMOVED,
+    TERM_MODIFIED,
+    GROUP_ADDED,
+    GROUP_REMOVED,
+    LABEL_CHANGED,
+    OCCUR_CHANGED,
+    BOOST_CHANGED,
+    CONSTANT_SCORE_CHANGED,
+    GROUPING_PARENTHESIS_CHANGED,
+    FIELD_FACTORED_CHANGED
+  }
+
+  /**
+   * One difference between the trees.
+   */
+  public static final class Change {
+
+    private final Kind kind;
+    private final String path;
+    private final Object before;
+    private final Object after;
+
+    Change(Kind kind, String path, Object before, Object after) {
+      this.kind = kind;
+      this.path = path;
+      this.before = before;
+      this.after = after;
+    }
+
+    /**
+     * @return what changed
+     */
+    public Kind getKind() {
+      return kind;
+    }
+
+    /**
+     * @return where the group that changed, or that holds what changed, is. The positions of the
+     *     sub groups from the root down in the second tree, or in the first tree for a group
+     *     that was removed. "/" is the root, "/2/0" the first sub group of the third sub group.
+     */
+    public String getPath() {
+      return path;
+    }
+
+    /**
+     * @return the Term, TermGroup or value in the first tree, null when something was added
+     */
+    public Object getBefore() {
+      return before;
+    }
+
+    /**
+     * @return the Term, TermGroup or value in the second tree, null when something was removed
+     */
+    public Object getAfter() {
+      return after;
+    }
+
+    @Override
+    public String toString() {
+      return kind + " " + path + " " + before + " -> " + after;
+    }
+  }
+
+  private final List<Change> changes = new ArrayList<>();
+
+  private TermGroupDiff() {
+  }
+
+  /**
+   * @param before the first tree, for example a base query
+   * @param after  the second tree, for example a variant of the base query
+   * @return the changes that turn the first tree into the second, parents before children
+   */
+  public static List<Change> diff(TermGroup before, TermGroup after) {
+    TermGroupDiff diff = new TermGroupDiff();
+    if (sameKind(before, after)) {
+      diff.compare(before, after, "/");
+    } else {
+      diff.changes.add(new Change(Kind.GROUP_REMOVED, "/", before, null));
+      diff.changes.add(new Change(Kind.GROUP_ADDED, "/", null, after));
+    }
+    return diff.changes;
+  }
+
+  /**
+   * @return true if the groups can be paired up
+   */
+  private static boolean sameKind(TermGroup before, TermGroup after) {
+    return (null != before) && (null != after) && (before.getClass() == after.getClass());
+  }
+
+  private void compare(TermGroup before, TermGroup after, String path) {
+    if ((before == after) || before.fingerprint().equals(after.fingerprint())) {
+      return;
+    }
+
+    change(Kind.LABEL_CHANGED, path, before.getLabel(), after.getLabel());
+    change(Kind.OCCUR_CHANGED, path, before.getOccur(), after.getOccur());
+    change(Kind.BOOST_CHANGED, path, before.getBoost(), after.getBoost());
+    change(Kind.CONSTANT_SCORE_CHANGED, path, before.getConstantScore(),
+        after.getConstantScore());
+    change(Kind.GROUPING_PARENTHESIS_CHANGED, path, before.getHasGroupingParenthesis(),
+        after.getHasGroupingParenthesis());
+    change(Kind.FIELD_FACTORED_CHANGED, path, before.isFieldFactored(), after.isFieldFactored());
+
+    compareTerms(before.contentTerms(), after.contentTerms(), path);
+    compareGroups(before.contentGroups(), after.contentGroups(), path);
+  }
+
+  private void change(Kind kind, String path, Object before, Object after) {
+    if (!Objects.equals(before, after)) {
+      changes.add(new Change(kind, path, before, after));
+    }
+  }
+
+  private void compareTerms(List<Term> before, List<Term> after, String path) {
+    // Equal terms in the same order pair up with each other
+    Map<Term, ArrayDeque<Integer>> unmatched = new HashMap<>();
+    for (int i = 0; i < before.size(); i++) {
+      unmatched.computeIfAbsent(before.get(i), k -> new ArrayDeque<>()).add(i);
+    }
+    boolean[] beforeMatched = new boolean[before.size()];
+    List<Term> added = new ArrayList<>();
+    for (Term term : after) {
+      ArrayDeque<Integer> positions = unmatched.get(term);
+      if ((null != positions) && !positions.isEmpty()) {
+        beforeMatched[positions.poll()] = true;
+      } else {
+        added.add(term);
+      }
+    }
+
+    // Then terms on the same field
+    Map<String, ArrayDeque<Term>> removedByField = new HashMap<>();
+    List<Term> removed = new ArrayList<>();
+    for (int i = 0; i < before.size(); i++) {
+      if (!beforeMatched[i]) {
+        Term term = before.get(i);
+        removed.add(term);
+        if (null != term) {
+          removedByField.computeIfAbsent(term.getField(), k -> new ArrayDeque<>()).add(term);
+        }
+      }
+    }
+    Set<Term> modified = Collections.newSetFromMap(new IdentityHashMap<>());
+    for (Term term : added) {
+      ArrayDeque<Term> sameField = (null == term) ? null : removedByField.get(term.getField());
+      Term old = (null == sameField) ? null : sameField.poll();
+      if (null != old) {
+        modified.add(old);
+        changes.add(new Change(Kind.TERM_MODIFIED, path, old, term));
+      } else {
+        changes.add(new Change(Kind.TERM_ADDED, path, null, term));
+      }
+    }
+    for (Term term : removed) {
+      if (modified.contains(term)) {
+        continue;
+      }
+      changes.add(new Change(Kind.TERM_REMOVED, path, term, null));
+    }
+  }
+
+  private void compareGroups(List<TermGroup> before, List<TermGroup> after, String path) {
+    int[] pairs = new int[after.size()];
+    Arrays.fill(pairs, -1);
+    boolean[] beforeMatched = new boolean[before.size()];
+
+    // Same fingerprint, nothing to look into
+    Map<Fingerprint, ArrayDeque<Integer>> byFingerprint = new HashMap<>();
+    for (int i = 0; i < before.size(); i++) {
+      if (null != before.get(i)) {
+        byFingerprint.computeIfAbsent(before.get(i).fingerprint(), k -> new ArrayDeque<>())
+            .add(i);
+      }
+    }
+    for (int j = 0; j < after.size(); j++) {
+      ArrayDeque<Integer> positions = (null == after.get(j)) ? null
+          : byFingerprint.get(after.get(j).fingerprint());
+      if ((null != positions) && !positions.isEmpty()) {
+        int i = positions.poll();
+        pairs[j] = i;
+        beforeMatched[i] = true;
+      }
+    }
+
+    // Then the same label, then whatever is left in order
+    Map<String, ArrayDeque<Integer>> byLabel = new HashMap<>();
+    List<Integer> leftOver = new ArrayList<>();
+    for (int i = 0; i < before.size(); i++) {
+      if (!beforeMatched[i] && (null != before.get(i))) {
+        byLabel.computeIfAbsent(before.get(i).getLabel(), k -> new ArrayDeque<>()).add(i);
+      }
+    }
+    for (int j = 0; j < after.size(); j++) {
+      if ((pairs[j] < 0) && (null != after.get(j))) {
+        ArrayDeque<Integer> positions = byLabel.get(after.get(j).getLabel());
+        Integer i = (null == positions) ? null : positions.peek();
+        if ((null != i) && sameKind(before.get(i), after.get(j))) {
+          positions.poll();
+          pairs[j] = i;
+          beforeMatched[i] = true;
+        }
+      }
+    }
+    for (int i = 0; i < before.size(); i++) {
+      if (!beforeMatched[i]) {
+        leftOver.add(i);
+      }
+    }
+    Collections.reverse(leftOver);
+    for (int j = 0; j < after.size(); j++) {
+      if ((pairs[j] < 0) && !leftOver.isEmpty()
+          && sameKind(before.get(leftOver.get(leftOver.size() - 1)), after.get(j))) {
+        int i = leftOver.remove(leftOver.size() - 1);
+        pairs[j] = i;
+        beforeMatched[i] = true;
+      }
+    }
+
+    for (int i = 0; i < before.size(); i++) {
+      if (!beforeMatched[i]) {
+        changes.add(new Change(Kind.GROUP_REMOVED, child(path, i), before.get(i), null));
+      }
+    }
+    for (int j = 0; j < after.size(); j++) {
+      if (pairs[j] < 0) {
+        changes.add(new Change(Kind.GROUP_ADDED, child(path, j), null, after.get(j)));
+      } else {
+        compare(before.get(pairs[j]), after.get(j), child(path, j));
+      }
+    }
+  }
+
+  private static String child(String path, int index) {
+    return ("/".equals(path) ? "" : path) + "/" + index;
+  }
+}
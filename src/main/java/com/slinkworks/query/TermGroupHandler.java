@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/*------------------------------------------------------------------
+    slinkworks.com
+
+               .---.    (__)
+             .'__|__`.  |  |
+            ||-~~~~~-||  ||
+             |  \ /  |   ||
+             \  | |  /   ||
+      .--------`   '-------.
+     // \       / \  | |  /  \
+    ((_/|       | |  /./  |___\
+         \______\ /_/_/__/
+          THIS IS THE WAY
+            CODERS GUILD
+-------------------------------------------------------------------*/
+
+package com.slinkworks.query;
+
+/**
+ * TermGroupHandler receives what TermGroupParser reads, clause by clause, without a tree being
+ * built. Every method does nothing unless overridden.
+ *
+ * <p>Counting the terms of a large stored filter:
+ *
+ * <pre>
+ *         long[] count = new long[1];
+ *         TermGroupParser.parse(reader, new TermGroupHandler() {
+ *           &#64;Override
+ *           public void term(String field, String value, Occur occur, Proximity proximity,
+ *               Boost boost, ConstantScore constantScore) {
+ *             count[0]++;
+ *           }
+ *         });
+ * </pre>
+ */
+public interface TermGroupHandler {
+
+  /**
+   * A comment, which is the label of the clause after it.
+   *
+   * @param label the text of the comment, trimmed
+   */
+  default void label(String label) {
+  }
+
+  /**
+   * An opening parenthesis. Everything up to the matching endGroup is inside the group.
+   *
+   * @param occur  SHOULD, MUST, MUST_NOT
+   * @param filter true for filter( rather than (
+   */
+  default void startGroup(Occur occur, boolean filter) {
+  }
+
+  /**
+   * A closing parenthesis.
+   *
+   * @param boost         the boost after the parenthesis, or null
+   * @param constantScore the constant score after the parenthesis, or null
+   */
+  default void endGroup(Boost boost, ConstantScore constantScore) {
+  }
+
+  /**
+   * A term, with the same arguments that make a Term that renders the same.
+   *
+   * @param field         the field, or null for the default field
+   * @param value         the value as written, with its quotes, brackets or parenthesis
+   * @param occur         SHOULD, MUST, MUST_NOT
+   * @param proximity     the proximity, or null
+   * @param boost         the boost, or null
+   * @param constantScore the constant score, or null
+   */
+  default void term(String field, String value, Occur occur, Proximity proximity, Boost boost,
+      ConstantScore constantScore) {
+  }
+
+  /**
+   * AND or &amp;&amp; between the clause before and the clause after, which both have to match.
+   */
+  default void and() {
+  }
+}
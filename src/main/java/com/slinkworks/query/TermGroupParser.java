@@ -0,0 +1,715 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/*------------------------------------------------------------------
+    slinkworks.com
+
+               .---.    (__)
+             .'__|__`.  |  |
+            ||-~~~~~-||  ||
+             |  \ /  |   ||
+             \  | |  /   ||
+      .--------`   '-------.
+     // \       / \  | |  /  \
+    ((_/|       | |  /./  |___\
+         \______\ /_/_/__/
+          THIS IS THE WAY
+            CODERS GUILD
+-------------------------------------------------------------------*/
+
+package com.slinkworks.query;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+/**
+ * TermGroupParser turns a Solr standard query string back into Terms and TermGroups, so that a
+ * stored query can be changed through the object model instead of with string manipulation.
+ *
+ * <pre>
+ *         TermGroup group = TermGroupParser.parse("+( title:\"pink panther\"~1 year:1964^2 )");
+ *         group.getTerms().get(1).setBoost(3.0f);
+ * </pre>
+ *
+ * <p>It reads what toString and prettyPrint write, so parsing a rendered group gives a group that
+ * renders the same. It also reads:
+ * <ul>
+ *   <li>the + and - prefixes, and NOT, AND, OR, !, &amp;&amp; and ||. NOT and ! make the next
+ *   clause MUST_NOT, AND and &amp;&amp; make the clauses either side of them MUST, and OR and ||
+ *   are the default</li>
+ *   <li>fields, phrases, ranges and field:(a b) values, which become Terms</li>
+ *   <li>~N, ^x and ^=x after a term or a group. A field:(a b) value with ^x or ^=x comes back as
+ *   a group holding it, since a Term can not boost it, and the fuzzy a~ and a~0.8, which a
+ *   Proximity can not hold, stay part of the value</li>
+ *   <li>( ) groups and filter( ) groups, which become TermGroups and TermFilterGroups</li>
+ *   <li>comments, which become the label of the group after them. A comment in front of a term
+ *   starts a group without parenthesis that holds the clauses up to the next comment</li>
+ * </ul>
+ *
+ * <p>A group renders its terms before its sub groups, so a group that has them mixed comes back
+ * with the terms first. A query that is not a single group comes back as a group without
+ * grouping parenthesis.
+ *
+ * <p>A query too large to hold as a tree can be read from a Reader or CharBuffer and handed to a
+ * TermGroupHandler clause by clause instead. The input is read once, from left to right, in
+ * chunks, and only the clause being read is kept in memory.
+ */
+public final class TermGroupParser {
+
+  private static final int CHUNK = 8192;
+  private static final String FILTER = "filter(";
+
+  private final TermGroupHandler handler;
+
+  // Where more input comes from when buffer runs out, both null when buffer holds all of it.
+  private final Reader reader;
+  private final CharBuffer source;
+
+  private char[] buffer;
+  private int pos;
+  private int limit;
+  private boolean eof;
+
+  // The first char that has to stay in buffer, the start of the text being read.
+  private int mark;
+
+  // The number of chars before buffer[0], for the position in error messages.
+  private long consumed;
+
+  private TermGroupParser(TermGroupHandler handler, Reader reader, CharBuffer source,
+      char[] buffer, int pos, int limit) {
+    this.handler = handler;
+    this.reader = reader;
+    this.source = source;
+    this.buffer = buffer;
+    this.pos = pos;
+    this.limit = limit;
+    this.mark = pos;
+    this.eof = (null == reader) && (null == source);
+    this.consumed = -pos;
+  }
+
+  /**
+   * @param query a Solr standard query
+   * @return the query as a TermGroup
+   * @throws IllegalArgumentException if the query can not be parsed
+   */
+  public static TermGroup parse(CharSequence query) {
+    char[] chars = query.toString().toCharArray();
+    TreeBuilder builder = new TreeBuilder();
+    try {
+      new TermGroupParser(builder, null, null, chars, 0, chars.length).parse();
+    } catch (IOException e) {
+      // Never read from a Reader
+      throw new UncheckedIOException(e);
+    }
+    return builder.result();
+  }
+
+  /**
+   * Reads the query and hands each clause to the handler as it goes.
+   *
+   * @param reader  a Solr standard query, read to the end
+   * @param handler receives the clauses
+   * @throws IOException              if the reader throws
+   * @throws IllegalArgumentException if the query can not be parsed
+   */
+  public static void parse(Reader reader, TermGroupHandler handler) throws IOException {
+    new TermGroupParser(handler, reader, null, new char[CHUNK], 0, 0).parse();
+  }
+
+  /**
+   * Reads the query and hands each clause to the handler as it goes.
+   *
+   * @param query   a Solr standard query, from its position to its limit. The position is moved
+   *                to the limit.
+   * @param handler receives the clauses
+   * @throws IllegalArgumentException if the query can not be parsed
+   */
+  public static void parse(CharBuffer query, TermGroupHandler handler) {
+    TermGroupParser parser;
+    if (query.hasArray()) {
+      // Read in place
+      int offset = query.arrayOffset();
+      parser = new TermGroupParser(handler, null, null, query.array(),
+          offset + query.position(), offset + query.limit());
+      query.position(query.limit());
+    } else {
+      parser = new TermGroupParser(handler, null, query, new char[CHUNK], 0, 0);
+    }
+    try {
+      parser.parse();
+    } catch (IOException e) {
+      // CharBuffer does not throw IOException
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private void parse() throws IOException {
+    int depth = 0;
+    Occur pending = null;
+
+    while (true) {
+      skipWhitespace();
+      int c = peek(0);
+      if (c < 0) {
+        if (depth > 0) {
+          throw error("Missing )");
+        }
+        return;
+      }
+
+      if (')' == c) {
+        if (0 == depth) {
+          throw error("Unexpected )");
+        }
+        pos++;
+        depth--;
+        readGroupModifiers();
+        pending = null;
+        continue;
+      }
+
+      if (('/' == c) && ('*' == peek(1))) {
+        handler.label(readComment());
+        continue;
+      }
+
+      // Operators, only looked for when the first char fits
+      if ((('A' == c) && isWord("AND")) || (('&' == c) && isWord("&&"))) {
+        pos += ('A' == c) ? 3 : 2;
+        handler.and();
+        continue;
+      }
+      if ((('O' == c) && isWord("OR")) || (('|' == c) && isWord("||"))) {
+        pos += 2;
+        continue;
+      }
+      if (('N' == c) && isWord("NOT")) {
+        pos += 3;
+        pending = Occur.MUST_NOT;
+        continue;
+      }
+
+      Occur occur = (null == pending) ? Occur.SHOULD : pending;
+      pending = null;
+      if (('+' == c) || ('-' == c) || ('!' == c)) {
+        occur = ('+' == c) ? Occur.MUST : Occur.MUST_NOT;
+        pos++;
+        int next = peek(0);
+        if ((next < 0) || isWhitespace(next)) {
+          throw error("Expected a clause after " + (char) c);
+        }
+        c = next;
+      }
+
+      if ('(' == c) {
+        pos++;
+        depth++;
+        handler.startGroup(occur, false);
+      } else if (('f' == c) && startsWith(FILTER)) {
+        pos += FILTER.length();
+        depth++;
+        handler.startGroup(occur, true);
+      } else {
+        readTerm(occur);
+      }
+    }
+  }
+
+  private void readTerm(Occur occur) throws IOException {
+    mark = pos;
+    String field = null;
+    skipBare(true);
+    if (':' == peek(0)) {
+      if (pos == mark) {
+        throw error("Expected a field before :");
+      }
+      field = new String(buffer, mark, pos - mark);
+      pos++;
+      mark = pos;
+    } else {
+      // Not a field, read it again as a value
+      pos = mark;
+    }
+
+    int c = peek(0);
+    if ('"' == c) {
+      pos++;
+      skipQuoted();
+    } else if (('[' == c) || ('{' == c)) {
+      pos++;
+      skipRange();
+    } else if (('(' == c) && (null != field)) {
+      pos++;
+      skipParenthesis();
+    } else {
+      skipBare(false);
+    }
+    if (pos == mark) {
+      throw error("Expected a value");
+    }
+    String value = new String(buffer, mark, pos - mark);
+
+    Proximity proximity = null;
+    Boost boost = null;
+    ConstantScore constantScore = null;
+    while (true) {
+      c = peek(0);
+      if ('~' == c) {
+        mark = pos;
+        pos++;
+        int digits = 0;
+        int n = 0;
+        for (int d = peek(0); (d >= '0') && (d <= '9'); d = peek(0)) {
+          n = (n * 10) + (d - '0');
+          pos++;
+          digits++;
+        }
+        if ((0 == digits) || ('.' == peek(0))) {
+          // A fuzzy term with the default edits, a~, or a minimum similarity, a~0.8, which a
+          // Proximity can not hold, so they stay part of the value
+          if ('.' == peek(0)) {
+            pos++;
+            for (int d = peek(0); (d >= '0') && (d <= '9'); d = peek(0)) {
+              pos++;
+            }
+          }
+          value += new String(buffer, mark, pos - mark);
+        } else {
+          proximity = Proximity.valueOf(n);
+        }
+      } else if ('^' == c) {
+        pos++;
+        if ('=' == peek(0)) {
+          pos++;
+          constantScore = ConstantScore.valueOf(readNumber());
+        } else {
+          boost = Boost.valueOf(readNumber());
+        }
+      } else {
+        break;
+      }
+    }
+    handler.term(field, value, occur, proximity, boost, constantScore);
+  }
+
+  private void readGroupModifiers() throws IOException {
+    Boost boost = null;
+    ConstantScore constantScore = null;
+    if ('^' == peek(0)) {
+      pos++;
+      if ('=' == peek(0)) {
+        pos++;
+        constantScore = ConstantScore.valueOf(readNumber());
+      } else {
+        boost = Boost.valueOf(readNumber());
+      }
+    }
+    handler.endGroup(boost, constantScore);
+  }
+
+  private float readNumber() throws IOException {
+    mark = pos;
+    while (true) {
+      int c = peek(0);
+      if (((c >= '0') && (c <= '9')) || ('.' == c) || ('-' == c) || ('e' == c) || ('E' == c)) {
+        pos++;
+      } else {
+        break;
+      }
+    }
+    if (pos == mark) {
+      throw error("Expected a number");
+    }
+    float number;
+    try {
+      number = Float.parseFloat(new String(buffer, mark, pos - mark));
+    } catch (NumberFormatException e) {
+      number = Float.NaN;
+    }
+    if (!Float.isFinite(number)) {
+      // Such as 1e50, which would render as Infinity and could not be read back
+      pos = mark;
+      throw error("Expected a number");
+    }
+    return number;
+  }
+
+  /**
+   * @return the comment at the current position, trimmed
+   */
+  private String readComment() throws IOException {
+    pos += 2;
+    mark = pos;
+    while (true) {
+      int c = peek(0);
+      if (c < 0) {
+        throw error("Missing */");
+      }
+      if (('*' == c) && ('/' == peek(1))) {
+        String comment = new String(buffer, mark, pos - mark).trim();
+        pos += 2;
+        return comment;
+      }
+      pos++;
+    }
+  }
+
+  /**
+   * Moves past a word that is not quoted or bracketed.
+   *
+   * @param stopAtColon true when the word may turn out to be a field
+   */
+  private void skipBare(boolean stopAtColon) throws IOException {
+    while (true) {
+      // Straight from the buffer for as long as it lasts
+      char[] chars = buffer;
+      int end = limit;
+      int at = pos;
+      for (char c; (at < end) && ('\\' != (c = chars[at])); at++) {
+        if (isWhitespace(c) || ('(' == c) || (')' == c) || ('^' == c) || ('~' == c)
+            || (stopAtColon && (':' == c))) {
+          pos = at;
+          return;
+        }
+      }
+      pos = at;
+
+      int c = peek(0);
+      if (c < 0) {
+        return;
+      }
+      if ('\\' == c) {
+        pos += (peek(1) < 0) ? 1 : 2;
+      }
+    }
+  }
+
+  /**
+   * Moves past the unescaped quote that closes the phrase.
+   */
+  private void skipQuoted() throws IOException {
+    while (true) {
+      int c = peek(0);
+      if (c < 0) {
+        throw error("Missing \"");
+      }
+      pos++;
+      if ('\\' == c) {
+        skipEscaped();
+      } else if ('"' == c) {
+        return;
+      }
+    }
+  }
+
+  private void skipRange() throws IOException {
+    while (true) {
+      int c = peek(0);
+      if (c < 0) {
+        throw error("Missing ] or }");
+      }
+      pos++;
+      if ('\\' == c) {
+        skipEscaped();
+      } else if ('"' == c) {
+        skipQuoted();
+      } else if ((']' == c) || ('}' == c)) {
+        return;
+      }
+    }
+  }
+
+  private void skipParenthesis() throws IOException {
+    int depth = 0;
+    while (true) {
+      int c = peek(0);
+      if (c < 0) {
+        throw error("Missing )");
+      }
+      pos++;
+      if ('\\' == c) {
+        skipEscaped();
+      } else if ('"' == c) {
+        skipQuoted();
+      } else if ('(' == c) {
+        depth++;
+      } else if (')' == c) {
+        if (0 == depth) {
+          return;
+        }
+        depth--;
+      }
+    }
+  }
+
+  private void skipEscaped() throws IOException {
+    if (peek(0) >= 0) {
+      pos++;
+    }
+  }
+
+  private void skipWhitespace() throws IOException {
+    while (true) {
+      // Nothing before here is needed any more
+      mark = pos;
+      int c = peek(0);
+      if ((c < 0) || !isWhitespace(c)) {
+        return;
+      }
+      pos++;
+    }
+  }
+
+  /**
+   * @return true if the word is at the current position, followed by whitespace or the end
+   */
+  private boolean isWord(String word) throws IOException {
+    if (!startsWith(word)) {
+      return false;
+    }
+    int after = peek(word.length());
+    return (after < 0) || isWhitespace(after);
+  }
+
+  private boolean startsWith(String prefix) throws IOException {
+    for (int i = 0; i < prefix.length(); i++) {
+      if (prefix.charAt(i) != peek(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return the char offset chars after the current position, or -1 past the end of the input
+   */
+  private int peek(int offset) throws IOException {
+    int at = pos + offset;
+    return (at < limit) ? buffer[at] : peekAfterFill(offset);
+  }
+
+  private int peekAfterFill(int offset) throws IOException {
+    while (pos + offset >= limit) {
+      if (!fill()) {
+        return -1;
+      }
+    }
+    return buffer[pos + offset];
+  }
+
+  /**
+   * Character.isWhitespace, with the ASCII chars answered without a table lookup.
+   */
+  private static boolean isWhitespace(int c) {
+    if (c <= ' ') {
+      return (' ' == c) || (('\t' <= c) && (c <= '\r')) || ((0x1c <= c) && (c <= 0x1f));
+    }
+    return (c > 0x7f) && Character.isWhitespace(c);
+  }
+
+  /**
+   * Reads more input into the buffer, first moving out what is before the mark. The buffer only
+   * grows when a single clause does not fit in it.
+   *
+   * @return false at the end of the input
+   */
+  private boolean fill() throws IOException {
+    if (eof) {
+      return false;
+    }
+    if (mark > 0) {
+      System.arraycopy(buffer, mark, buffer, 0, limit - mark);
+      limit -= mark;
+      pos -= mark;
+      consumed += mark;
+      mark = 0;
+    }
+    if (limit == buffer.length) {
+      buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+    }
+
+    int read;
+    if (null != reader) {
+      read = reader.read(buffer, limit, buffer.length - limit);
+    } else {
+      read = Math.min(source.remaining(), buffer.length - limit);
+      source.get(buffer, limit, read);
+      read = (0 == read) ? -1 : read;
+    }
+    if (read < 0) {
+      eof = true;
+      return false;
+    }
+    limit += read;
+    return true;
+  }
+
+  private IllegalArgumentException error(String message) {
+    return new IllegalArgumentException(message + " at position " + (consumed + pos));
+  }
+
+  /**
+   * Builds the tree that parse(CharSequence) returns.
+   */
+  private static final class TreeBuilder implements TermGroupHandler {
+
+    private final TermGroup root = new TermGroup();
+    private TermGroup current = root;
+
+    // The label for the next clause
+    private String label = null;
+
+    // The last clause in the current group, and whether AND came after it.
+    private Object previous = null;
+    private boolean and = false;
+
+    TreeBuilder() {
+      root.setHasGroupingParenthesis(false);
+    }
+
+    @Override
+    public void label(String label) {
+      closeGroupWithoutParenthesis();
+      this.label = label;
+    }
+
+    @Override
+    public void startGroup(Occur occur, boolean filter) {
+      TermGroup group = filter ? new TermFilterGroup() : new TermGroup();
+      group.setOccur(occur);
+      if (null != label) {
+        group.setLabel(label);
+        label = null;
+      }
+      current.addGroup(group);
+      clause(group);
+      current = group;
+      previous = null;
+    }
+
+    @Override
+    public void endGroup(Boost boost, ConstantScore constantScore) {
+      closeGroupWithoutParenthesis();
+      TermGroup group = current;
+      if (null != boost) {
+        group.setBoost(boost.getValue());
+      }
+      if (null != constantScore) {
+        group.setConstantScore(constantScore.getValue());
+      }
+      current = group.getParentGroup();
+      previous = group;
+      and = false;
+    }
+
+    @Override
+    public void term(String field, String value, Occur occur, Proximity proximity, Boost boost,
+        ConstantScore constantScore) {
+      if (null != label) {
+        // The clauses of a group without parenthesis
+        TermGroup group = new TermGroup();
+        group.setHasGroupingParenthesis(false);
+        group.setLabel(label);
+        label = null;
+        current.addGroup(group);
+        current = group;
+        previous = null;
+      }
+
+      Term term = new Term(field, value);
+      if ((Term.GROUPING == (term.shape() & Term.KIND))
+          && ((null != boost) || (null != constantScore))) {
+        // A term can not boost field:(a b), so it goes into a group that can
+        TermGroup group = new TermGroup();
+        group.setOccur(occur);
+        if (null != boost) {
+          group.setBoost(boost.getValue());
+        }
+        if (null != constantScore) {
+          group.setConstantScore(constantScore.getValue());
+        }
+        group.addTerm(term);
+        current.addGroup(group);
+        clause(group);
+        return;
+      }
+
+      term.setOccur(occur);
+      if (null != proximity) {
+        term.setProximity(proximity.getValue());
+      }
+      if (null != boost) {
+        term.setBoost(boost.getValue());
+      }
+      if (null != constantScore) {
+        term.setConstantScore(constantScore.getValue());
+      }
+      current.addTerm(term);
+      clause(term);
+    }
+
+    @Override
+    public void and() {
+      and = true;
+    }
+
+    private void clause(Object clause) {
+      if (and) {
+        makeRequired(previous);
+        makeRequired(clause);
+        and = false;
+      }
+      previous = clause;
+    }
+
+    private static void makeRequired(Object clause) {
+      if (clause instanceof Term term) {
+        if (Occur.SHOULD == term.getOccur()) {
+          term.setOccur(Occur.MUST);
+        }
+      } else if (clause instanceof TermGroup group) {
+        if (Occur.SHOULD == group.getOccur()) {
+          group.setOccur(Occur.MUST);
+        }
+      }
+    }
+
+    private void closeGroupWithoutParenthesis() {
+      if ((current != root) && !current.getHasGroupingParenthesis()) {
+        previous = current;
+        current = current.getParentGroup();
+      }
+    }
+
+    TermGroup result() {
+      closeGroupWithoutParenthesis();
+
+      // A single group comes back as itself
+      if (root.getTerms().isEmpty() && (1 == root.getGroups().size())) {
+        TermGroup group = root.getGroups().get(0);
+        root.getGroups().clear();
+        return group;
+      }
+      return root;
+    }
+  }
+}
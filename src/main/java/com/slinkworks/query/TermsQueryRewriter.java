@@ -0,0 +1,271 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/*------------------------------------------------------------------
+    slinkworks.com
+
+               .---.    (__)
+             .'__|__`.  |  |
+            ||-~~~~~-||  ||
+             |  \ /  |   ||
+             \  | |  /   ||
+      .--------`   '-------.
+     // \       / \  | |  /  \
+    ((_/|       | |  /./  |___\
+         \______\ /_/_/__/
+          THIS IS THE WAY
+            CODERS GUILD
+-------------------------------------------------------------------*/
+
+package com.slinkworks.query;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * TermsQueryRewriter turns long runs of plain SHOULD terms on one field, such as an allow list of
+ * ids, into a single Solr terms query. A group like
+ *
+ * <pre>
+ *     ( id:1 id:2 id:3 ... id:5000 )
+ * </pre>
+ * <p>
+ * is rewritten to
+ *
+ * <pre>
+ *     ( _query_:"{!terms f=id}1,2,3,...,5000" )
+ * </pre>
+ * <p>
+ * which Solr parses as one clause however many values it holds, so it does not run into
+ * maxBooleanClauses and is much shorter and quicker to parse. With filter set the clause is
+ * wrapped in <code>filter( )</code> so that Solr caches it in the filterCache.
+ * <p>
+ * Only terms that mean the same as one of the values of a terms query are taken: SHOULD terms
+ * with no boost, constant score or proximity, whose field and value are single tokens with no
+ * query syntax in them and no commas. A field is only rewritten in a group where it has at least
+ * threshold such terms. The terms query takes the place of the first of them, except with filter
+ * set, when it goes into a TermFilterGroup sub group of its own. A sub group renders after the
+ * terms of its group, so there the filter comes after all of the terms and before the other sub
+ * groups. Other terms and groups are copied as they are. The terms query parser does not analyze the values, so only
+ * rewrite queries on fields such as ids or keywords that are indexed as they are written.
+ * <p>
+ * The group passed to rewrite is not changed. Render the group it returns instead.
+ *
+ * <pre>
+ *         TermsQueryRewriter rewriter = new TermsQueryRewriter(100, Method.TERMS_FILTER, true);
+ *         String q = rewriter.rewrite(group).toString();
+ * </pre>
+ */
+public class TermsQueryRewriter {
+
+  /**
+   * Used by the constructor that does not take a threshold.
+   */
+  public static final int DEFAULT_THRESHOLD = 64;
+
+  protected static final String QUERY_FIELD = "_query_";
+
+  /**
+   * The method parameter of the terms query parser, how Solr should run the query.
+   */
+  public enum Method {
+    TERMS_FILTER("termsFilter"),
+    BOOLEAN_QUERY("booleanQuery"),
+    AUTOMATON("automaton"),
+    DOC_VALUES_TERMS_FILTER("docValuesTermsFilter");
+
+    private final String parameter;
+
+    Method(String parameter) {
+      this.parameter = parameter;
+    }
+
+    @Override
+    public String toString() {
+      return parameter;
+    }
+  }
+
+  private final int threshold;
+  private final Method method;
+  private final boolean filter;
+
+  /**
+   * Rewrites fields with at least DEFAULT_THRESHOLD terms, leaving the method up to Solr.
+   */
+  public TermsQueryRewriter() {
+    this(DEFAULT_THRESHOLD, null, false);
+  }
+
+  /**
+   * @param threshold the fewest terms on a field in a group that are rewritten, at least 1
+   * @param method    the method parameter, or null to leave it out and let Solr choose
+   * @param filter    true to wrap the terms query in filter( )
+   */
+  public TermsQueryRewriter(int threshold, Method method, boolean filter) {
+    if (threshold < 1) {
+      throw new IllegalArgumentException("threshold must be at least 1: " + threshold);
+    }
+    this.threshold = threshold;
+    this.method = method;
+    this.filter = filter;
+  }
+
+  /**
+   * @return the fewest terms on a field in a group that are rewritten
+   */
+  public int getThreshold() {
+    return threshold;
+  }
+
+  /**
+   * @return the method parameter, or null
+   */
+  public Method getMethod() {
+    return method;
+  }
+
+  /**
+   * @return true if terms queries are wrapped in filter( )
+   */
+  public boolean isFilter() {
+    return filter;
+  }
+
+  /**
+   * Copies the group, with the runs of terms on a field that reach the threshold replaced by a
+   * terms query. A frozen group is read without being materialized.
+   *
+   * @param group the query, not changed
+   * @return the rewritten copy, of the same class as group
+   */
+  public TermGroup rewrite(TermGroup group) {
+    Objects.requireNonNull(group, "group");
+    TermGroup copy = group.emptyCopy();
+    rewriteTerms(group, copy);
+    for (TermGroup subgroup : group.contentGroups()) {
+      copy.addGroup(rewrite(subgroup));
+    }
+    return copy;
+  }
+
+  /**
+   * Adds the terms of group to copy, gathering the values of each field first so that the terms
+   * query can go where the first of its terms was. With filter set it is added as a sub group
+   * instead, ahead of the copies of the sub groups of group.
+   */
+  private void rewriteTerms(TermGroup group, TermGroup copy) {
+    List<Term> terms = group.contentTerms();
+    Map<String, Values> fields = new LinkedHashMap<>();
+    for (Term term : terms) {
+      if (isCandidate(term)) {
+        fields.computeIfAbsent(term.getField(), Values::new).add(term.getValue());
+      }
+    }
+    fields.values().removeIf(values -> (values.count < threshold) || !isPlain(values.field));
+
+    for (Term term : terms) {
+      if (null == term) {
+        continue;
+      }
+      Values values = isCandidate(term) ? fields.get(term.getField()) : null;
+      if (null == values) {
+        copy.addTerm(new Term(term));
+      } else if (!values.added) {
+        values.added = true;
+        addTermsQuery(copy, values);
+      }
+    }
+  }
+
+  private void addTermsQuery(TermGroup copy, Values values) {
+    StringBuilder query = new StringBuilder(values.text.length() + values.field.length() + 48);
+    query.append("\"{!terms f=").append(values.field);
+    if (null != method) {
+      query.append(" method=").append(method);
+    }
+    query.append('}').append(values.text).append('"');
+    Term term = new Term(QUERY_FIELD, query.toString());
+
+    if (filter && !(copy instanceof TermFilterGroup)) {
+      TermGroup filterGroup = new TermFilterGroup();
+      filterGroup.addTerm(term);
+      copy.addGroup(filterGroup);
+    } else {
+      copy.addTerm(term);
+    }
+  }
+
+  /**
+   * @param term to check
+   * @return true if the term could be one of the values of a terms query. The field is checked
+   * once per group instead, see isPlain.
+   */
+  protected boolean isCandidate(Term term) {
+    if ((null == term) || (Occur.SHOULD != term.getOccur()) || (null != term.getBoost())
+        || (null != term.getConstantScore()) || (null != term.getProximity())
+        || (Term.SINGLE != (term.shape() & Term.KIND))) {
+      return false;
+    }
+    return isPlain(term.getValue());
+  }
+
+  /**
+   * A single token can still have spaces around it, and a comma would split a value in two. Of
+   * the characters that mean something to the query parser only + and - are taken, and not at the
+   * start, where the parser reads them as part of the term as well.
+   *
+   * @param text a field or value
+   * @return true if the text means the same in a terms query as in a term
+   */
+  protected static boolean isPlain(String text) {
+    if ((null == text) || text.isEmpty()) {
+      return false;
+    }
+    for (int i = 0, length = text.length(); i < length; i++) {
+      char c = text.charAt(i);
+      if ((',' == c) || Character.isWhitespace(c)
+          || (Term.isSpecial(c) && ((0 == i) || (('+' != c) && ('-' != c))))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * The values of the candidate terms on one field of a group, joined with commas.
+   */
+  private static final class Values {
+    private final String field;
+    private final StringBuilder text = new StringBuilder();
+    private int count = 0;
+    private boolean added = false;
+
+    Values(String field) {
+      this.field = field;
+    }
+
+    void add(String value) {
+      if (count++ > 0) {
+        text.append(',');
+      }
+      text.append(value);
+    }
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/*------------------------------------------------------------------
+    slinkworks.com
+
+               .---.    (__)
+             .'__|__`.  |  |
+            ||-~~~~~-||  ||
+             |  \ /  |   ||
+             \  | |  /   ||
+      .--------`   '-------.
+     // \       / \  | |  /  \
+    ((_/|       | |  /./  |___\
+         \______\ /_/_/__/
+          THIS IS THE WAY
+            CODERS GUILD
+-------------------------------------------------------------------*/
+
+package com.slinkworks.query;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The terms and groups holding a Boost, ConstantScore or Proximity that can be changed in place,
+ * so that they can be told when it is. A value is nearly always held by exactly one term or group
+ * so the first is kept in a field and the list is only created when the value is shared, the same
+ * way a Term keeps the groups holding it.
+ */
+final class ValueOwners {
+
+  private Object owner = null;
+  private List<Object> additionalOwners = null;
+
+  /**
+   * @param holder the Term or TermGroup now holding the value
+   */
+  void attach(Object holder) {
+    if (null == owner) {
+      owner = holder;
+    } else {
+      if (null == additionalOwners) {
+        additionalOwners = new ArrayList<>(1);
+      }
+      additionalOwners.add(holder);
+    }
+  }
+
+  /**
+   * @param holder the Term or TermGroup no longer holding the value
+   */
+  void detach(Object holder) {
+    if (owner == holder) {
+      owner = (null == additionalOwners || additionalOwners.isEmpty())
+          ? null : additionalOwners.remove(additionalOwners.size() - 1);
+    } else if (null != additionalOwners) {
+      for (int i = 0; i < additionalOwners.size(); i++) {
+        if (additionalOwners.get(i) == holder) {
+          additionalOwners.remove(i);
+          break;
+        }
+      }
+    }
+  }
+
+  /**
+   * Lets every term and group holding the value know that it changed.
+   */
+  void changed() {
+    if (null != owner) {
+      notify(owner);
+      if (null != additionalOwners) {
+        for (Object holder : additionalOwners) {
+          notify(holder);
+        }
+      }
+    }
+  }
+
+  private static void notify(Object holder) {
+    if (holder instanceof Term term) {
+      term.valueChanged();
+    } else {
+      ((TermGroup) holder).valueChanged();
+    }
+  }
+}
@@ -20,6 +20,8 @@ package com.slinkworks.query;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import org.junit.jupiter.api.Test;
 
@@ -38,6 +40,16 @@ class BoostTest {
     assertEquals("^3.2", boost.toString());
   }
 
+  @Test
+  void testWholeNumbers() {
+    assertEquals("^10", new Boost(10f).toString());
+    assertEquals("^100", new Boost(100.0f).toString());
+    assertEquals("^0", new Boost(0f).toString());
+    assertEquals("^2.05", new Boost(2.05f).toString());
+    assertEquals("^0.0001", new Boost(0.0001f).toString());
+    assertEquals("^1", new Boost(0.99999f).toString());
+  }
+
   @Test
   void testEqualsAndHashCode() {
     Boost boost1 = new Boost(1.2f);
@@ -61,4 +73,22 @@ class BoostTest {
     assertFalse(boost1.equals("boost2"));
 
   }
+
+  @Test
+  void testValueOf() {
+    Boost boost = Boost.valueOf(1.5f);
+    assertSame(boost, Boost.valueOf(1.5f));
+    assertSame(boost.toString(), boost.toString());
+    assertEquals("^1.5", boost.toString());
+    assertEquals(new Boost(1.5f), boost);
+    assertThrows(UnsupportedOperationException.class, () -> boost.setValue(2f));
+
+    // Not cached, still immutable
+    Boost odd = Boost.valueOf(1.23456f);
+    assertEquals("^1.2346", odd.toString());
+    assertSame(odd, odd.immutable());
+    assertThrows(UnsupportedOperationException.class, () -> odd.setValue(2f));
+
+    assertSame(boost, new Boost(1.5f).immutable());
+  }
 }
@@ -0,0 +1,198 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.slinkworks.query;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+class CanonicalOrderTest {
+
+  private static String canonical(TermGroup group) {
+    new CanonicalOrder().canonicalize(group);
+    return group.toString();
+  }
+
+  /**
+   * Shuffles the terms and groups of every group, which changes nothing they match.
+   */
+  private static void shuffle(TermGroup group, Random random) {
+    Collections.shuffle(group.getTerms(), random);
+    Collections.shuffle(group.getGroups(), random);
+    for (TermGroup subgroup : group.getGroups()) {
+      shuffle(subgroup, random);
+    }
+  }
+
+  @Test
+  void testCanonicalize() {
+    TermGroup group = new TermGroup();
+    group.addTerm(new Term("year", "1999"));
+    TermGroup must = group.addGroup().with(Occur.MUST);
+    must.addTerm(new Term(null, "c"));
+    must.addTerm(new Term(null, "b"));
+    group.addTerm(new Term("title", "b"));
+    group.addGroup().with(Occur.MUST).addTerm(new Term(null, "a"));
+    group.addTerm(new Term("title", "a"));
+    group.addTerm(new Term("title", " "));
+    group.addTerm(new Term("title", "a").with(Occur.MUST));
+    group.addTerm(new Term(null, "z"));
+    assertEquals("( year:1999 title:b title:a +title:a z +( c b ) +( a ) )", group.toString());
+
+    QueryOptimizer.Report report = new CanonicalOrder().canonicalize(group);
+    assertEquals("( z +title:a title:a title:b year:1999 +( a ) +( b c ) )", group.toString());
+    assertEquals(3, report.count(CanonicalOrder.NAME));
+    assertTrue(new CanonicalOrder().canonicalize(group).isEmpty());
+
+    // Blank terms render nothing, but are put in order too
+    TermGroup blanks = new TermGroup();
+    blanks.addTerm(new Term("title", "a"));
+    blanks.addTerm(new Term("title", " "));
+    blanks.addTerm(new Term("year", ""));
+    TermGroup reversed = new TermGroup();
+    reversed.addTerm(new Term("year", ""));
+    reversed.addTerm(new Term("title", " "));
+    reversed.addTerm(new Term("title", "a"));
+    assertEquals(canonical(blanks), canonical(reversed));
+    assertEquals(blanks, reversed);
+  }
+
+  @Test
+  void testFieldFactored() {
+    TermGroup group = new TermGroup().withFieldFactored(true);
+    group.addTerm(new Term("title", "b"));
+    group.addTerm(new Term("year", "1999"));
+    group.addTerm(new Term("title", "a"));
+    assertEquals("( title:b year:1999 title:a )", group.toString());
+    assertEquals("( title:(a b) year:1999 )", canonical(group));
+  }
+
+  @Test
+  void testOperatorsKeepTheirPlace() {
+    TermGroup group = new TermGroup();
+    group.addTerm(new Term("title", "b"));
+    group.addTerm(new Term(null, "AND"));
+    group.addTerm(new Term("title", "a"));
+    assertEquals("( title:b AND title:a )", canonical(group));
+
+    // The clauses of a group without parentheses render next to the ones of its parent
+    TermGroup parent = new TermGroup();
+    parent.addTerm(new Term("title", "b"));
+    parent.addTerm(new Term("title", "a"));
+    TermGroup inline = parent.addGroup();
+    inline.setHasGroupingParenthesis(false);
+    inline.addTerm(new Term(null, "||"));
+    inline.addTerm(new Term("year", "2"));
+    inline.addTerm(new Term("year", "1"));
+    assertEquals("( title:b title:a || year:2 year:1 )", canonical(parent));
+
+    TermGroup title = new TermGroup();
+    title.addTerm(new Term("title", "b!c"));
+    title.addTerm(new Term("title", "a"));
+    assertEquals("( title:b!c title:a )", canonical(title));
+  }
+
+  @Test
+  void testWithOptimizer() {
+    TermGroup group = new TermGroup();
+    group.addTerm(new Term("title", "b"));
+    TermGroup nested = group.addGroup();
+    nested.addTerm(new Term("title", "a"));
+    nested.addTerm(new Term("title", "b"));
+    QueryOptimizer.Report report = new QueryOptimizer().register(new CanonicalOrder())
+        .optimize(group);
+    assertEquals("title:a title:b", group.toString());
+    assertEquals(1, report.count(CanonicalOrder.NAME));
+  }
+
+  @Test
+  void testFrozen() {
+    TermGroup group = new TermGroup();
+    group.addTerm(new Term("title", "b"));
+    group.addTerm(new Term("title", "a"));
+    group.freeze();
+    assertThrows(UnsupportedOperationException.class,
+        () -> new CanonicalOrder().canonicalize(group));
+
+    TermGroup fork = group.fork();
+    assertEquals("( title:a title:b )", canonical(fork));
+    assertEquals("( title:b title:a )", group.toString());
+  }
+
+  @Test
+  void testTiesAreBrokenByLabelAndFingerprint() {
+    // Groups that render the same are ordered by label, and blank terms by fingerprint, whatever
+    // order they were added in, so the order is the same in every JVM
+    for (boolean reversed : new boolean[] {false, true}) {
+      TermGroup group = new TermGroup();
+      TermGroup b = new TermGroup().withLabel("B");
+      b.addTerm(new Term("title", "dino"));
+      TermGroup a = new TermGroup().withLabel("A");
+      a.addTerm(new Term("title", "dino"));
+      group.addGroup(reversed ? a : b);
+      group.addGroup(reversed ? b : a);
+      group.addTerm(new Term("title", reversed ? " " : ""));
+      group.addTerm(new Term("title", reversed ? "" : " ").with(Occur.MUST));
+      group.addTerm(new Term("title", reversed ? "" : " "));
+      group.addTerm(new Term("title", reversed ? " " : "").with(Occur.MUST));
+
+      new CanonicalOrder().canonicalize(group);
+      assertEquals(List.of("A", "B"),
+          List.of(group.getGroups().get(0).getLabel(), group.getGroups().get(1).getLabel()));
+      assertEquals(expectedBlankOrder(), blankOrder(group));
+    }
+  }
+
+  private static List<String> expectedBlankOrder() {
+    TermGroup group = new TermGroup();
+    group.addTerm(new Term("title", ""));
+    group.addTerm(new Term("title", " "));
+    group.addTerm(new Term("title", "").with(Occur.MUST));
+    group.addTerm(new Term("title", " ").with(Occur.MUST));
+    new CanonicalOrder().canonicalize(group);
+    return blankOrder(group);
+  }
+
+  private static List<String> blankOrder(TermGroup group) {
+    return group.getTerms().stream()
+        .map(term -> "[" + term.getValue() + "]" + term.getOccur())
+        .toList();
+  }
+
+  @Test
+  void testShuffledRendersTheSame() {
+    List<Set<String>> documents = QueryMatcher.documents();
+    for (int seed = 0; seed < 1000; seed++) {
+      TermGroup group = QueryMatcher.TREES.build(new Random(seed));
+      String before = group.toString();
+      List<Boolean> expected = QueryMatcher.matches(group, documents);
+      TermGroup shuffled = QueryMatcher.TREES.build(new Random(seed));
+      shuffle(shuffled, new Random(-seed));
+
+      assertEquals(canonical(group), canonical(shuffled), seed + ": " + before);
+      assertEquals(expected, QueryMatcher.matches(group, documents), seed + ": " + before);
+      assertEquals(group, shuffled, seed + ": " + before);
+    }
+  }
+}
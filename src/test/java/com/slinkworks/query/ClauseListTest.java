@@ -0,0 +1,245 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.slinkworks.query;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class ClauseListTest {
+
+  /**
+   * Records what the list reports.
+   */
+  private static class RecordingList extends ClauseList<String> {
+
+    final List<String> added = new ArrayList<>();
+    final List<String> removed = new ArrayList<>();
+    int reordered = 0;
+
+    @Override
+    protected void added(String element) {
+      added.add(element);
+    }
+
+    @Override
+    protected void removed(String element) {
+      removed.add(element);
+    }
+
+    @Override
+    protected void reordered() {
+      reordered++;
+    }
+  }
+
+  @Test
+  void testAddAndRemove() {
+    RecordingList list = new RecordingList();
+    for (int i = 0; i < 20; i++) {
+      list.add("e" + i);
+    }
+    list.add(0, "first");
+    list.add(null);
+    assertEquals(22, list.size());
+    assertEquals("first", list.get(0));
+    assertEquals("e19", list.get(20));
+    assertEquals(22, list.added.size());
+
+    assertEquals("first", list.remove(0));
+    assertEquals(List.of("first"), list.removed);
+
+    assertEquals("e0", list.set(0, "zero"));
+    assertEquals(List.of("first", "e0"), list.removed);
+    assertEquals("zero", list.added.get(list.added.size() - 1));
+
+    assertThrows(IndexOutOfBoundsException.class, () -> list.get(21));
+    assertThrows(IndexOutOfBoundsException.class, () -> list.add(23, "x"));
+  }
+
+  @Test
+  void testBulkRemoval() {
+    RecordingList list = new RecordingList();
+    list.addAll(List.of("a", "b", "c", "d", "e"));
+
+    assertFalse(list.removeIf(s -> s.equals("z")));
+    assertTrue(list.removeIf(s -> s.equals("b") || s.equals("d")));
+    assertEquals(List.of("a", "c", "e"), list);
+    assertEquals(List.of("b", "d"), list.removed);
+
+    Iterator<String> iterator = list.iterator();
+    iterator.next();
+    iterator.remove();
+    assertEquals(List.of("c", "e"), list);
+    assertEquals(List.of("b", "d", "a"), list.removed);
+
+    list.subList(0, 1).clear();
+    assertEquals(List.of("e"), list);
+
+    list.clear();
+    assertTrue(list.isEmpty());
+    assertEquals(List.of("b", "d", "a", "c", "e"), list.removed);
+  }
+
+  @Test
+  void testIdentityIndex() {
+    RecordingList list = new RecordingList();
+    List<String> expected = new ArrayList<>();
+    String[] pool = new String[60];
+    for (int i = 0; i < pool.length; i++) {
+      pool[i] = new String("e");
+    }
+
+    Random random = new Random(7);
+    for (int step = 0; step < 20000; step++) {
+      String element = pool[random.nextInt(pool.length)];
+      int op = random.nextInt(10);
+      if ((op < 4) || expected.isEmpty()) {
+        list.add(element);
+        expected.add(element);
+      } else if (op == 4) {
+        int index = random.nextInt(expected.size() + 1);
+        list.add(index, element);
+        expected.add(index, element);
+      } else if (op == 5) {
+        int index = random.nextInt(expected.size());
+        assertSame(expected.remove(index), list.remove(index));
+      } else if (op == 6) {
+        int index = random.nextInt(expected.size());
+        assertSame(expected.set(index, element), list.set(index, element));
+      } else if (op < 9) {
+        assertEquals(expected.removeIf(e -> e == element), list.removeElement(element));
+      } else {
+        int index = random.nextInt(expected.size());
+        assertSame(expected.get(index), list.get(index));
+      }
+
+      assertEquals(expected.size(), list.size());
+      String probe = pool[random.nextInt(pool.length)];
+      assertEquals(expected.stream().anyMatch(e -> e == probe), list.containsElement(probe));
+    }
+
+    for (int i = 0; i < expected.size(); i++) {
+      assertSame(expected.get(i), list.get(i));
+    }
+    assertEquals(list.added.size() - list.removed.size(), list.size());
+  }
+
+  @Test
+  void testIdentityIndexAfterShifts() {
+    RecordingList list = new RecordingList();
+    List<String> expected = new ArrayList<>();
+    for (int i = 0; i < 200; i++) {
+      String element = "e" + i;
+      list.add(element);
+      expected.add(element);
+    }
+
+    // Reading, removing by position and inserting all move the slots after the first change
+    Random random = new Random(11);
+    for (int step = 0; step < 2000; step++) {
+      int index = random.nextInt(expected.size());
+      String element = expected.get(index);
+      int op = random.nextInt(4);
+      if (op == 0) {
+        assertTrue(list.removeElement(element));
+        expected.remove(index);
+        assertSame(expected.get(0), list.get(0));
+      } else if (op == 1) {
+        assertSame(expected.remove(index), list.remove(index));
+      } else if (op == 2) {
+        String added = "a" + step;
+        list.add(index, added);
+        expected.add(index, added);
+      } else {
+        assertSame(element, list.get(index));
+      }
+
+      String probe = expected.get(random.nextInt(expected.size()));
+      assertTrue(list.containsElement(probe));
+      if (expected.size() < 20) {
+        String added = "b" + step;
+        list.add(added);
+        expected.add(added);
+      }
+    }
+
+    assertEquals(expected, list);
+    for (String element : new ArrayList<>(expected)) {
+      assertTrue(list.removeElement(element));
+      expected.remove(element);
+      assertEquals(expected, list);
+    }
+    assertTrue(list.isEmpty());
+  }
+
+  @Test
+  void testTrimToSize() {
+    RecordingList list = new RecordingList();
+    String[] elements = new String[40];
+    for (int i = 0; i < elements.length; i++) {
+      elements[i] = "e" + i;
+      list.add(elements[i]);
+    }
+    for (int i = 0; i < elements.length; i += 3) {
+      assertTrue(list.removeElement(elements[i]));
+    }
+    List<String> expected = new ArrayList<>(list);
+    list.trimToSize();
+    assertEquals(expected, list);
+    assertTrue(list.containsElement(expected.get(5)));
+    list.add("last");
+    assertEquals("last", list.get(list.size() - 1));
+
+    list.clear();
+    list.trimToSize();
+    assertTrue(list.isEmpty());
+  }
+
+  @Test
+  void testSort() {
+    RecordingList list = new RecordingList();
+    String[] elements = new String[30];
+    for (int i = 0; i < elements.length; i++) {
+      elements[i] = "e" + (char) ('z' - i);
+      list.add(elements[i]);
+    }
+    // Sorting sweeps out the tombstones and keeps the index in step
+    assertTrue(list.removeElement(elements[3]));
+    List<String> expected = new ArrayList<>(list);
+    expected.sort(null);
+    list.sort(null);
+
+    assertEquals(expected, list);
+    assertEquals(1, list.reordered);
+    assertEquals(30, list.added.size());
+    assertEquals(1, list.removed.size());
+    assertTrue(list.containsElement(elements[0]));
+    assertFalse(list.containsElement(elements[3]));
+    assertTrue(list.removeElement(elements[0]));
+    assertEquals(expected.subList(0, expected.size() - 1), list);
+  }
+}
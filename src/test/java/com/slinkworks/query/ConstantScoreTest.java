@@ -20,6 +20,8 @@ package com.slinkworks.query;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import org.junit.jupiter.api.Test;
 
@@ -36,6 +38,9 @@ class ConstantScoreTest {
     constantScore = new ConstantScore(constantScore);
     assertEquals("^=0.3", constantScore.toString());
     assertEquals(0.3f, constantScore.getValue(), 0);
+
+    constantScore.setValue(100f);
+    assertEquals("^=100", constantScore.toString());
   }
 
   @Test
@@ -60,4 +65,14 @@ class ConstantScoreTest {
     //For coverage
     assertFalse(cs1.equals("Junk"));
   }
+
+  @Test
+  void testValueOf() {
+    ConstantScore constantScore = ConstantScore.valueOf(2f);
+    assertSame(constantScore, ConstantScore.valueOf(2f));
+    assertEquals("^=2", constantScore.toString());
+    assertEquals(new ConstantScore(2f), constantScore);
+    assertThrows(UnsupportedOperationException.class, () -> constantScore.setValue(1f));
+    assertSame(constantScore, new ConstantScore(2f).immutable());
+  }
 }
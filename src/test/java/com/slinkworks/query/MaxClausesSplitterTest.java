@@ -0,0 +1,167 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.slinkworks.query;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+class MaxClausesSplitterTest {
+
+  private static String split(TermGroup group, int maxClauses) {
+    new MaxClausesSplitter(maxClauses).split(group);
+    return group.toString();
+  }
+
+  /**
+   * @return the most clauses of any boolean query in the tree
+   */
+  private static int mostClauses(TermGroup group) {
+    int most = MaxClausesSplitter.clauseCount(group);
+    for (TermGroup subgroup : group.getGroups()) {
+      most = Math.max(most, mostClauses(subgroup));
+    }
+    return most;
+  }
+
+  @Test
+  void testSplit() {
+    TermGroup group = new TermGroup();
+    for (String value : new String[] {"a", "b", "c", "d", "e", "f"}) {
+      group.addTerm(new Term(null, value));
+    }
+    group.addTerm(new Term(null, "x").with(Occur.MUST_NOT));
+    group.addTerm(new Term(null, "y").with(Occur.MUST_NOT));
+    assertEquals("( -x -y ( a b c ) ( d e f ) )", split(group, 4));
+    assertEquals("( -x -y ( a b c ) ( d e f ) )", split(group, 4));
+
+    group.addTerm(new Term(null, "z").with(Occur.MUST));
+    QueryOptimizer.Report report = new MaxClausesSplitter(4).split(group);
+    assertEquals("( -x -y +z ( ( a b c ) ( d e f ) ) )", group.toString());
+    assertEquals(1, report.count(MaxClausesSplitter.NAME));
+    assertEquals("MAX_CLAUSES: folded 2 SHOULD clauses into 1 group",
+        report.getChanges().get(0).toString());
+  }
+
+  @Test
+  void testNested() {
+    TermGroup group = new TermGroup().with(Occur.MUST);
+    for (int i = 0; i < 30; i++) {
+      group.addTerm(new Term("id", Integer.toString(i)).with(Occur.MUST));
+    }
+    split(group, 3);
+    assertEquals(3, mostClauses(group));
+    assertEquals(2, group.getGroups().size());
+    assertEquals("+( +id:0 +id:1 )", group.getGroups().get(0).getGroups().get(0)
+        .getGroups().get(0).toString());
+
+    TermGroup ids = new TermGroup();
+    for (int i = 0; i < 3000; i++) {
+      ids.addTerm(new Term("id", Integer.toString(i)));
+    }
+    new MaxClausesSplitter().split(ids);
+    assertEquals(3, ids.getGroups().size());
+    assertEquals(1000, ids.getGroups().get(2).getTerms().size());
+    assertEquals(MaxClausesSplitter.DEFAULT_MAX_CLAUSES, new MaxClausesSplitter().getMaxClauses());
+  }
+
+  @Test
+  void testWhatIsKept() {
+    // The clauses of a group without parentheses count in its parent
+    TermGroup group = new TermGroup().withFieldFactored(true);
+    group.addTerm(new Term("a", "1"));
+    TermGroup inline = group.addGroup();
+    inline.setHasGroupingParenthesis(false);
+    inline.addTerm(new Term("a", "2"));
+    inline.addTerm(new Term("a", "3"));
+    inline.addTerm(new Term("a", "4"));
+    assertEquals("( a:1 a:2 a:3 a:4 )", group.toString());
+    assertEquals("( ( a:(1 2) ) ( a:(3 4) ) )", split(group, 3));
+
+    TermGroup operators = new TermGroup();
+    for (String value : new String[] {"a", "AND", "b", "c"}) {
+      operators.addTerm(new Term(null, value));
+    }
+    assertEquals("( a AND b c )", split(operators, 3));
+
+    assertThrows(IllegalArgumentException.class, () -> new MaxClausesSplitter(2));
+    TermGroup frozen = new TermGroup().freeze();
+    assertThrows(UnsupportedOperationException.class,
+        () -> new MaxClausesSplitter().split(frozen));
+  }
+
+  @Test
+  void testLabelledGroupsAreKept() {
+    TermGroup root = new TermGroup();
+    root.addTerm(new Term(null, "x"));
+    TermGroup ids = root.addGroup().withLabel("ids");
+    ids.setHasGroupingParenthesis(false);
+    for (int i = 1; i <= 5; i++) {
+      ids.addTerm(new Term("id", Integer.toString(i)));
+    }
+    assertEquals("( x ( ( id:1 id:2 ) ( id:3 id:4 id:5 ) ) )", split(root, 3));
+    assertEquals(List.of(ids), root.findByLabel("ids"));
+
+    // The MUST_NOT clauses of a group without parentheses apply to its parent
+    TermGroup parent = new TermGroup();
+    for (String value : new String[] {"a", "b", "c"}) {
+      parent.addTerm(new Term(null, value));
+    }
+    TermGroup labelled = parent.addGroup().withLabel("L");
+    labelled.setHasGroupingParenthesis(false);
+    labelled.addTerm(new Term(null, "d"));
+    labelled.addTerm(new Term(null, "n").with(Occur.MUST_NOT));
+    assertEquals("( a b c d -n )", parent.toString());
+    assertEquals("( -n ( a b ) ( c ( d ) ) )", split(parent, 3));
+    assertEquals(List.of(labelled), parent.findByLabel("L"));
+
+    TermGroup negated = new TermGroup();
+    negated.addTerm(new Term(null, "a"));
+    TermGroup not = negated.addGroup().withLabel("NOT");
+    not.setHasGroupingParenthesis(false);
+    for (String value : new String[] {"m", "n", "o"}) {
+      not.addTerm(new Term(null, value).with(Occur.MUST_NOT));
+    }
+    assertEquals("( a -( m n o ) )", split(negated, 3));
+    assertEquals(List.of(not), negated.findByLabel("NOT"));
+  }
+
+  @Test
+  void testMatchesTheSame() {
+    List<Set<String>> documents = QueryMatcher.documents();
+    for (int seed = 0; seed < 2000; seed++) {
+      TermGroup group = QueryMatcher.TREES.build(new Random(seed));
+      String before = group.toString();
+      List<Boolean> expected = QueryMatcher.matches(group, documents);
+      List<TermGroup> labelled = group.findByLabel("L0");
+
+      new MaxClausesSplitter(3).split(group);
+      assertEquals(expected, QueryMatcher.matches(group, documents), seed + ": " + before);
+      // Labelled groups may be moved, but not spliced away
+      assertEquals(labelled.size(), group.findByLabel("L0").size(), seed + ": " + before);
+      assertTrue(group.findByLabel("L0").containsAll(labelled), seed + ": " + before);
+      assertTrue(mostClauses(group) <= 3, seed + ": " + before);
+      assertTrue(new MaxClausesSplitter(3).split(group).isEmpty(), seed + ": " + before);
+    }
+  }
+}
@@ -0,0 +1,160 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.slinkworks.query;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class PersistentTermGroupTest {
+
+  private static final RandomTrees TREES = new RandomTrees(new String[] {"title", ""},
+      new String[] {"dino", "pink panther", "", "[1 TO 2]", "(a b)"});
+
+  private static TermGroup query() {
+    TermGroup root = new TermGroup().withLabel("ROOT");
+    TermGroup names = root.addGroup().withLabel("NAMES").with(Occur.MUST);
+    names.addTerm(new Term("FirstName", "Geoffrey").with(new ConstantScore(1.0f)));
+    names.addTerm(new Term("FirstName", "Jeff").with(new ConstantScore(1.0f)));
+    names.setBoost(0.5f);
+    TermGroup years = root.addGroup().withLabel("YEARS").with(Occur.MUST);
+    years.addTerm(new Term("BirthYear", "(1860 1861)"));
+    TermFilterGroup filter = new TermFilterGroup();
+    filter.addTerm(new Term("type", "person"));
+    root.addGroup(filter);
+    return root;
+  }
+
+  @Test
+  void testRendersLikeTermGroup() {
+    TermGroup group = query();
+    PersistentTermGroup persistent = PersistentTermGroup.of(group);
+    assertEquals(group.toString(), persistent.toString());
+    assertSame(persistent.toString(), persistent.toString());
+    assertEquals(group.prettyPrint(), persistent.prettyPrint());
+    assertEquals(group.prettyPrint(true, " ", "  ", "\n"),
+        persistent.prettyPrint(true, " ", "  ", "\n"));
+
+    TermGroup back = persistent.toTermGroup();
+    assertEquals(group, back);
+    assertEquals(group.toString(), back.toString());
+    assertInstanceOf(TermFilterGroup.class, back.getGroups().get(2));
+
+    assertNull(PersistentTermGroup.of(null));
+    assertTrue(PersistentTermGroup.empty().isEmpty());
+    assertEquals("", PersistentTermGroup.empty().toString());
+  }
+
+  @Test
+  void testRandomTreesRenderLikeTermGroup() {
+    Random random = new Random(11);
+    for (int i = 0; i < 500; i++) {
+      TermGroup group = TREES.build(random);
+      PersistentTermGroup persistent = PersistentTermGroup.of(group);
+      assertEquals(group.toString(), persistent.toString());
+      assertEquals(group.prettyPrint(true, "", " ", "\n"),
+          persistent.prettyPrint(true, "", " ", "\n"));
+      assertEquals(group.isEmpty(), persistent.isEmpty());
+      assertEquals(group, persistent.toTermGroup());
+      assertEquals(persistent, PersistentTermGroup.of(persistent.toTermGroup()));
+    }
+  }
+
+  @Test
+  void testUpdateSharesWhatDidNotChange() {
+    PersistentTermGroup base = PersistentTermGroup.of(query());
+    PersistentTermGroup names = base.getGroups().get(0);
+    PersistentTermGroup years = base.getGroups().get(1);
+
+    PersistentTermGroup variant = base.update("YEARS", group -> group.withBoost(2f));
+    assertNotSame(base, variant);
+    assertSame(names, variant.getGroups().get(0));
+    assertNotSame(years, variant.getGroups().get(1));
+    assertSame(years.getTerms().get(0), variant.getGroups().get(1).getTerms().get(0));
+    assertEquals("^2", variant.getGroups().get(1).getBoost().toString());
+
+    // The base is not changed
+    assertNull(years.getBoost());
+    assertEquals(PersistentTermGroup.of(query()), base);
+
+    TermGroup expected = query();
+    expected.findByLabel("YEARS").get(0).setBoost(2f);
+    assertEquals(expected.toString(), variant.toString());
+
+    assertSame(base, base.update("MISSING", group -> group.withBoost(2f)));
+
+    // Add a term, wrap a group and remove a group
+    variant = base.update("NAMES", group -> group.withTerm(new Term("FirstName", "G")))
+        .update("YEARS", group -> group.wrapWith(PersistentTermGroup.empty().withLabel("WRAP")))
+        .update("ROOT", group -> group.withoutGroup(group.getGroups().get(2)));
+    expected = query();
+    expected.findByLabel("NAMES").get(0).addTerm(new Term("FirstName", "G"));
+    expected.findByLabel("YEARS").get(0).wrapWith(new TermGroup().withLabel("WRAP"));
+    expected.removeGroup(expected.getGroups().get(2));
+    assertEquals(expected.toString(), variant.toString());
+    assertEquals(expected, variant.toTermGroup());
+    assertEquals(List.of(variant.getGroups().get(1)), variant.findByLabel("WRAP"));
+
+    assertNull(base.update("ROOT", group -> null));
+    assertEquals(2, base.update("YEARS", group -> null).getGroups().size());
+  }
+
+  @Test
+  void testTermsAreFrozen() {
+    Term term = new Term("title", "dino");
+    PersistentTermGroup group = PersistentTermGroup.empty().withTerm(term);
+    Term frozen = group.getTerms().get(0);
+    assertTrue(frozen.isFrozen());
+    assertThrows(UnsupportedOperationException.class, () -> frozen.setBoost(2f));
+    assertThrows(UnsupportedOperationException.class, () -> frozen.setOccur(Occur.MUST));
+    assertThrows(UnsupportedOperationException.class, () -> group.getTerms().clear());
+
+    // The term passed in stays the caller's
+    term.setValue("panther");
+    assertEquals("( title:dino )", group.toString());
+    assertEquals(frozen, new Term(frozen));
+    new Term(frozen).setValue("changed");
+    assertSame(frozen, group.withoutTerm(term).getTerms().get(0));
+    assertTrue(group.withoutTerm(frozen).isEmpty());
+  }
+
+  @Test
+  void testForkIsNotMaterialized() {
+    TermGroup template = new TermGroup();
+    template.addTerm(new Term("title", "dino"));
+    template.addGroup().withLabel("YEARS").addTerm(new Term("year", "1984"));
+    template.freeze();
+    TermGroup fork = template.fork();
+
+    // The frozen terms of the template are shared, not copied out of a materialized fork
+    PersistentTermGroup group = PersistentTermGroup.of(fork);
+    assertEquals(template.toString(), group.toString());
+    assertSame(template.getTerms().get(0), group.getTerms().get(0));
+    assertSame(template.getGroups().get(0).getTerms().get(0),
+        group.getGroups().get(0).getTerms().get(0));
+    assertEquals(template.toString(), fork.toString());
+  }
+}
@@ -20,6 +20,8 @@ package com.slinkworks.query;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import org.junit.jupiter.api.Test;
 
@@ -62,4 +64,18 @@ class ProximityTest {
     //For coverage
     assertFalse(p1.equals("Junk"));
   }
+
+  @Test
+  void testValueOf() {
+    Proximity proximity = Proximity.valueOf(2);
+    assertSame(proximity, Proximity.valueOf(2));
+    assertEquals("~2", proximity.toString());
+    assertEquals(new Proximity(2), proximity);
+    assertThrows(UnsupportedOperationException.class, () -> proximity.setValue(3));
+    assertSame(proximity, new Proximity(2).immutable());
+
+    Proximity big = Proximity.valueOf(50);
+    assertEquals("~50", big.toString());
+    assertSame(big, big.immutable());
+  }
 }
@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.slinkworks.query;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+class QueryEncoderTest {
+
+  private static final String TEXT = "plain a+b=c&d \u00e9t\u00e9 \u20ac \ud83e\udd95 \ud800x \udc00";
+
+  private static TermGroup query() {
+    TermGroup group = new TermGroup();
+    group.addTerm(new Term("title", "pink panther"));
+    group.addTerm(new Term("name", "\u00e9mile \u20ac\ud83e\udd95").with(Occur.MUST));
+    group.addGroup().withBoost(2f).addTerm(new Term("year", "[1950 TO 1960]"));
+    return group;
+  }
+
+  private static byte[] bytes(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.get(bytes);
+    return bytes;
+  }
+
+  @Test
+  void testUtf8() throws IOException {
+    QueryEncoder encoder = new QueryEncoder(false);
+    encoder.append(TEXT);
+    assertArrayEquals(TEXT.getBytes(StandardCharsets.UTF_8), encoder.toByteArray());
+
+    // Reused after reset, and a pair split across appends
+    encoder.reset();
+    encoder.append("\ud83e").append('\udd95').append(null);
+    assertEquals("\ud83e\udd95null", new String(bytes(encoder.toByteBuffer()),
+        StandardCharsets.UTF_8));
+
+    TermGroup group = query();
+    encoder.reset();
+    encoder.encode(group);
+    assertArrayEquals(group.toString().getBytes(StandardCharsets.UTF_8), encoder.toByteArray());
+    assertEquals(encoder.size(), encoder.toByteBuffer().remaining());
+
+    Term term = group.getTerms().get(1);
+    encoder.reset();
+    assertArrayEquals(term.toString().getBytes(StandardCharsets.UTF_8),
+        encoder.encode(term).toByteArray());
+  }
+
+  @Test
+  void testFormUrlEncoded() throws IOException {
+    QueryEncoder encoder = new QueryEncoder(true);
+    encoder.append(TEXT);
+    assertEquals(URLEncoder.encode(TEXT, StandardCharsets.UTF_8),
+        new String(encoder.toByteArray(), StandardCharsets.US_ASCII));
+
+    TermGroup group = query();
+    TermGroup filter = new TermGroup();
+    filter.addTerm(new Term("type", "film"));
+    encoder.reset();
+    encoder.parameter("q", group).parameter("fq", filter);
+    assertEquals("q=" + URLEncoder.encode(group.toString(), StandardCharsets.UTF_8)
+            + "&fq=" + URLEncoder.encode(filter.toString(), StandardCharsets.UTF_8),
+        new String(encoder.toByteArray(), StandardCharsets.US_ASCII));
+  }
+
+  @Test
+  void testTrailingHighSurrogate() throws IOException {
+    // A high surrogate at the end of the query is written as ?, as toString().getBytes does
+    TermGroup group = new TermGroup();
+    group.setHasGroupingParenthesis(false);
+    group.addTerm(new Term("f", "ab\ud83d"));
+    byte[] expected = group.toString().getBytes(StandardCharsets.UTF_8);
+    assertArrayEquals(new byte[] {'f', ':', 'a', 'b', '?'}, expected);
+    assertEquals(expected.length, group.estimateRenderedBytes());
+    assertArrayEquals(expected, new QueryEncoder(false).encode(group).toByteArray());
+
+    QueryEncoder encoder = new QueryEncoder(false);
+    encoder.append("ab\ud83d");
+    assertArrayEquals(new byte[] {'a', 'b', '?'}, bytes(encoder.toByteBuffer()));
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new QueryEncoder(out, false).append("ab\ud83d").flush();
+    assertArrayEquals(new byte[] {'a', 'b', '?'}, out.toByteArray());
+
+    QueryEncoder form = new QueryEncoder(true);
+    form.parameter("q", group).parameter("fq", group);
+    assertEquals("q=f%3Aab%3F&fq=f%3Aab%3F",
+        new String(form.toByteArray(), StandardCharsets.US_ASCII));
+  }
+
+  @Test
+  void testOutputStream() throws IOException {
+    TermGroup group = new TermGroup();
+    for (int i = 0; i < 5000; i++) {
+      group.addTerm(new Term("name", "\u00e9mile " + i + " \ud83e\udd95"));
+    }
+    String text = group.toString();
+
+    int[] writes = {0};
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    OutputStream out = new OutputStream() {
+      @Override
+      public void write(int b) {
+        bytes.write(b);
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) {
+        writes[0]++;
+        assertTrue(len <= 8192);
+        bytes.write(b, off, len);
+      }
+    };
+    QueryEncoder encoder = new QueryEncoder(out, false);
+    encoder.encode(group).flush();
+    assertArrayEquals(text.getBytes(StandardCharsets.UTF_8), bytes.toByteArray());
+    assertTrue(writes[0] > 10);
+    assertEquals(0, encoder.size());
+
+    // The buffer grows when there is no stream
+    QueryEncoder growing = new QueryEncoder(true);
+    growing.encode(group);
+    assertEquals(URLEncoder.encode(text, StandardCharsets.UTF_8),
+        new String(growing.toByteArray(), StandardCharsets.US_ASCII));
+  }
+}
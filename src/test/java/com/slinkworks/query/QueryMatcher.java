@@ -0,0 +1,179 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.slinkworks.query;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Works out which documents a query matches the way the standard query parser would, for the
+ * tests of rewrites that must not change that. A document is the set of field:value tokens it has
+ * and a term matches when the document has its field:value. Boosts, proximity and ranges are
+ * ignored, so queries should be made of plain terms.
+ */
+final class QueryMatcher {
+
+  static final String[] FIELDS = {"a", "b"};
+  static final String[] VALUES = {"1", "2", "3"};
+
+  /**
+   * Random trees of plain terms on FIELDS and VALUES, and blank terms.
+   */
+  static final RandomTrees TREES =
+      new RandomTrees(FIELDS, new String[] {"1", "2", "3", " "}).termModifiers(false);
+
+  private QueryMatcher() {
+  }
+
+  /**
+   * @return every document that can be made of FIELDS and VALUES
+   */
+  static List<Set<String>> documents() {
+    List<String> tokens = new ArrayList<>();
+    for (String field : FIELDS) {
+      for (String value : VALUES) {
+        tokens.add(field + ":" + value);
+      }
+    }
+    List<Set<String>> documents = new ArrayList<>();
+    for (int bits = 0; bits < (1 << tokens.size()); bits++) {
+      Set<String> document = new HashSet<>();
+      for (int i = 0; i < tokens.size(); i++) {
+        if (0 != (bits & (1 << i))) {
+          document.add(tokens.get(i));
+        }
+      }
+      documents.add(document);
+    }
+    return documents;
+  }
+
+  /**
+   * @return for each of the documents, whether the query matches it
+   */
+  static List<Boolean> matches(TermGroup query, List<Set<String>> documents) {
+    List<Boolean> matches = new ArrayList<>(documents.size());
+    for (Set<String> document : documents) {
+      matches.add(matches(query, document));
+    }
+    return matches;
+  }
+
+  /**
+   * At the top a query of only MUST_NOT clauses matches everything else, as Solr makes it do.
+   * Anywhere below that it matches nothing.
+   */
+  static boolean matches(TermGroup query, Set<String> document) {
+    List<Clause> clauses = new ArrayList<>();
+    clauses(query, document, clauses);
+    boolean positive = false;
+    for (Clause clause : clauses) {
+      positive |= (Occur.MUST_NOT != clause.occur);
+    }
+    if (clauses.isEmpty() || positive) {
+      return evaluate(clauses);
+    }
+    for (Clause clause : clauses) {
+      if (clause.matches) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static void clauses(TermGroup group, Set<String> document, List<Clause> clauses) {
+    if (group.isEmpty()) {
+      return;
+    }
+    if (group.getHasGroupingParenthesis()) {
+      List<Clause> inside = new ArrayList<>();
+      inside(group, document, inside);
+      // A group with a blank term in it renders as ( ), which Solr can not parse at all.
+      if (!inside.isEmpty()) {
+        clauses.add(new Clause(group.getOccur(), evaluate(inside)));
+      }
+    } else {
+      inside(group, document, clauses);
+    }
+  }
+
+  private static void inside(TermGroup group, Set<String> document, List<Clause> clauses) {
+    for (Term term : group.getTerms()) {
+      if ((null != term) && term.isRenderable()) {
+        String field = (null == term.getField()) ? "" : term.getField();
+        clauses.add(new Clause(term.getOccur(), matches(field, term.getValue(), document)));
+      }
+    }
+    for (TermGroup subgroup : group.getGroups()) {
+      clauses(subgroup, document, clauses);
+    }
+  }
+
+  /**
+   * A value can be a field:( ) group of values, each with its own + or -.
+   */
+  private static boolean matches(String field, String value, Set<String> document) {
+    if (!value.startsWith("(")) {
+      return document.contains(field + ":" + value);
+    }
+    List<Clause> clauses = new ArrayList<>();
+    for (String token : value.substring(1, value.length() - 1).trim().split(" +")) {
+      Occur occur = token.startsWith("+") ? Occur.MUST
+          : (token.startsWith("-") ? Occur.MUST_NOT : Occur.SHOULD);
+      String plain = (Occur.SHOULD == occur) ? token : token.substring(1);
+      clauses.add(new Clause(occur, document.contains(field + ":" + plain)));
+    }
+    return evaluate(clauses);
+  }
+
+  private static boolean evaluate(List<Clause> clauses) {
+    boolean must = false;
+    boolean should = false;
+    for (Clause clause : clauses) {
+      switch (clause.occur) {
+        case MUST_NOT:
+          if (clause.matches) {
+            return false;
+          }
+          break;
+        case MUST:
+          if (!clause.matches) {
+            return false;
+          }
+          must = true;
+          break;
+        default:
+          should |= clause.matches;
+          break;
+      }
+    }
+    return must || should;
+  }
+
+  private static final class Clause {
+    private final Occur occur;
+    private final boolean matches;
+
+    Clause(Occur occur, boolean matches) {
+      this.occur = occur;
+      this.matches = matches;
+    }
+  }
+}
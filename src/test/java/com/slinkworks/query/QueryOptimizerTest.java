@@ -0,0 +1,161 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.slinkworks.query;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.slinkworks.query.QueryOptimizer.StandardRule;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+class QueryOptimizerTest {
+
+  private static String optimized(TermGroup group) {
+    new QueryOptimizer().optimize(group);
+    return group.toString();
+  }
+
+  @Test
+  void testOptimize() {
+    TermGroup group = new TermGroup();
+    group.addTerm(new Term("title", "a"));
+    TermGroup nested = group.addGroup();
+    nested.addTerm(new Term("title", "a"));
+    nested.addGroup().addTerm(new Term("title", "b"));
+    group.addGroup().with(Occur.MUST).addTerm(new Term("year", "1999"));
+    group.addGroup();
+    assertEquals("( title:a ( title:a ( title:b ) ) +( year:1999 ) )", group.toString());
+
+    QueryOptimizer.Report report = new QueryOptimizer().optimize(group);
+    assertEquals("title:a title:b +year:1999", group.toString());
+    assertEquals(1, report.count(StandardRule.EMPTY_CLAUSES.name()));
+    assertEquals(1, report.count(StandardRule.DUPLICATE_TERMS.name()));
+    assertEquals(1, report.count(StandardRule.POINTLESS_PARENTHESES.name()));
+    assertEquals(2, report.count(StandardRule.NESTED_SHOULD.name()));
+    assertEquals(1, report.count(StandardRule.SINGLE_CLAUSE.name()));
+    assertEquals(6, report.getChanges().size());
+    assertEquals("SINGLE_CLAUSE: replaced a group with +year:1999",
+        report.getChanges().get(4).toString());
+    assertTrue(new QueryOptimizer().optimize(group).isEmpty());
+  }
+
+  @Test
+  void testSingleClause() {
+    TermGroup group = new TermGroup();
+    group.addTerm(new Term("a", "1"));
+    group.addGroup().with(Occur.MUST_NOT).addTerm(new Term("a", "2").with(Occur.MUST));
+    group.addGroup().with(Occur.MUST).addTerm(new Term("a", "3").with(Occur.MUST_NOT));
+    TermGroup outer = group.addGroup().with(Occur.MUST);
+    outer.addGroup().with(Occur.SHOULD).withBoost(2f).addTerm(new Term("b", "1"));
+    assertEquals("a:1 -a:2 +( -a:3 ) +( b:1 )^2", optimized(group));
+  }
+
+  @Test
+  void testWhatIsKept() {
+    TermGroup group = new TermGroup().with(Occur.MUST);
+    group.addGroup().withLabel("keep");
+    group.addGroup(new TermFilterGroup()).addTerm(new Term("a", "1"));
+    group.addGroup().withBoost(2f).addTerm(new Term("a", "2"));
+    TermGroup negative = group.addGroup();
+    negative.addTerm(new Term("a", "3").with(Occur.MUST_NOT));
+    negative.addTerm(new Term("a", "4").with(Occur.MUST_NOT));
+    assertEquals("+( filter( a:1 ) ( a:2 )^2 ( -a:3 -a:4 ) )", optimized(group));
+    assertEquals(1, group.findByLabel("keep").size());
+
+    // A query of only negative clauses keeps its parentheses
+    TermGroup query = new TermGroup();
+    query.addTerm(new Term("a", "1").with(Occur.MUST_NOT));
+    assertEquals("( -a:1 )", optimized(query));
+  }
+
+  @Test
+  void testRegistry() {
+    QueryOptimizer optimizer = new QueryOptimizer();
+    assertEquals(List.of(StandardRule.values()), optimizer.getRules());
+
+    TermGroup group = new TermGroup();
+    group.addTerm(new Term("a", "1"));
+    group.addTerm(new Term("a", "1"));
+    optimizer.unregister(StandardRule.DUPLICATE_TERMS.name());
+    optimizer.optimize(group);
+    assertEquals("a:1 a:1", group.toString());
+
+    QueryRule upper = new QueryRule() {
+      @Override
+      public String name() {
+        return "UPPER";
+      }
+
+      @Override
+      public boolean apply(TermGroup group, QueryOptimizer.Report report) {
+        boolean changed = false;
+        for (Term term : group.getTerms()) {
+          if (!term.getValue().equals(term.getValue().toUpperCase())) {
+            term.setValue(term.getValue().toUpperCase());
+            report.add(this, "upper cased " + term);
+            changed = true;
+          }
+        }
+        return changed;
+      }
+    };
+    group.getTerms().get(0).setValue("x");
+    QueryOptimizer.Report report = optimizer.register(upper).optimize(group);
+    assertEquals("a:X a:1", group.toString());
+    assertEquals(1, report.count("UPPER"));
+    assertEquals(2, report.getPasses());
+    assertSame(upper, optimizer.getRules().get(optimizer.getRules().size() - 1));
+  }
+
+  @Test
+  void testFrozen() {
+    TermGroup group = new TermGroup();
+    group.addGroup().addTerm(new Term("a", "1"));
+    group.freeze();
+    assertThrows(UnsupportedOperationException.class,
+        () -> new QueryOptimizer().optimize(group));
+
+    TermGroup fork = group.fork();
+    assertEquals("a:1", optimized(fork));
+    assertEquals("( ( a:1 ) )", group.toString());
+  }
+
+  @Test
+  void testMatchesTheSame() {
+    List<Set<String>> documents = QueryMatcher.documents();
+    QueryOptimizer optimizer = new QueryOptimizer();
+    for (int seed = 0; seed < 2000; seed++) {
+      TermGroup group = QueryMatcher.TREES.build(new Random(seed));
+      String before = group.toString();
+      List<Boolean> expected = QueryMatcher.matches(group, documents);
+
+      QueryOptimizer.Report report = optimizer.optimize(group);
+      assertEquals(expected, QueryMatcher.matches(group, documents), seed + ": " + before);
+      assertTrue(group.toString().length() <= before.length(), seed + ": " + before);
+      assertFalse(report.getPasses() >= QueryOptimizer.MAX_PASSES);
+      assertTrue(optimizer.optimize(group).isEmpty(), seed + ": " + before);
+      assertEquals(group, new TermGroup(group));
+    }
+  }
+}
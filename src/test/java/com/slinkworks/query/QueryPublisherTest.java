@@ -0,0 +1,236 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.slinkworks.query;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URLEncoder;
+import java.net.http.HttpRequest;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Flow;
+import org.junit.jupiter.api.Test;
+
+class QueryPublisherTest {
+
+  private static final RandomTrees TREES = new RandomTrees(new String[] {"title", null, "year"},
+      new String[] {"dino", "pink \u00e9mile", "", "[1 TO 2]", "1984", "(a b)", "\ud83e\udd95"});
+
+  /**
+   * Asks for a chunk at a time, or for as many as it is told to.
+   */
+  private static class Collector implements Flow.Subscriber<ByteBuffer> {
+
+    final List<ByteBuffer> chunks = new ArrayList<>();
+    final boolean oneAtATime;
+    Flow.Subscription subscription;
+    Throwable error;
+    boolean complete;
+
+    Collector(boolean oneAtATime) {
+      this.oneAtATime = oneAtATime;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+      this.subscription = subscription;
+      if (oneAtATime) {
+        subscription.request(1);
+      }
+    }
+
+    @Override
+    public void onNext(ByteBuffer item) {
+      chunks.add(item);
+      if (oneAtATime) {
+        subscription.request(1);
+      }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      error = throwable;
+    }
+
+    @Override
+    public void onComplete() {
+      complete = true;
+    }
+
+    String text() {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      for (ByteBuffer chunk : chunks) {
+        ByteBuffer copy = chunk.duplicate();
+        while (copy.hasRemaining()) {
+          out.write(copy.get());
+        }
+      }
+      return out.toString(StandardCharsets.UTF_8);
+    }
+  }
+
+  private static String publish(Flow.Publisher<ByteBuffer> publisher, int chunkSize) {
+    Collector collector = new Collector(true);
+    publisher.subscribe(collector);
+    assertTrue(collector.complete);
+    assertNull(collector.error);
+    for (int i = 0; i < collector.chunks.size() - 1; i++) {
+      assertEquals(chunkSize, collector.chunks.get(i).remaining());
+    }
+    return collector.text();
+  }
+
+  @Test
+  void testSameAsToString() {
+    for (int seed = 0; seed < 300; seed++) {
+      TermGroup group = TREES.build(new Random(seed));
+      String text = group.toString();
+      int chunkSize = 1 + (seed % 40);
+      assertEquals(text, publish(new QueryPublisher(group, chunkSize), chunkSize), "seed " + seed);
+      assertEquals("q=" + URLEncoder.encode(text, StandardCharsets.UTF_8),
+          publish(new QueryPublisher("q", group, chunkSize), chunkSize), "seed " + seed);
+
+      // A fork renders the content it shares
+      TermGroup fork = group.freeze().fork();
+      assertEquals(text, publish(new QueryPublisher(fork, chunkSize), chunkSize), "seed " + seed);
+    }
+
+    // A high surrogate at the very end is written as ?, as toString().getBytes does
+    TermGroup group = new TermGroup();
+    group.setHasGroupingParenthesis(false);
+    group.addTerm(new Term("f", "ab\ud83d"));
+    assertEquals("f:ab?", publish(new QueryPublisher(group, 3), 3));
+    assertEquals("q=f%3Aab%3F", publish(new QueryPublisher("q", group, 3), 3));
+  }
+
+  @Test
+  void testLargeQuery() {
+    TermGroup ids = new TermFilterGroup();
+    for (int i = 0; i < 200_000; i++) {
+      ids.addTerm(new Term("id", "doc-" + i));
+    }
+    String text = ids.toString();
+    assertEquals(text, publish(new QueryPublisher(ids, 16 * 1024), 16 * 1024));
+  }
+
+  @Test
+  void testDemand() {
+    TermGroup group = new TermGroup();
+    for (int i = 0; i < 100; i++) {
+      group.addTerm(new Term("id", "doc-" + i));
+    }
+
+    Collector collector = new Collector(false);
+    new QueryPublisher(group, 10).subscribe(collector);
+    assertTrue(collector.chunks.isEmpty());
+    collector.subscription.request(2);
+    assertEquals(2, collector.chunks.size());
+    assertFalse(collector.complete);
+    collector.subscription.request(Long.MAX_VALUE);
+    collector.subscription.request(Long.MAX_VALUE);
+    assertTrue(collector.complete);
+    assertEquals(group.toString(), collector.text());
+
+    // Nothing after a cancel
+    collector = new Collector(false);
+    new QueryPublisher(group, 10).subscribe(collector);
+    collector.subscription.request(1);
+    collector.subscription.cancel();
+    collector.subscription.request(5);
+    assertEquals(1, collector.chunks.size());
+    assertFalse(collector.complete);
+
+    // Asking for nothing is an error
+    collector = new Collector(false);
+    new QueryPublisher(group, 10).subscribe(collector);
+    collector.subscription.request(0);
+    assertInstanceOf(IllegalArgumentException.class, collector.error);
+
+    // An empty group completes without a chunk
+    collector = new Collector(true);
+    new QueryPublisher(new TermGroup(), 10).subscribe(collector);
+    assertTrue(collector.complete);
+    assertTrue(collector.chunks.isEmpty());
+
+    assertThrows(IllegalArgumentException.class, () -> new QueryPublisher(group, 0));
+  }
+
+  @Test
+  void testRequestNothingFromOnNext() {
+    TermGroup group = new TermGroup();
+    for (int i = 0; i < 100; i++) {
+      group.addTerm(new Term("id", "doc-" + i));
+    }
+
+    // The error is delivered after onNext returns, never from inside it, and only once
+    List<String> signals = new ArrayList<>();
+    Collector collector = new Collector(false) {
+      boolean inOnNext;
+
+      @Override
+      public void onNext(ByteBuffer item) {
+        inOnNext = true;
+        signals.add("next");
+        super.onNext(item);
+        // Asks for one more chunk, then for nothing
+        subscription.request((chunks.size() < 2) ? 1 : 0);
+        signals.add("returned");
+        inOnNext = false;
+      }
+
+      @Override
+      public void onError(Throwable throwable) {
+        assertFalse(inOnNext);
+        signals.add("error");
+        super.onError(throwable);
+      }
+    };
+    new QueryPublisher(group, 10).subscribe(collector);
+    collector.subscription.request(1);
+    assertEquals(List.of("next", "returned", "next", "returned", "error"), signals);
+    assertInstanceOf(IllegalArgumentException.class, collector.error);
+    assertFalse(collector.complete);
+
+    // Nothing after the error
+    collector.subscription.request(5);
+    collector.subscription.request(0);
+    assertEquals(2, collector.chunks.size());
+    assertEquals(5, signals.size());
+  }
+
+  @Test
+  void testBodyPublisher() {
+    TermGroup group = TREES.build(new Random(7));
+    HttpRequest.BodyPublisher body =
+        HttpRequest.BodyPublishers.fromPublisher(new QueryPublisher("q", group, 64));
+    Collector collector = new Collector(true);
+    body.subscribe(collector);
+    assertTrue(collector.complete);
+    assertEquals("q=" + URLEncoder.encode(group.toString(), StandardCharsets.UTF_8),
+        collector.text());
+  }
+}
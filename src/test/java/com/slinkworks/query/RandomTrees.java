@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.slinkworks.query;
+
+import java.util.Random;
+
+/**
+ * Builds the random trees of TermGroups that the tests check a property over, such as rendering
+ * the same or matching the same. A tree has the structure the code has to get right: filters,
+ * labels, field factored groups, groups without parentheses, empty groups, boosts and constant
+ * scores, and duplicate terms, three levels deep.
+ */
+final class RandomTrees {
+
+  private final String[] fields;
+  private final String[] values;
+  private boolean withoutParentheses = true;
+  private boolean termModifiers = true;
+
+  /**
+   * @param fields the fields of the terms, null and "" for the default field
+   * @param values the values of the terms, blank ones make terms that do not render
+   */
+  RandomTrees(String[] fields, String[] values) {
+    this.fields = fields;
+    this.values = values;
+  }
+
+  /**
+   * @param withoutParentheses false to give every group parentheses
+   * @return this
+   */
+  RandomTrees withoutParentheses(boolean withoutParentheses) {
+    this.withoutParentheses = withoutParentheses;
+    return this;
+  }
+
+  /**
+   * @param termModifiers false for terms without proximity, boost or constant score
+   * @return this
+   */
+  RandomTrees termModifiers(boolean termModifiers) {
+    this.termModifiers = termModifiers;
+    return this;
+  }
+
+  /**
+   * @param random the same seed gives the same tree
+   * @return a new tree
+   */
+  TermGroup build(Random random) {
+    return group(random, 0);
+  }
+
+  private TermGroup group(Random random, int depth) {
+    TermGroup group = (0 == random.nextInt(6)) ? new TermFilterGroup() : new TermGroup();
+    if (withoutParentheses && (0 == random.nextInt(5))) {
+      group.setHasGroupingParenthesis(false);
+    } else {
+      group.setOccur(occur(random));
+    }
+    if (0 == random.nextInt(4)) {
+      group.setLabel("L" + random.nextInt(3));
+    }
+    if (0 == random.nextInt(5)) {
+      group.setBoost(random.nextFloat() * 4);
+    } else if (0 == random.nextInt(7)) {
+      group.setConstantScore(random.nextInt(4) + 1);
+    }
+    group.setFieldFactored(0 == random.nextInt(3));
+
+    for (int i = random.nextInt(4); i > 0; i--) {
+      Term term = new Term(fields[random.nextInt(fields.length)],
+          values[random.nextInt(values.length)]).with(occur(random));
+      if (termModifiers) {
+        if (0 == random.nextInt(3)) {
+          term.setProximity(random.nextInt(4));
+        }
+        if (0 == random.nextInt(3)) {
+          term.setBoost((0 == random.nextInt(3)) ? 10f : random.nextFloat() * 3);
+        } else if (0 == random.nextInt(4)) {
+          term.setConstantScore(random.nextFloat());
+        }
+      }
+      group.addTerm(term);
+    }
+    if (depth < 3) {
+      for (int i = random.nextInt(4); i > 0; i--) {
+        group.addGroup(group(random, depth + 1));
+      }
+    }
+    return group;
+  }
+
+  /**
+   * @return SHOULD more often than MUST, and MUST more often than MUST_NOT, so that few groups
+   * end up with only MUST_NOT clauses
+   */
+  private static Occur occur(Random random) {
+    int pick = random.nextInt(6);
+    return (pick < 3) ? Occur.SHOULD : ((pick < 5) ? Occur.MUST : Occur.MUST_NOT);
+  }
+}
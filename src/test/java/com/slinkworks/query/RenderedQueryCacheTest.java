@@ -0,0 +1,174 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.slinkworks.query;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class RenderedQueryCacheTest {
+
+  private static TermGroup query(String name) {
+    TermGroup group = new TermGroup();
+    group.setLabel("NAMES");
+    group.addTerm(new Term("FirstName", name));
+    group.addGroup().addTerm(new Term("BirthYear", "1856"));
+    return group;
+  }
+
+  @Test
+  void testHitsAndMisses() {
+    RenderedQueryCache cache = new RenderedQueryCache(10, 1000);
+    String first = cache.toString(query("Geoffrey"));
+    assertEquals(query("Geoffrey").toString(), first);
+    assertEquals(0, cache.hitCount());
+    assertEquals(1, cache.missCount());
+    assertEquals(1, cache.size());
+    assertEquals(first.length(), cache.weight());
+
+    // A different tree that renders the same
+    assertSame(first, cache.toString(query("Geoffrey")));
+    assertEquals(1, cache.hitCount());
+
+    // The render options are part of the key
+    String pretty = cache.prettyPrint(query("Geoffrey"), true, "", "  ", "\n");
+    assertEquals(query("Geoffrey").prettyPrint(true, "", "  ", "\n"), pretty);
+    assertEquals(2, cache.missCount());
+
+    TermGroup changing = query("Geoffrey");
+    cache.toString(changing);
+    assertEquals(2, cache.hitCount());
+    changing.getGroups().get(0).getTerms().get(0).setValue("1857");
+    assertEquals(changing.toString(), cache.toString(changing));
+    assertEquals(3, cache.missCount());
+
+    cache.clear();
+    assertEquals(0, cache.size());
+    assertEquals(0, cache.weight());
+    assertEquals(2, cache.hitCount());
+  }
+
+  @Test
+  void testEviction() {
+    RenderedQueryCache cache = new RenderedQueryCache(2, 1000);
+    cache.toString(query("a"));
+    cache.toString(query("b"));
+    cache.toString(query("a"));
+    cache.toString(query("c"));
+    assertEquals(2, cache.size());
+    assertEquals(1, cache.evictionCount());
+
+    // b was the least recently used
+    cache.toString(query("a"));
+    assertEquals(2, cache.hitCount());
+    cache.toString(query("b"));
+    assertEquals(4, cache.missCount());
+
+    // By weight
+    int length = query("a").toString().length();
+    cache = new RenderedQueryCache(100, 2L * length);
+    cache.toString(query("a"));
+    cache.toString(query("b"));
+    cache.toString(query("c"));
+    assertEquals(2, cache.size());
+    assertEquals(2L * length, cache.weight());
+    assertEquals(1, cache.evictionCount());
+
+    // Too long to hold at all
+    cache = new RenderedQueryCache(100, length - 1);
+    cache.toString(query("a"));
+    assertEquals(0, cache.size());
+    assertEquals(0, cache.evictionCount());
+
+    assertThrows(IllegalArgumentException.class, () -> new RenderedQueryCache(-1, 10));
+    assertThrows(IllegalArgumentException.class, () -> new RenderedQueryCache(10, -1));
+  }
+
+  @Test
+  void testFromManyThreads() throws Exception {
+    RenderedQueryCache cache = new RenderedQueryCache(20, 100_000L);
+    List<Thread> threads = new ArrayList<>();
+    List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+    for (int t = 0; t < 8; t++) {
+      final int n = t;
+      Thread thread = new Thread(() -> {
+        try {
+          for (int i = 0; i < 500; i++) {
+            // Mostly the same few queries, with some that push others out
+            int name = ((i % 7) == n) ? (i + 100 * n) : (i % 10);
+            TermGroup query = query(String.format("n%04d", name));
+            assertEquals(query.toString(), cache.toString(query));
+          }
+        } catch (Throwable e) {
+          failures.add(e);
+        }
+      });
+      threads.add(thread);
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertTrue(failures.isEmpty(), failures.toString());
+    assertEquals(8 * 500, cache.hitCount() + cache.missCount());
+    assertTrue(cache.size() <= 20);
+    assertEquals(cache.size() * query("n0000").toString().length(), cache.weight());
+  }
+
+  @Test
+  void testFingerprint() {
+    TermGroup group = query("Geoffrey");
+    Fingerprint fingerprint = group.fingerprint();
+    assertSame(fingerprint, group.fingerprint());
+    assertEquals(fingerprint, query("Geoffrey").fingerprint());
+    assertEquals(32, fingerprint.toString().length());
+
+    group.getGroups().get(0).setBoost(2f);
+    assertNotEquals(fingerprint, group.fingerprint());
+    group.getGroups().get(0).setBoost((Boost) null);
+    assertEquals(fingerprint, group.fingerprint());
+
+    group.setLabel("OTHER");
+    assertNotEquals(fingerprint, group.fingerprint());
+
+    // Equal, but rendered differently
+    TermFilterGroup filter = new TermFilterGroup();
+    filter.addTerm(new Term("FirstName", "Geoffrey"));
+    TermGroup plain = new TermGroup();
+    plain.addTerm(new Term("FirstName", "Geoffrey"));
+    assertEquals(plain, filter);
+    assertNotEquals(plain.fingerprint(), filter.fingerprint());
+
+    // Strings are not run together
+    TermGroup ab = new TermGroup();
+    ab.addTerm(new Term("ab", "c"));
+    TermGroup bc = new TermGroup();
+    bc.addTerm(new Term("a", "bc"));
+    assertNotEquals(ab.fingerprint(), bc.fingerprint());
+
+    assertNotEquals(fingerprint.withRenderOptions(false, "", "", " "),
+        fingerprint.withRenderOptions(true, "", "", " "));
+  }
+}
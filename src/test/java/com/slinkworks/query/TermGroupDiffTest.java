@@ -0,0 +1,148 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.slinkworks.query;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class TermGroupDiffTest {
+
+  private static TermGroup base() {
+    TermGroup root = new TermGroup();
+    TermGroup names = root.addGroup().withLabel("NAMES");
+    names.addTerm(new Term("FirstName", "Geoffrey"));
+    names.addTerm(new Term("LastName", "Slinker"));
+    TermGroup years = root.addGroup().withLabel("YEARS");
+    years.addTerm(new Term("BirthYear", "1856"));
+    TermFilterGroup filter = new TermFilterGroup();
+    filter.addTerm(new Term("type", "person"));
+    root.addGroup(filter);
+    return root;
+  }
+
+  @Test
+  void testNoChanges() {
+    assertTrue(TermGroupDiff.diff(base(), base()).isEmpty());
+    TermGroup template = base().freeze();
+    assertTrue(TermGroupDiff.diff(template, template.fork()).isEmpty());
+  }
+
+  @Test
+  void testChanges() {
+    TermGroup before = base();
+    TermGroup after = base();
+    after.setBoost(2f);
+    TermGroup names = after.findByLabel("NAMES").get(0);
+    names.getTerms().get(0).setValue("Jeff");
+    names.addTerm(new Term("MiddleName", "W"));
+    names.setOccur(Occur.MUST);
+    after.findByLabel("YEARS").get(0).getTerms().clear();
+    after.addGroup().withLabel("PLACES").addTerm(new Term("Place", "Utah"));
+
+    List<TermGroupDiff.Change> changes = TermGroupDiff.diff(before, after);
+    assertEquals(6, changes.size(), changes.toString());
+
+    assertEquals(TermGroupDiff.Kind.BOOST_CHANGED, changes.get(0).getKind());
+    assertEquals("/", changes.get(0).getPath());
+    assertEquals(Boost.valueOf(2f), changes.get(0).getAfter());
+
+    assertEquals(TermGroupDiff.Kind.OCCUR_CHANGED, changes.get(1).getKind());
+    assertEquals("/0", changes.get(1).getPath());
+    assertEquals(Occur.SHOULD, changes.get(1).getBefore());
+    assertEquals(Occur.MUST, changes.get(1).getAfter());
+
+    assertEquals(TermGroupDiff.Kind.TERM_MODIFIED, changes.get(2).getKind());
+    assertEquals("FirstName:Geoffrey", changes.get(2).getBefore().toString());
+    assertEquals("FirstName:Jeff", changes.get(2).getAfter().toString());
+
+    assertEquals(TermGroupDiff.Kind.TERM_ADDED, changes.get(3).getKind());
+    assertEquals("/0", changes.get(3).getPath());
+    assertSame(names.getTerms().get(2), changes.get(3).getAfter());
+
+    assertEquals(TermGroupDiff.Kind.TERM_REMOVED, changes.get(4).getKind());
+    assertEquals("/1", changes.get(4).getPath());
+    assertEquals("BirthYear:1856", changes.get(4).getBefore().toString());
+
+    assertEquals(TermGroupDiff.Kind.GROUP_ADDED, changes.get(5).getKind());
+    assertEquals("/3", changes.get(5).getPath());
+    assertSame(after.findByLabel("PLACES").get(0), changes.get(5).getAfter());
+  }
+
+  @Test
+  void testFieldFactoredChanged() {
+    TermGroup before = base();
+    TermGroup after = base();
+    after.findByLabel("NAMES").get(0).setFieldFactored(true);
+
+    List<TermGroupDiff.Change> changes = TermGroupDiff.diff(before, after);
+    assertEquals(1, changes.size(), changes.toString());
+    assertEquals(TermGroupDiff.Kind.FIELD_FACTORED_CHANGED, changes.get(0).getKind());
+    assertEquals("/0", changes.get(0).getPath());
+    assertEquals(true, changes.get(0).getAfter());
+  }
+
+  @Test
+  void testMovedAndRemovedGroups() {
+    TermGroup before = base();
+    TermGroup after = base();
+    // Moved, but the same
+    after.addGroup(after.getGroups().get(0));
+    List<TermGroupDiff.Change> changes = TermGroupDiff.diff(before, after);
+    assertTrue(changes.isEmpty(), changes.toString());
+
+    after.removeGroup(after.findByLabel("YEARS").get(0), false);
+    changes = TermGroupDiff.diff(before, after);
+    assertEquals(1, changes.size(), changes.toString());
+    assertEquals(TermGroupDiff.Kind.GROUP_REMOVED, changes.get(0).getKind());
+    assertEquals("/1", changes.get(0).getPath());
+
+    // A filter group is not paired with a plain group
+    TermGroup plain = new TermGroup();
+    plain.addTerm(new Term("type", "person"));
+    after = base();
+    after.getGroups().set(2, plain);
+    changes = TermGroupDiff.diff(before, after);
+    assertEquals(2, changes.size(), changes.toString());
+    assertEquals(TermGroupDiff.Kind.GROUP_REMOVED, changes.get(0).getKind());
+    assertEquals(TermGroupDiff.Kind.GROUP_ADDED, changes.get(1).getKind());
+  }
+
+  @Test
+  void testSkipsUnchangedGroups() {
+    TermGroup template = new TermGroup();
+    for (int i = 0; i < 50; i++) {
+      TermGroup group = template.addGroup().withLabel("G" + i);
+      for (int j = 0; j < 20; j++) {
+        group.addTerm(new Term("field" + j, "value" + i + "_" + j));
+      }
+    }
+    template.freeze();
+    TermGroup fork = template.fork();
+    fork.findByLabel("G7").get(0).getTerms().get(3).setValue("changed");
+
+    List<TermGroupDiff.Change> changes = TermGroupDiff.diff(template, fork);
+    assertEquals(1, changes.size(), changes.toString());
+    assertEquals("/7", changes.get(0).getPath());
+    assertEquals(TermGroupDiff.Kind.TERM_MODIFIED, changes.get(0).getKind());
+    assertEquals("TERM_MODIFIED /7 field3:value7_3 -> field3:changed", changes.get(0).toString());
+  }
+}
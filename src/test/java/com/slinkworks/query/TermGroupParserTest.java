@@ -0,0 +1,328 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.slinkworks.query;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class TermGroupParserTest {
+
+  @Test
+  void testTerms() {
+    TermGroup group = TermGroupParser.parse("+( title:\"pink panther\"~1 year:1964^2 -foo^=0.5 )");
+    assertEquals(Occur.MUST, group.getOccur());
+    assertEquals(3, group.getTerms().size());
+
+    Term title = group.getTerms().get(0);
+    assertEquals("title", title.getField());
+    assertEquals("\"pink panther\"", title.getValue());
+    assertEquals(1, title.getProximity().getValue());
+
+    Term year = group.getTerms().get(1);
+    assertEquals("1964", year.getValue());
+    assertEquals(2f, year.getBoost().getValue());
+
+    Term foo = group.getTerms().get(2);
+    assertNull(foo.getField());
+    assertEquals(Occur.MUST_NOT, foo.getOccur());
+    assertEquals(0.5f, foo.getConstantScore().getValue());
+
+    group = TermGroupParser.parse("title:(\"a b\" c) year:[1 TO 2}^0.5 id:{a TO \"]\"]");
+    assertFalse(group.getHasGroupingParenthesis());
+    assertEquals("(\"a b\" c)", group.getTerms().get(0).getValue());
+    assertEquals("[1 TO 2}", group.getTerms().get(1).getValue());
+    assertEquals("{a TO \"]\"]", group.getTerms().get(2).getValue());
+    assertEquals("title:(\"a b\" c) year:[1 TO 2}^0.5 id:{a TO \"]\"]", group.toString());
+
+    assertEquals("url:http\\://x", TermGroupParser.parse("url:http\\://x").toString());
+  }
+
+  @Test
+  void testModifiersATermCanNotHold() {
+    // A term can not boost field:(a b), the group holding it can
+    TermGroup group = TermGroupParser.parse("title:(a b)^2 -year:(1 2)^=3");
+    assertTrue(group.getTerms().isEmpty());
+    TermGroup title = group.getGroups().get(0);
+    assertEquals(2f, title.getBoost().getValue());
+    assertEquals("(a b)", title.getTerms().get(0).getValue());
+    TermGroup year = group.getGroups().get(1);
+    assertEquals(Occur.MUST_NOT, year.getOccur());
+    assertEquals(3f, year.getConstantScore().getValue());
+    assertEquals(Occur.SHOULD, year.getTerms().get(0).getOccur());
+    assertEquals("( title:(a b) )^2 -( year:(1 2) )^=3", group.toString());
+    assertEquals(group.toString(), TermGroupParser.parse(group.toString()).toString());
+
+    // The fuzzy a~ and a~0.8 stay part of the value
+    Term similar = TermGroupParser.parse("a~0.8").getTerms().get(0);
+    assertEquals("a~0.8", similar.getValue());
+    assertNull(similar.getProximity());
+    Term fuzzy = TermGroupParser.parse("title:foo~^2").getTerms().get(0);
+    assertEquals("foo~", fuzzy.getValue());
+    assertEquals(2f, fuzzy.getBoost().getValue());
+    assertEquals("a~0.8 title:foo~^2 b~1",
+        TermGroupParser.parse("a~0.8 title:foo~^2 b~1").toString());
+  }
+
+  @Test
+  void testGroups() {
+    TermGroup group = TermGroupParser.parse("( a -( b c )^2 +filter( d )^=3 )");
+    assertEquals(1, group.getTerms().size());
+    assertEquals(2, group.getGroups().size());
+    assertEquals(Occur.MUST_NOT, group.getGroups().get(0).getOccur());
+    assertEquals(2f, group.getGroups().get(0).getBoost().getValue());
+    TermGroup filter = group.getGroups().get(1);
+    assertInstanceOf(TermFilterGroup.class, filter);
+    assertEquals(Occur.MUST, filter.getOccur());
+    assertEquals(3f, filter.getConstantScore().getValue());
+    assertNull(group.getParentGroup());
+
+    // Terms render before sub groups
+    assertEquals("( a b ( c ) )", TermGroupParser.parse("(a (c) b)").toString());
+  }
+
+  @Test
+  void testOperators() {
+    assertEquals("a +b +c", TermGroupParser.parse("a b AND c").toString());
+    assertEquals("-x -y +( z )^=3", TermGroupParser.parse("NOT x !y && +(z)^=3").toString());
+    assertEquals("a b", TermGroupParser.parse("a OR b || ").toString());
+    assertEquals("ANDROID", TermGroupParser.parse("ANDROID").toString());
+  }
+
+  @Test
+  void testLabels() {
+    String query = "/* ROOT */\n(\n\t/* NAMES */\n\t+(\n\t\tFirstName:Geoffrey\n\t)\n"
+        + "\t/* YEARS */\n\tfilter(\n\t\tBirthYear:1856\n\t)\n)";
+    TermGroup group = TermGroupParser.parse(query);
+    assertEquals("ROOT", group.getLabel());
+    assertEquals("NAMES", group.getGroups().get(0).getLabel());
+    assertEquals("YEARS", group.getGroups().get(1).getLabel());
+    assertEquals(query, group.prettyPrint(true, "", "\t", "\n"));
+
+    // A comment in front of a term starts a group without parenthesis
+    group = TermGroupParser.parse("/* L */ a b /* M */ c");
+    assertEquals(2, group.getGroups().size());
+    assertEquals("L", group.getGroups().get(0).getLabel());
+    assertEquals(2, group.getGroups().get(0).getTerms().size());
+    assertFalse(group.getGroups().get(0).getHasGroupingParenthesis());
+    assertEquals("M", group.getGroups().get(1).getLabel());
+  }
+
+  @Test
+  void testErrors() {
+    assertThrows(IllegalArgumentException.class, () -> TermGroupParser.parse("( a"));
+    assertThrows(IllegalArgumentException.class, () -> TermGroupParser.parse("a )"));
+    assertThrows(IllegalArgumentException.class, () -> TermGroupParser.parse("title:"));
+    assertThrows(IllegalArgumentException.class, () -> TermGroupParser.parse(":a"));
+    assertThrows(IllegalArgumentException.class, () -> TermGroupParser.parse("a^x"));
+    assertThrows(IllegalArgumentException.class, () -> TermGroupParser.parse("\"a b"));
+    assertThrows(IllegalArgumentException.class, () -> TermGroupParser.parse("[1 TO 2"));
+    assertThrows(IllegalArgumentException.class, () -> TermGroupParser.parse("/* a"));
+    assertThrows(IllegalArgumentException.class, () -> TermGroupParser.parse("+ a"));
+    IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+        () -> TermGroupParser.parse("( a b"));
+    assertEquals("Missing ) at position 5", e.getMessage());
+
+    // A number too large for a float would render as Infinity
+    e = assertThrows(IllegalArgumentException.class, () -> TermGroupParser.parse("a^1e50"));
+    assertEquals("Expected a number at position 2", e.getMessage());
+    assertThrows(IllegalArgumentException.class, () -> TermGroupParser.parse("( a )^=-1e39"));
+  }
+
+  @Test
+  void testRoundTrip() {
+    String[] fields = {"title", null, "year"};
+    String[] values = {"dino", "pink panther", "\"q x\"", "[1 TO 2]", "1984", "{a TO b}", "a*"};
+    for (int seed = 0; seed < 500; seed++) {
+      Random random = new Random(seed);
+      TermGroup group = new RandomTrees(fields, values).withoutParentheses(false).build(random);
+
+      String text = group.toString();
+      assertEquals(text, TermGroupParser.parse(text).toString(), "seed " + seed);
+
+      String pretty = group.prettyPrint(true, "", "\t", "\n");
+      assertEquals(pretty, TermGroupParser.parse(pretty).prettyPrint(true, "", "\t", "\n"),
+          "seed " + seed);
+    }
+  }
+
+  /**
+   * Writes down every event.
+   */
+  private static class RecordingHandler implements TermGroupHandler {
+
+    final List<String> events = new ArrayList<>();
+
+    @Override
+    public void label(String label) {
+      events.add("label " + label);
+    }
+
+    @Override
+    public void startGroup(Occur occur, boolean filter) {
+      events.add("start " + occur.name() + " " + filter);
+    }
+
+    @Override
+    public void endGroup(Boost boost, ConstantScore constantScore) {
+      events.add("end " + boost + " " + constantScore);
+    }
+
+    @Override
+    public void term(String field, String value, Occur occur, Proximity proximity, Boost boost,
+        ConstantScore constantScore) {
+      events.add("term " + field + " " + value + " " + occur.name() + " " + proximity + " "
+          + boost + " " + constantScore);
+    }
+
+    @Override
+    public void and() {
+      events.add("and");
+    }
+  }
+
+  /**
+   * Hands out one char at a time, so every clause is split across reads.
+   */
+  private static class TrickleReader extends Reader {
+
+    private final String text;
+    private int pos = 0;
+
+    TrickleReader(String text) {
+      this.text = text;
+    }
+
+    @Override
+    public int read(char[] buffer, int offset, int length) {
+      if (pos >= text.length()) {
+        return -1;
+      }
+      buffer[offset] = text.charAt(pos++);
+      return 1;
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
+  @Test
+  void testEvents() throws IOException {
+    RecordingHandler handler = new RecordingHandler();
+    TermGroupParser.parse(new StringReader("/* L */ +( a~2^3 AND -b:\\c )^=2 filter(d)"),
+        handler);
+    assertEquals(List.of(
+        "label L",
+        "start MUST false",
+        "term null a SHOULD ~2 ^3 null",
+        "and",
+        "term b \\c MUST_NOT null null null",
+        "end null ^=2",
+        "start SHOULD true",
+        "term null d SHOULD null null null",
+        "end null null"), handler.events);
+  }
+
+  @Test
+  void testReadersAndBuffers() throws IOException {
+    for (int seed = 0; seed < 100; seed++) {
+      Random random = new Random(seed);
+      String query = new RandomTrees(new String[] {"title", null},
+          new String[] {"dino", "pink panther", "[1 TO 2]", "\\:x"}).withoutParentheses(false)
+          .build(random).prettyPrint(true, "", "\t", "\n");
+
+      RecordingHandler expected = new RecordingHandler();
+      TermGroupParser.parse(new StringReader(query), expected);
+
+      RecordingHandler trickle = new RecordingHandler();
+      TermGroupParser.parse(new TrickleReader(query), trickle);
+      assertEquals(expected.events, trickle.events, "seed " + seed);
+
+      RecordingHandler wrapped = new RecordingHandler();
+      CharBuffer buffer = CharBuffer.wrap(query);
+      TermGroupParser.parse(buffer, wrapped);
+      assertEquals(expected.events, wrapped.events, "seed " + seed);
+      assertEquals(0, buffer.remaining());
+
+      RecordingHandler array = new RecordingHandler();
+      CharBuffer slice = CharBuffer.wrap(("xx" + query + "yy").toCharArray(), 2, query.length());
+      TermGroupParser.parse(slice, array);
+      assertEquals(expected.events, array.events, "seed " + seed);
+    }
+
+    IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+        () -> TermGroupParser.parse(new TrickleReader("( a b"), new RecordingHandler()));
+    assertEquals("Missing ) at position 5", e.getMessage());
+  }
+
+  @Test
+  void testLargeInput() throws IOException {
+    // About 20 MB of ids, made up as it is read
+    int count = 1_000_000;
+    Reader ids = new Reader() {
+      private int next = 0;
+      private String pending = "filter(";
+
+      @Override
+      public int read(char[] buffer, int offset, int length) {
+        if (pending.isEmpty()) {
+          if (next < count) {
+            pending = " id:" + (next++) + "^1.5";
+          } else if (next == count) {
+            pending = " )";
+            next++;
+          } else {
+            return -1;
+          }
+        }
+        int n = Math.min(length, pending.length());
+        pending.getChars(0, n, buffer, offset);
+        pending = pending.substring(n);
+        return n;
+      }
+
+      @Override
+      public void close() {
+      }
+    };
+
+    long[] terms = new long[1];
+    TermGroupParser.parse(ids, new TermGroupHandler() {
+      @Override
+      public void term(String field, String value, Occur occur, Proximity proximity, Boost boost,
+          ConstantScore constantScore) {
+        assertEquals("id", field);
+        terms[0]++;
+      }
+    });
+    assertEquals(count, terms[0]);
+  }
+}
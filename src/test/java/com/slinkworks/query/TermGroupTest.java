@@ -22,11 +22,21 @@ import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertInstanceOf;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Random;
+import java.util.Set;
 import org.apache.commons.lang3.StringUtils;
 import org.junit.jupiter.api.Test;
 
@@ -347,6 +357,86 @@ class TermGroupTest {
     assertEquals("( ( ( ( FirstName:Geoffrey ) ) ) )", group.toString());
   }
 
+  @Test
+  void testIsEmptyTracksChanges() {
+    TermGroup root = new TermGroup();
+    TermGroup level1 = root.addGroup();
+    TermGroup level2 = level1.addGroup();
+    TermGroup level3 = level2.addGroup();
+    assertTrue(root.isEmpty());
+
+    Term term = new Term("", "");
+    level3.addTerm(term);
+    assertTrue(root.isEmpty());
+
+    // Terms report back when they stop or start being blank
+    term.setValue("bar");
+    assertFalse(level3.isEmpty());
+    assertFalse(root.isEmpty());
+    term.setValue(null);
+    assertTrue(root.isEmpty());
+    term.setField("foo");
+    assertFalse(root.isEmpty());
+    level3.removeTerm(term);
+    assertTrue(root.isEmpty());
+
+    // A term held by two groups counts in both
+    Term shared = new Term("foo", "bar");
+    level3.addTerm(shared);
+    level1.addTerm(shared);
+    assertFalse(level3.isEmpty());
+    assertFalse(level1.isEmpty());
+    level1.removeTerm(shared);
+    assertTrue(level1.termsAreEmpty());
+    assertFalse(level1.isEmpty());
+    shared.setValue("");
+    shared.setField("");
+    assertTrue(root.isEmpty());
+    shared.setValue("bar");
+    assertFalse(root.isEmpty());
+
+    // Moving, wrapping and removing groups
+    TermGroup other = new TermGroup();
+    other.addGroup(level3);
+    assertTrue(root.isEmpty());
+    assertFalse(other.isEmpty());
+
+    level3.wrapWith(new TermGroup());
+    assertFalse(other.isEmpty());
+    assertFalse(other.groupsAreEmpty());
+
+    root.addGroup(other);
+    assertFalse(root.isEmpty());
+    root.removeGroup(other, true);
+    assertFalse(root.isEmpty());
+    assertTrue(other.isEmpty());
+
+    // Changes made through the lists returned by getTerms and getGroups are seen too
+    TermGroup group = new TermGroup();
+    group.getTerms().add(new Term("foo", "bar"));
+    assertFalse(group.isEmpty());
+    group.getTerms().clear();
+    assertTrue(group.isEmpty());
+
+    TermGroup child = new TermGroup();
+    child.addTerm(new Term("foo", "bar"));
+    group.getGroups().add(child);
+    assertSame(group, child.getParentGroup());
+    assertFalse(group.isEmpty());
+    group.getGroups().remove(0);
+    assertNull(child.getParentGroup());
+    assertTrue(group.isEmpty());
+
+    // A swap puts each group in the other's place with set, and both stay in the group
+    group.getGroups().add(child);
+    TermGroup second = group.addGroup();
+    Collections.swap(group.getGroups(), 0, 1);
+    assertSame(group, child.getParentGroup());
+    assertSame(group, second.getParentGroup());
+    child.addTerm(new Term("foo", "baz"));
+    assertEquals("( ( foo:bar foo:baz ) )", group.toString());
+  }
+
   @Test
   void testPrettyPrint01() {
     TermGroup group = new TermGroup();
@@ -704,6 +794,37 @@ class TermGroupTest {
   }
 
 
+  @Test
+  void testPrettyPrintIntoBuffer() throws Exception {
+    TermGroup group = new TermGroup().with(Occur.MUST).withLabel("Root");
+    TermGroup inline = group.addGroup();
+    inline.setHasGroupingParenthesis(false);
+    inline.addTerm(new Term("title", "Van Halen").withProximity(1));
+    TermGroup labelled = group.addGroup().withLabel("Years").withBoost(0.3f);
+    labelled.addTerm(new Term("year", "[1950 TO 1960]"));
+    labelled.addTerm(new Term("", ""));
+    labelled.addTerm(new Term("title", ""));
+    labelled.addGroup(); // Intentionally empty
+    labelled.addGroup().addTerm(new Term("year", "1984").with(Occur.MUST_NOT));
+
+    StringBuilder sb = new StringBuilder("q=");
+    assertSame(sb, group.prettyPrint(sb, false, "", "", TermGroup.DEFAULT_SEPARATOR_STRING));
+    assertEquals("q=" + group.toString(), sb.toString());
+
+    StringWriter writer = new StringWriter();
+    group.prettyPrint(writer, true, " ", "  ", TermGroup.NEW_LINE_SEPARATOR_STRING);
+    assertEquals(group.prettyPrint(true, " ", "  ", TermGroup.NEW_LINE_SEPARATOR_STRING),
+        writer.toString());
+
+    writer = new StringWriter();
+    group.appendTo(writer);
+    assertEquals(group.toString(), writer.toString());
+
+    sb = new StringBuilder();
+    new TermGroup().prettyPrint(sb, true, "", "\t", TermGroup.NEW_LINE_SEPARATOR_STRING);
+    assertEquals("", sb.toString());
+  }
+
   @Test
   void testOuterOccur() {
     TermGroup group = new TermGroup();
@@ -774,6 +895,55 @@ class TermGroupTest {
     assertTrue(group.hasLabel("PARENT"));
   }
 
+  @Test
+  void testFindByLabelFollowsChanges() {
+    TermGroup root = new TermGroup().withLabel("ROOT");
+    TermGroup a = root.addGroup().withLabel("A");
+    TermGroup b = root.addGroup().withLabel("B");
+    TermGroup a2 = a.addGroup().withLabel("A");
+    assertEquals(List.of(a, a2), root.findByLabel("A"));
+    assertNotSame(root.findByLabel("A"), root.findByLabel("A"));
+    assertEquals(List.of(a2), a.findByLabel("A").subList(1, 2));
+    assertTrue(root.findByLabel("C").isEmpty());
+    // Every call hands out its own list, changing it does not change the next one
+    root.findByLabel("B").clear();
+    assertEquals(List.of(b), root.findByLabel("B"));
+
+    b.setLabel("A");
+    assertEquals(List.of(a, a2, b), root.findByLabel("A"));
+    assertTrue(root.findByLabel("B").isEmpty());
+
+    a2.setLabel("C");
+    assertEquals(List.of(a2), root.findByLabel("C"));
+    assertEquals(List.of(a, b), root.findByLabel("A"));
+
+    TermGroup c = b.addGroup().withLabel("C");
+    assertEquals(List.of(a2, c), root.findByLabel("C"));
+
+    a.removeGroup(a2);
+    assertEquals(List.of(c), root.findByLabel("C"));
+    assertEquals(List.of(a2), a2.findByLabel("C"));
+
+    TermGroup wrapper = new TermGroup().withLabel("W");
+    c.wrapWith(wrapper);
+    assertEquals(List.of(wrapper), root.findByLabel("W"));
+    assertEquals(List.of(c), root.findByLabel("C"));
+
+    // Moving a group takes it out of the tree it was in
+    TermGroup other = new TermGroup();
+    assertEquals(List.of(c), wrapper.findByLabel("C"));
+    other.addGroup(c);
+    assertTrue(root.findByLabel("C").isEmpty());
+    assertTrue(wrapper.findByLabel("C").isEmpty());
+    assertEquals(List.of(c), other.findByLabel("C"));
+
+    root.getGroups().add(other);
+    assertEquals(List.of(c), root.findByLabel("C"));
+    root.getGroups().clear();
+    assertEquals(List.of(root), root.findByLabel("ROOT"));
+    assertTrue(root.findByLabel("A").isEmpty());
+  }
+
   @Test
   void testIsValid() {
     TermGroup group = new TermGroup();
@@ -834,6 +1004,24 @@ class TermGroupTest {
     assertEquals(expectedString, queryString);
   }
 
+  @Test
+  void testWrapWith_03() {
+    // The group is found among its siblings by identity, not by equals
+    TermGroup level1 = new TermGroup();
+    TermGroup first = level1.addGroup();
+    first.addTerm(new Term("foo", "bar"));
+    TermGroup second = level1.addGroup();
+    second.addTerm(new Term("foo", "bar"));
+    assertEquals(first, second);
+
+    TermGroup wrapperGrouper = new TermGroup();
+    wrapperGrouper.setOccur(Occur.MUST_NOT);
+    second.wrapWith(wrapperGrouper);
+    assertSame(first, level1.getGroups().get(0));
+    assertSame(wrapperGrouper, level1.getGroups().get(1));
+    assertEquals("( ( foo:bar ) -( ( foo:bar ) ) )", level1.toString());
+  }
+
   @Test
   void testReplication() {
     TermGroup group = new TermGroup();
@@ -1166,6 +1354,82 @@ class TermGroupTest {
 
   }
 
+  @Test
+  void testEqualsAndHashCodeFollowDeepChanges() {
+    TermGroup group1 = BenchmarkLikeTree.build();
+    TermGroup group2 = new TermGroup(group1);
+    assertEquals(group1.hashCode(), group2.hashCode());
+    assertEquals(group1, group2);
+
+    Term term = group1.getGroups().get(4).getGroups().get(2).getTerms().get(3);
+    term.setValue("changed");
+    assertNotEquals(group1.hashCode(), group2.hashCode());
+    assertNotEquals(group1, group2);
+    assertEquals(new TermGroup(group1).hashCode(), group1.hashCode());
+
+    term.setValue("value423");
+    assertEquals(group1.hashCode(), group2.hashCode());
+    assertEquals(group1, group2);
+
+    group2.getGroups().get(5).getGroups().get(0).setBoost(2f);
+    assertNotEquals(group1, group2);
+    group2.getGroups().get(5).getGroups().get(0).setBoost((Boost) null);
+    assertEquals(group1.hashCode(), group2.hashCode());
+    assertEquals(group1, group2);
+
+    group1.getGroups().get(0).getGroups().get(0).addGroup().addTerm(new Term("a", "b"));
+    assertNotEquals(group1, group2);
+    assertEquals(new TermGroup(group1).hashCode(), group1.hashCode());
+    group1.getGroups().get(0).getGroups().get(0).getGroups().clear();
+    assertEquals(group1.hashCode(), group2.hashCode());
+    assertEquals(group1, group2);
+
+    // Through a fork
+    TermGroup template = new TermGroup(group1).freeze();
+    TermGroup fork = template.fork();
+    assertEquals(template.hashCode(), fork.hashCode());
+    fork.findByLabel("L1").get(0).setLabel("L4");
+    assertNotEquals(template.hashCode(), fork.hashCode());
+    assertEquals(new TermGroup(fork).hashCode(), fork.hashCode());
+    assertEquals(new TermGroup(fork).fingerprint(), fork.fingerprint());
+    assertNotEquals(template.fingerprint(), fork.fingerprint());
+  }
+
+  @Test
+  void testEqualsAndHashCodeFollowValuesChangedInPlace() {
+    // The group holds the caller's boost, the copy one of its own
+    Boost boost = new Boost(1.5f);
+    TermGroup root = new TermGroup();
+    TermGroup group1 = root.addGroup().with(boost);
+    group1.addTerm(new Term("a", "b"));
+    TermGroup group2 = new TermGroup(group1);
+    assertSame(boost, group1.getBoost());
+    assertNotSame(boost, group2.getBoost());
+    assertEquals(group1.hashCode(), group2.hashCode());
+    int rootHash = root.hashCode();
+    Fingerprint fingerprint = group1.fingerprint();
+
+    boost.setValue(2f);
+    assertNotEquals(group1, group2);
+    assertNotEquals(rootHash, root.hashCode());
+    assertNotEquals(fingerprint, group1.fingerprint());
+    group2.setBoost(2f);
+    assertEquals(group1, group2);
+    assertEquals(group2, group1);
+    assertEquals(group1.hashCode(), group2.hashCode());
+    assertEquals(group1.fingerprint(), group2.fingerprint());
+
+    ConstantScore constantScore = new ConstantScore(3f);
+    group1.setConstantScore(constantScore);
+    group2.setConstantScore(3f);
+    assertEquals(group1.hashCode(), group2.hashCode());
+    constantScore.setValue(4f);
+    assertNotEquals(group1, group2);
+    group2.setConstantScore(4f);
+    assertEquals(group1, group2);
+    assertEquals(group1.hashCode(), group2.hashCode());
+  }
+
 
   @Test
   void testAddingAndRemovingGroups() {
@@ -1211,4 +1475,452 @@ class TermGroupTest {
 
   }
 
+  @Test
+  void testEstimateRenderedLength() {
+    TermGroup root = new TermGroup();
+    root.setLabel("ROOT");
+    root.addTerm(new Term("title", "pink panther").withBoost(1.5f));
+    TermGroup filter = root.addGroup(new TermFilterGroup()).withConstantScore(2f);
+    filter.setLabel("FILTER");
+    filter.addTerm(new Term("name", "\u00e9mile \ud83e\udd95").with(Occur.MUST).withProximity(2));
+    TermGroup bare = filter.addGroup();
+    bare.setHasGroupingParenthesis(false);
+    bare.setLabel("BARE");
+    bare.addTerm(new Term("year", "[1950 TO 1960]"));
+    bare.addTerm(new Term("id", "1"));
+    root.addGroup().addTerm(new Term("", ""));
+
+    String[][] arguments = {{"", "", " "}, {"", "\t", "\n"}, {" ", "\u00e9\u00e9", "\r\n"}};
+    for (int change = 0; change < 4; change++) {
+      switch (change) {
+        case 1:
+          bare.getTerms().get(0).setBoost(0.25f);
+          break;
+        case 2:
+          filter.setOccur(Occur.MUST_NOT);
+          root.getGroups().get(1).addTerm(new Term("x"));
+          break;
+        case 3:
+          root.removeGroup(filter);
+          break;
+        default:
+          break;
+      }
+      for (String[] argument : arguments) {
+        for (boolean includeLabels : new boolean[] {false, true}) {
+          String text = root.prettyPrint(includeLabels, argument[0], argument[1], argument[2]);
+          assertEquals(text.length(), root.estimateRenderedLength(includeLabels, argument[0],
+              argument[1], argument[2]), text);
+          assertEquals(text.getBytes(StandardCharsets.UTF_8).length,
+              root.estimateRenderedBytes(includeLabels, argument[0], argument[1], argument[2]),
+              text);
+        }
+      }
+      assertEquals(root.toString().length(), root.estimateRenderedLength());
+      assertEquals(root.toString().getBytes(StandardCharsets.UTF_8).length,
+          root.estimateRenderedBytes());
+    }
+
+    // A fork counts what it shares
+    TermGroup fork = new TermGroup(root).freeze().fork();
+    assertEquals(root.estimateRenderedLength(), fork.estimateRenderedLength());
+    fork.getGroups().get(0).addTerm(new Term("more"));
+    assertEquals(fork.toString().length(), fork.estimateRenderedLength());
+
+    assertEquals(0, new TermGroup().estimateRenderedLength());
+  }
+
+  @Test
+  void testFieldFactored() {
+    TermGroup group = new TermGroup();
+    group.addTerm(new Term("title", "a"));
+    group.addTerm(new Term("title", "pink panther").withProximity(2));
+    group.addTerm(new Term("title", " "));
+    group.addTerm(new Term("title", "c"));
+    group.addTerm(new Term("year", "1999").with(Occur.MUST));
+    group.addTerm(new Term("year", "[2000 TO 2010]").with(Occur.MUST));
+    group.addTerm(new Term("year", "2020"));
+    group.addTerm(new Term("id", "1").with(Occur.MUST_NOT));
+    group.addTerm(new Term("id", "2").with(Occur.MUST_NOT));
+    group.addTerm(new Term("id", "3").with(Occur.MUST_NOT).withBoost(2f));
+    group.addTerm(new Term("id", "-4"));
+    group.addTerm(new Term("id", "5"));
+    group.addTerm(new Term("\u00e9t\u00e9", "\u20ac"));
+    group.addTerm(new Term("\u00e9t\u00e9", "\ud83e\udd95"));
+    group.addTerm(new Term("dino"));
+    group.addTerm(new Term("dino"));
+    group.addGroup().withLabel("SUB").addTerm(new Term("title", "x"));
+    group.getGroups().get(0).addTerm(new Term("title", "y"));
+    String plain = group.toString();
+    TermGroup copy = new TermGroup(group);
+
+    group.setFieldFactored(true);
+    assertTrue(group.isFieldFactored());
+    assertEquals("( title:(a \"pink panther\"~2 c) +year:(+1999 +[2000 TO 2010]) year:2020"
+        + " -id:(1 2) -id:3^2 id:-4 id:5 \u00e9t\u00e9:(\u20ac \ud83e\udd95) dino dino"
+        + " ( title:x title:y ) )", group.toString());
+    assertNotEquals(copy, group);
+    assertNotEquals(copy.fingerprint(), group.fingerprint());
+    assertEquals(group, new TermGroup(group));
+    assertEquals(group.toString(), group.freeze().fork().toString());
+    assertEquals(group.toString(), PersistentTermGroup.of(group).toString());
+
+    String[][] arguments = {{"", "", " "}, {"", "\t", "\n"}, {" ", "\u00e9\u00e9", "\r\n"}};
+    for (String[] argument : arguments) {
+      for (boolean includeLabels : new boolean[] {false, true}) {
+        String text = group.prettyPrint(includeLabels, argument[0], argument[1], argument[2]);
+        assertEquals(text.length(), group.estimateRenderedLength(includeLabels, argument[0],
+            argument[1], argument[2]), text);
+        assertEquals(text.getBytes(StandardCharsets.UTF_8).length,
+            group.estimateRenderedBytes(includeLabels, argument[0], argument[1], argument[2]),
+            text);
+      }
+    }
+
+    copy.withFieldFactored(true).setFieldFactored(false);
+    assertEquals(plain, copy.toString());
+  }
+
+  @Test
+  void testFieldFactoredMatchesTheSame() {
+    List<Set<String>> documents = QueryMatcher.documents();
+    for (int seed = 0; seed < 1000; seed++) {
+      TermGroup group = QueryMatcher.TREES.build(new Random(seed));
+      List<Boolean> expected = QueryMatcher.matches(group, documents);
+      factor(group);
+      String text = group.toString();
+      assertEquals(expected, QueryMatcher.matches(TermGroupParser.parse(text), documents), text);
+      assertEquals(text.length(), group.estimateRenderedLength(), text);
+    }
+  }
+
+  private static void factor(TermGroup group) {
+    group.setFieldFactored(true);
+    for (TermGroup subgroup : group.getGroups()) {
+      factor(subgroup);
+    }
+  }
+
+  @Test
+  void testRenderingIsReused() {
+    CountingGroup root = new CountingGroup();
+    CountingGroup left = new CountingGroup();
+    CountingGroup right = new CountingGroup();
+    root.addGroup(left);
+    root.addGroup(right);
+    left.addTerm(new Term("title", "dino"));
+    Term term = new Term("year", "1984");
+    right.addTerm(term);
+
+    String first = root.toString();
+    assertEquals(3, root.renders + left.renders + right.renders);
+
+    // Nothing changed, the same string comes back without rendering again
+    assertSame(first, root.toString());
+    assertEquals(3, root.renders + left.renders + right.renders);
+
+    // A sub group's text is taken out of the parent's rendering
+    assertEquals(new TermGroup(left).toString(), left.toString());
+    assertEquals(1, left.renders);
+
+    // A change renders the changed group and the groups above it, not its siblings
+    term.setBoost(2f);
+    String second = root.toString();
+    assertEquals(new TermGroup(root).toString(), second);
+    assertEquals(2, root.renders);
+    assertEquals(1, left.renders);
+    assertEquals(2, right.renders);
+
+    // Different arguments are a different rendering
+    assertEquals(new TermGroup(root).prettyPrint(), root.prettyPrint());
+    assertEquals(3, root.renders);
+
+    // Everything that changes the text is noticed
+    left.setLabel("LEFT");
+    assertEquals(new TermGroup(root).prettyPrint(true, "", " ", "\n"),
+        root.prettyPrint(true, "", " ", "\n"));
+    right.setOccur(Occur.MUST_NOT);
+    assertEquals(new TermGroup(root).toString(), root.toString());
+    left.getTerms().get(0).setValue("panther");
+    assertEquals(new TermGroup(root).toString(), root.toString());
+    root.getGroups().remove(left);
+    assertEquals(new TermGroup(root).toString(), root.toString());
+    term.setValue("");
+    term.setField(null);
+    assertEquals("", root.toString());
+    assertEquals(new TermGroup(left).toString(), left.toString());
+  }
+
+  @Test
+  void testRenderingAGroupThatBecomesNonEmpty() {
+    TermGroup root = new TermGroup();
+    root.addTerm(new Term("foo", "bar"));
+    TermGroup empty = root.addGroup();
+    TermGroup child = empty.addGroup();
+    child.addTerm(new Term("", ""));
+    assertEquals("( foo:bar )", root.toString());
+
+    // The child of an empty group is not rendered, it still has to reach the root
+    child.getTerms().get(0).setValue("baz");
+    assertEquals(new TermGroup(root).toString(), root.toString());
+    child.setOccur(Occur.MUST);
+    assertEquals(new TermGroup(root).toString(), root.toString());
+  }
+
+  @Test
+  void testEstimatingAGroupThatBecomesNonEmpty() {
+    TermGroup root = new TermGroup();
+    root.addTerm(new Term("x"));
+    TermGroup empty = root.addGroup();
+    TermGroup child = empty.addGroup();
+    assertEquals(root.toString().length(), root.estimateRenderedLength());
+
+    // The estimate of the empty group was taken before anything below it could be rendered
+    child.addTerm(new Term("\u00e9t\u00e9"));
+    String text = root.toString();
+    assertEquals(text.length(), root.estimateRenderedLength());
+    assertEquals(text.getBytes(StandardCharsets.UTF_8).length, root.estimateRenderedBytes());
+    assertEquals(new TermGroup(root).hashCode(), root.hashCode());
+  }
+
+  @Test
+  void testRenderingFollowsValuesChangedInPlace() {
+    // The cached rendering and size do not go stale when a value is changed in place
+    Boost boost = new Boost(1.5f);
+    Proximity proximity = new Proximity(1);
+    TermGroup root = new TermGroup();
+    TermGroup group = root.addGroup().with(boost);
+    group.addTerm(new Term("title", "dino").with(proximity));
+    assertEquals("( ( title:dino~1 )^1.5 )", root.toString());
+    assertEquals(root.toString().length(), root.estimateRenderedLength());
+    TermGroup copy = new TermGroup(root);
+
+    boost.setValue(2.5f);
+    proximity.setValue(20);
+    assertEquals("( ( title:dino~20 )^2.5 )", root.toString());
+    assertEquals(root.toString().length(), root.estimateRenderedLength());
+    assertEquals("( title:dino~20 )^2.5", group.toString());
+
+    // A copy keeps the values it was made with
+    assertEquals("( ( title:dino~1 )^1.5 )", copy.toString());
+
+    // A value held by a group and a term in two trees changes both
+    Boost shared = new Boost(2f);
+    TermGroup other = new TermGroup().with(shared);
+    other.addTerm(new Term("year", "1984").with(shared));
+    root.addGroup(new TermGroup().with(shared)).addTerm(new Term("a", "b"));
+    assertEquals("( year:1984^2 )^2", other.toString());
+    root.toString();
+    shared.setValue(4f);
+    assertEquals("( year:1984^4 )^4", other.toString());
+    assertEquals("( ( title:dino~20 )^2.5 ( a:b )^4 )", root.toString());
+    assertEquals(root.toString().length(), root.estimateRenderedLength());
+    root.getGroups().remove(1);
+
+    // A frozen tree keeps the values it was frozen with
+    root.freeze();
+    boost.setValue(3f);
+    assertEquals("( ( title:dino~20 )^2.5 )", root.toString());
+    assertEquals(root.toString(), root.fork().toString());
+  }
+
+  @Test
+  void testFormatFloat() {
+    assertEquals("10", TermGroup.formatFloat(10f));
+    assertEquals("100", TermGroup.formatFloat(100f));
+    assertEquals("0", TermGroup.formatFloat(0f));
+    assertEquals("0", TermGroup.formatFloat(-0.00001f));
+    assertEquals("-2.5", TermGroup.formatFloat(-2.5f));
+    assertEquals("1.0001", TermGroup.formatFloat(1.0001f));
+    assertEquals("12345678", TermGroup.formatFloat(12345678f));
+    assertEquals("100000002004087734272", TermGroup.formatFloat(1e20f));
+    assertEquals("NaN", TermGroup.formatFloat(Float.NaN));
+    assertEquals("-Infinity", TermGroup.formatFloat(Float.NEGATIVE_INFINITY));
+
+    Random random = new Random(42);
+    for (int i = 0; i < 10000; i++) {
+      float f = Float.intBitsToFloat(random.nextInt());
+      if (Float.isFinite(f)) {
+        String expected = new BigDecimal(f).setScale(4, RoundingMode.HALF_UP).stripTrailingZeros()
+            .toPlainString();
+        if (new BigDecimal(expected).signum() == 0) {
+          expected = "0";
+        }
+        assertEquals(expected, TermGroup.formatFloat(f));
+      }
+      f = (random.nextInt(100000) - 50000) / 1000f;
+      assertEquals(new BigDecimal(f).setScale(4, RoundingMode.HALF_UP).stripTrailingZeros()
+          .toPlainString().replaceAll("^-?0$", "0"), TermGroup.formatFloat(f));
+    }
+  }
+
+  @Test
+  void testFork() {
+    TermGroup template = new TermGroup().withLabel("ROOT");
+    TermGroup names = template.addGroup().withLabel("NAMES").with(Occur.MUST);
+    names.addTerm(new Term("FirstName", "Geoffrey"));
+    names.addTerm(new Term("FirstName", "Jeff"));
+    TermGroup years = template.addGroup().withLabel("YEARS");
+    years.addTerm(new Term("BirthYear", "1856"));
+    TermFilterGroup filter = new TermFilterGroup();
+    filter.addTerm(new Term("type", "person"));
+    template.addGroup(filter);
+    String expected = template.toString();
+
+    assertSame(template, template.freeze());
+    assertTrue(template.isFrozen());
+    assertTrue(names.isFrozen());
+    assertTrue(names.getTerms().get(0).isFrozen());
+    assertThrows(UnsupportedOperationException.class, () -> names.setBoost(2f));
+    assertThrows(UnsupportedOperationException.class, () -> names.addTerm(new Term("a", "b")));
+    assertThrows(UnsupportedOperationException.class, () -> template.getGroups().clear());
+    assertThrows(UnsupportedOperationException.class, () -> new TermGroup().addGroup(names));
+
+    TermGroup fork = template.fork();
+    assertFalse(fork.isFrozen());
+    assertEquals(expected, fork.toString());
+    assertEquals(template.prettyPrint(true, "", " ", "\n"), fork.prettyPrint(true, "", " ", "\n"));
+    assertEquals(template, fork);
+    assertEquals(template.hashCode(), fork.hashCode());
+    assertFalse(fork.isEmpty());
+
+    // Changes go to the fork, never to the template
+    TermGroup forkedYears = fork.findByLabel("YEARS").get(0);
+    assertNotSame(years, forkedYears);
+    assertSame(fork, forkedYears.getParentGroup());
+    forkedYears.setBoost(2f);
+    forkedYears.getTerms().get(0).setValue("1857");
+    fork.findByLabel("NAMES").get(0).addTerm(new Term("FirstName", "G"));
+
+    TermGroup copy = new TermGroup(template);
+    copy.findByLabel("YEARS").get(0).setBoost(2f);
+    copy.findByLabel("YEARS").get(0).getTerms().get(0).setValue("1857");
+    copy.findByLabel("NAMES").get(0).addTerm(new Term("FirstName", "G"));
+    assertEquals(copy.toString(), fork.toString());
+    assertEquals(copy, fork);
+    assertEquals(expected, template.toString());
+    assertInstanceOf(TermFilterGroup.class, fork.getGroups().get(2));
+
+    // Emptying a group in the fork
+    TermGroup other = template.fork();
+    other.getGroups().get(0).getTerms().clear();
+    other.getGroups().get(1).getTerms().clear();
+    other.getGroups().get(2).getTerms().clear();
+    assertTrue(other.isEmpty());
+    assertEquals("", other.toString());
+    assertEquals(expected, template.fork().toString());
+
+    // A group that is not frozen is copied
+    TermGroup plain = new TermGroup();
+    plain.addTerm(new Term("foo", "bar"));
+    TermGroup plainFork = plain.fork();
+    assertNotSame(plain.getTerms().get(0), plainFork.getTerms().get(0));
+    assertEquals(plain, plainFork);
+  }
+
+  @Test
+  void testForkFromManyThreads() throws Exception {
+    TermGroup template = BenchmarkLikeTree.build();
+    String expected = new TermGroup(template).toString();
+    template.freeze();
+
+    List<Thread> threads = new ArrayList<>();
+    List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+    for (int t = 0; t < 8; t++) {
+      final int n = t;
+      Thread thread = new Thread(() -> {
+        try {
+          for (int i = 0; i < 200; i++) {
+            TermGroup fork = template.fork();
+            assertEquals(expected, fork.toString());
+            TermGroup group = fork.findByLabel("L" + (i % 3)).get(0);
+            group.setBoost(n + 1f);
+            TermGroup copy = new TermGroup(template);
+            copy.findByLabel("L" + (i % 3)).get(0).setBoost(n + 1f);
+            assertEquals(copy.toString(), fork.toString());
+          }
+        } catch (Throwable e) {
+          failures.add(e);
+        }
+      });
+      threads.add(thread);
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertTrue(failures.isEmpty(), failures.toString());
+    assertEquals(expected, template.toString());
+  }
+
+  @Test
+  void testRenderFrozenFromManyThreads() throws Exception {
+    TermGroup tree = BenchmarkLikeTree.build();
+    tree.getGroups().get(1).getGroups().get(2).getTerms().remove(0);
+    String expected = tree.toString();
+    String expectedPretty = tree.prettyPrint(true, "", "  ", "\n");
+    String expectedChild = tree.getGroups().get(3).toString();
+    TermGroup frozen = new TermGroup(tree).freeze();
+
+    List<Thread> threads = new ArrayList<>();
+    List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+    for (int t = 0; t < 8; t++) {
+      Thread thread = new Thread(() -> {
+        try {
+          for (int i = 0; i < 500; i++) {
+            // Alternates the arguments so the threads keep replacing each other's renderings
+            assertEquals(expected, frozen.toString());
+            assertEquals(expectedPretty, frozen.prettyPrint(true, "", "  ", "\n"));
+            assertEquals(expectedChild, frozen.getGroups().get(3).toString());
+          }
+        } catch (Throwable e) {
+          failures.add(e);
+        }
+      });
+      threads.add(thread);
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertTrue(failures.isEmpty(), failures.toString());
+  }
+
+  /**
+   * A few hundred groups, three of them labeled.
+   */
+  private static final class BenchmarkLikeTree {
+
+    static TermGroup build() {
+      TermGroup root = new TermGroup();
+      for (int i = 0; i < 6; i++) {
+        TermGroup child = root.addGroup().withLabel("L" + (i % 3));
+        for (int j = 0; j < 6; j++) {
+          TermGroup grandChild = child.addGroup();
+          for (int k = 0; k < 5; k++) {
+            grandChild.addTerm(new Term("field" + k, "value" + i + j + k));
+          }
+        }
+      }
+      return root;
+    }
+  }
+
+  /**
+   * Counts how many times the group has been rendered rather than taken from the cache.
+   */
+  private static class CountingGroup extends TermGroup {
+
+    int renders = 0;
+
+    @Override
+    protected String openGroup() {
+      // Counting the size of the text for estimateRenderedLength asks for it too
+      if (StackWalker.getInstance().walk(frames -> frames.skip(1).findFirst())
+          .filter(frame -> frame.getMethodName().equals("renderGroup")).isPresent()) {
+        renders++;
+      }
+      return super.openGroup();
+    }
+  }
 }
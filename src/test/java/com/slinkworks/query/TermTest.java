@@ -21,11 +21,16 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 import org.junit.jupiter.api.Test;
 
 class TermTest {
@@ -272,6 +277,22 @@ class TermTest {
     assertEquals("title:dinosaurs", term.toString());
   }
 
+  @Test
+  void testAppendTo() throws Exception {
+    Term term = new Term("title", "pink panther").withProximity(2).withBoost(1.5f);
+    StringBuilder sb = new StringBuilder("q=");
+    assertSame(sb, term.appendTo(sb));
+    assertEquals("q=title:\"pink panther\"~2^1.5", sb.toString());
+
+    StringWriter writer = new StringWriter();
+    term.appendTo((Appendable) writer);
+    assertEquals(term.toString(), writer.toString());
+
+    sb = new StringBuilder();
+    new Term("title", "").appendTo(sb);
+    assertEquals("", sb.toString());
+  }
+
   @Test
   void testEqualsAndHashCode1() {
     Term term1 = new Term("title", "pink panther");
@@ -451,4 +472,143 @@ class TermTest {
     assertFalse(term1.equals("junk"));
   }
 
+  @Test
+  void testValuesCanBeChangedInPlace() {
+    // As before the shared values, the boost a term hands out can be changed
+    Term term = new Term("title", "dino").withBoost(1.5f).withProximity(1);
+    term.getBoost().setValue(3f);
+    term.getProximity().setValue(2);
+    assertEquals("title:dino~2^3", term.toString());
+    term.setConstantScore(2f);
+    term.getConstantScore().setValue(4f);
+    assertEquals("title:dino~2^=4", term.toString());
+
+    // A copy has values of its own
+    Term copy = new Term(term);
+    assertNotSame(term.getConstantScore(), copy.getConstantScore());
+    copy.getConstantScore().setValue(5f);
+    assertEquals("title:dino~2^=4", term.toString());
+
+    // A value the term no longer holds does not change it
+    Boost boost = new Boost(1f);
+    term.setBoost(boost);
+    term.setBoost(2f);
+    int hash = term.hashCode();
+    boost.setValue(7f);
+    assertEquals(hash, term.hashCode());
+    assertEquals("title:dino~2^2", term.toString());
+
+    // A frozen term holds the shared values, which can not be changed
+    Term frozen = term.frozen();
+    assertSame(Boost.valueOf(2f), frozen.getBoost());
+    assertSame(Proximity.valueOf(2), frozen.getProximity());
+    term.getBoost().setValue(6f);
+    assertEquals("title:dino~2^2", frozen.toString());
+  }
+
+  @Test
+  void testEqualsAndHashCodeFollowValuesChangedInPlace() {
+    // The term holds the caller's values, a copy values of its own
+    Boost boost = new Boost(1.5f);
+    Proximity proximity = new Proximity(1);
+    Term term1 = new Term("title", "dino").with(boost).with(proximity);
+    Term term2 = new Term("title", "dino").withBoost(1.5f).withProximity(1);
+    Term copy = new Term(term1);
+    assertSame(boost, term1.getBoost());
+    assertSame(proximity, term1.getProximity());
+    assertEquals(term1.hashCode(), term2.hashCode());
+
+    boost.setValue(2f);
+    proximity.setValue(2);
+    assertEquals("title:dino~2^2", term1.toString());
+    assertNotEquals(term1, term2);
+    assertEquals(term2, copy);
+    term2.setBoost(2f);
+    term2.setProximity(2);
+    assertEquals(term1, term2);
+    assertEquals(term2, term1);
+    assertEquals(term1.hashCode(), term2.hashCode());
+    assertEquals(Set.of(term2), Set.of(term1));
+
+    ConstantScore constantScore = new ConstantScore(3f);
+    term1.setConstantScore(constantScore);
+    term2.setConstantScore(3f);
+    assertEquals(term1.hashCode(), term2.hashCode());
+    constantScore.setValue(4f);
+    assertNotEquals(term1, term2);
+    term2.setConstantScore(4f);
+    assertEquals(term1, term2);
+    assertEquals(term1.hashCode(), term2.hashCode());
+  }
+
+  @Test
+  void testClassify() {
+    assertEquals(Term.BLANK, Term.classify(null));
+    assertEquals(Term.BLANK, Term.classify(""));
+    assertEquals(Term.BLANK, Term.classify(" \t\u2003 "));
+    assertEquals(Term.SINGLE, Term.classify("dino"));
+    assertEquals(Term.SINGLE, Term.classify("  dino "));
+    assertEquals(Term.SINGLE, Term.classify("pink\tpanther"));
+    assertEquals(Term.PHRASE, Term.classify("pink  panther"));
+    assertEquals(Term.QUOTED | Term.SPECIAL, Term.classify("\"pink panther\""));
+    assertEquals(Term.RANGE | Term.SPECIAL, Term.classify("[1 TO 2]"));
+    assertEquals(Term.RANGE | Term.SPECIAL, Term.classify("{a TO b}"));
+    assertEquals(Term.GROUPING | Term.SPECIAL, Term.classify("(a b)"));
+    assertEquals(Term.SINGLE | Term.SPECIAL, Term.classify("dino*"));
+    assertEquals(Term.PHRASE | Term.SPECIAL, Term.classify("a\\ b"));
+    assertEquals(Term.SINGLE, Term.classify("d\u00efno"));
+
+    // The copy keeps what the source was classified as
+    Term term = new Term("years", "(1900 1963)");
+    term.setProximity(2);
+    Term copy = new Term(term);
+    assertEquals(term.shape(), copy.shape());
+    assertNull(copy.getProximity());
+
+    // A blank value is not a range any more
+    term = new Term("years", "[1900 TO 1963]");
+    term.setValue("");
+    term.setProximity(2);
+    term.setValue("1963");
+    assertEquals("years:1963~2", term.toString());
+  }
+
+  @Test
+  void testEscaped() {
+    String value = "plain value";
+    assertSame(value, Term.escape(value));
+    assertNull(Term.escape(null));
+    assertEquals("", Term.escape(""));
+    assertEquals("\\\\\\+\\-\\!\\(\\)\\:\\^\\[\\]\\\"\\{\\}\\~\\*\\?\\|\\&\\/",
+        Term.escape("\\+-!():^[]\"{}~*?|&/"));
+    assertEquals("d\u00efno\\*", Term.escape("d\u00efno*"));
+
+    assertEquals("title:dino", Term.escaped("title", "dino").toString());
+    assertEquals("title:\"what\\? \\(1999\\)\"", Term.escaped("title", "what? (1999)").toString());
+    assertEquals("title:\"\\[1 TO 2\\]\"", Term.escaped("title", "[1 TO 2]").toString());
+    assertEquals("title:\\\"q\\\"", Term.escaped("title", "\"q\"").toString());
+    assertEquals("title:a\\:b\\-c", Term.escaped("title", "a:b-c").toString());
+
+    // Escaped values are no longer ranges or groups, so they can be boosted and fuzzy
+    Term term = Term.escaped("title", "(a)").withBoost(2f).withProximity(1);
+    assertEquals("title:\\(a\\)~1^2", term.toString());
+
+    // And they read back as the same term
+    for (String text : new String[] {"what? (1999)", "a:b-c", "\"q\"", "x\\y", "a && b || !c"}) {
+      term = Term.escaped("title", text);
+      assertEquals(term.toString(), TermGroupParser.parse(term.toString()).toString());
+    }
+  }
+
+  @Test
+  void testEstimateRenderedLength() {
+    Term[] terms = {new Term("title", "pink panther").withBoost(1.5f).withProximity(2),
+        new Term("", "dino").with(Occur.MUST_NOT).withConstantScore(3f),
+        new Term(null, "\u00e9mile \ud83e\udd95"), new Term("year", ""), new Term("", "  ")};
+    for (Term term : terms) {
+      assertEquals(term.toString().length(), term.estimateRenderedLength());
+      assertEquals(term.toString().getBytes(StandardCharsets.UTF_8).length,
+          term.estimateRenderedBytes());
+    }
+  }
 }
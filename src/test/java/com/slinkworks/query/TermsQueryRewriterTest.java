@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.slinkworks.query;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.slinkworks.query.TermsQueryRewriter.Method;
+import org.junit.jupiter.api.Test;
+
+class TermsQueryRewriterTest {
+
+  private static TermGroup ids(int count) {
+    TermGroup group = new TermGroup();
+    for (int i = 1; i <= count; i++) {
+      group.addTerm(new Term("id", String.valueOf(i)));
+    }
+    return group;
+  }
+
+  @Test
+  void testRewrite() {
+    TermGroup group = ids(4);
+    String before = group.toString();
+    TermsQueryRewriter rewriter = new TermsQueryRewriter(4, null, false);
+    assertEquals("( _query_:\"{!terms f=id}1,2,3,4\" )", rewriter.rewrite(group).toString());
+    assertEquals(before, group.toString());
+
+    // Below the threshold nothing changes
+    assertEquals(before, new TermsQueryRewriter(5, null, false).rewrite(group).toString());
+    assertEquals(TermsQueryRewriter.DEFAULT_THRESHOLD, new TermsQueryRewriter().getThreshold());
+    assertThrows(IllegalArgumentException.class, () -> new TermsQueryRewriter(0, null, false));
+  }
+
+  @Test
+  void testMethodAndFilter() {
+    TermsQueryRewriter rewriter = new TermsQueryRewriter(2, Method.BOOLEAN_QUERY, true);
+    TermGroup rewritten = rewriter.rewrite(ids(3));
+    assertEquals("( filter( _query_:\"{!terms f=id method=booleanQuery}1,2,3\" ) )",
+        rewritten.toString());
+    assertTrue(rewritten.getTerms().isEmpty());
+    assertTrue(rewritten.getGroups().get(0) instanceof TermFilterGroup);
+
+    // Already a filter, so not wrapped again
+    TermGroup filter = new TermFilterGroup();
+    filter.addTerm(new Term("id", "a"));
+    filter.addTerm(new Term("id", "b"));
+    TermGroup rewrittenFilter = rewriter.rewrite(filter);
+    assertTrue(rewrittenFilter instanceof TermFilterGroup);
+    assertEquals("filter( _query_:\"{!terms f=id method=booleanQuery}a,b\" )",
+        rewrittenFilter.toString());
+
+    // The filter is a sub group, after the terms and before the other sub groups
+    TermGroup mixed = new TermGroup();
+    mixed.addTerm(new Term("id", "1"));
+    mixed.addTerm(new Term("title", "x"));
+    mixed.addTerm(new Term("id", "2"));
+    mixed.addGroup().addTerm(new Term("name", "y"));
+    assertEquals("( title:x filter( _query_:\"{!terms f=id method=booleanQuery}1,2\" )"
+        + " ( name:y ) )", rewriter.rewrite(mixed).toString());
+  }
+
+  @Test
+  void testOnlyPlainTermsAreTaken() {
+    TermGroup group = new TermGroup();
+    group.addTerm(new Term("title", "x"));
+    group.addTerm(new Term("id", "1"));
+    group.addTerm(new Term("id", "2").withBoost(2f));
+    group.addTerm(new Term("id", "3").with(Occur.MUST));
+    group.addTerm(new Term("id", "4").withProximity(1));
+    group.addTerm(new Term("id", "5").withConstantScore(1f));
+    group.addTerm(new Term("id", "6 7"));
+    group.addTerm(new Term("id", "8*"));
+    group.addTerm(new Term("id", "9,10"));
+    group.addTerm(new Term("id", "[1 TO 2]"));
+    group.addTerm(new Term("id", "11"));
+    group.addTerm(new Term("id", "A-1"));
+    group.addTerm(new Term("id", "-1"));
+    group.addTerm(new Term("id", "a:b"));
+    group.addTerm(new Term("title", "y"));
+    group.addTerm(new Term("id", "12"));
+    group.addTerm(new Term(null, "13"));
+    group.addTerm(new Term("a b", "14"));
+    group.addTerm(new Term(null, "15"));
+    group.addTerm(new Term("a b", "16"));
+
+    TermGroup rewritten = new TermsQueryRewriter(3, null, false).rewrite(group);
+    assertEquals("( title:x _query_:\"{!terms f=id}1,11,A-1,12\" id:2^2 +id:3 id:4~1"
+        + " id:5^=1 id:\"6 7\" id:8* id:9,10 id:[1 TO 2] id:-1 id:a:b title:y 13 a b:14 15"
+        + " a b:16 )",
+        rewritten.toString());
+  }
+
+  @Test
+  void testSubgroups() {
+    TermGroup group = new TermGroup().withLabel("top").withBoost(3f);
+    group.addGroup(ids(3).with(Occur.MUST_NOT).withLabel("deny"));
+    group.addGroup(ids(1));
+    group.freeze();
+
+    TermGroup fork = group.fork();
+    TermGroup rewritten = new TermsQueryRewriter(2, null, false).rewrite(fork);
+    assertEquals("( -( _query_:\"{!terms f=id}1,2,3\" ) ( id:1 ) )^3", rewritten.toString());
+    assertEquals("top", rewritten.getLabel());
+    assertEquals(1, rewritten.findByLabel("deny").size());
+    assertNull(rewritten.getParentGroup());
+    assertSame(group.getTerms().size(), fork.contentTerms().size());
+  }
+}